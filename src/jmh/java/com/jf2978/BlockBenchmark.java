@@ -0,0 +1,49 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The BlockBenchmark class measures mining a block at a fixed difficulty, always starting from the same nonce seed
+ * (the timestamp still advances while mining, as it does in Block.mine).
+ *
+ * @author jf2978
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockBenchmark {
+
+    private static final long SEED = 42L;
+    private static final int TRANSACTIONS = 100;
+
+    @Param({"12"})
+    public int difficulty; // leading zero bits
+
+    private Wallet wallet;
+    private Block block;
+
+    @Setup(Level.Trial)
+    public void keys(){
+        CryptoEngine.init();
+        wallet = new Wallet();
+    }
+
+    @Setup(Level.Invocation)
+    public void template(){
+        block = new Block(Utility.SHA512("previous"), SEED);
+        for(int i = 0; i < TRANSACTIONS; i++){
+            block.transactions.add(new Transaction(Utility.SHA512(Integer.toString(i)), wallet.eK, wallet.address, 1f));
+        }
+    }
+
+    @Benchmark
+    public String mine(){
+        block.mine(difficulty);
+        return block.signature;
+    }
+}
@@ -0,0 +1,79 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The CodecBenchmark class compares the binary BlockCodec with the Gson JSON path on a block of signed transactions
+ * (each spending one output of a previous transaction and paying to a recipient with change). The encoded size of
+ * both forms is printed once per trial.
+ *
+ * @author jf2978
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"100", "1000"})
+    public int transactions;
+
+    private Block block;
+    private byte[] binary;
+    private byte[] json;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void block(){
+        CryptoEngine.init();
+        Wallet sender = new Wallet();
+        Wallet recipient = new Wallet();
+        block = new Block(Utility.SHA512("previous"), 42L);
+        for(int i = 0; i < transactions; i++){
+            Set<TransactionOutput> inputs = new HashSet<>();
+            inputs.add(new TransactionOutput(sender.address, 10f, Utility.SHA512("parent" + i)));
+            Transaction transaction = new Transaction(sender.eK, recipient.address, 4f, inputs);
+            transaction.sign(sender.dK);
+            transaction.outputs.add(new TransactionOutput(recipient.address, 4f, transaction.id, 0));
+            transaction.outputs.add(new TransactionOutput(sender.address, 6f, transaction.id, 1));
+            block.transactions.add(transaction);
+        }
+        block.merkleRoot = Utility.getMerkleRoot(block.transactions);
+
+        binary = BlockCodec.encode(block);
+        json = Utility.JSON.toJson(block).getBytes(StandardCharsets.UTF_8);
+        buffer = ByteBuffer.allocate(binary.length);
+        System.out.printf("%n%d transactions: binary %d bytes, JSON %d bytes (%.1fx)%n",
+                transactions, binary.length, json.length, (double) json.length / binary.length);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary(){
+        buffer.clear();
+        BlockCodec.encode(block, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public Block decodeBinary(){
+        return BlockCodec.decodeBlock(ByteBuffer.wrap(binary));
+    }
+
+    @Benchmark
+    public byte[] encodeJson(){
+        return Utility.JSON.toJson(block).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Block decodeJson(){
+        return Utility.JSON.fromJson(new String(json, StandardCharsets.UTF_8), Block.class);
+    }
+}
@@ -0,0 +1,61 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The CoinSelectionBenchmark class measures the latency of each CoinSelector strategy for a wallet holding 100k
+ * unspent outputs of random value (multiples of 0.25, so exact matches exist in binary floating point). The number of
+ * inputs picked and the change left over are printed once per trial.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoinSelectionBenchmark {
+
+    private static final int OUTPUTS = 100_000;
+
+    @Param({"LARGEST_FIRST", "BRANCH_AND_BOUND", "CONSOLIDATE"})
+    public CoinSelector selector;
+
+    @Param({"12.5", "1234.75"})
+    public float goal;
+
+    private long units; // goal in fixed-point units
+    private Wallet wallet;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        CryptoEngine.init();
+        wallet = new Wallet();
+        wallet.selector = selector;
+        units = UtxoStore.toUnits(goal);
+        Main.SimpleBlockChain.UTXOs = new HeapUtxoStore();
+        Random random = new Random(42);
+        for(int i = 0; i < OUTPUTS; i++){
+            float value = 0.25f * (1 + random.nextInt(400));
+            Main.SimpleBlockChain.UTXOs.add(new TransactionOutput(wallet.address, value, Utility.SHA512(Integer.toString(i))));
+        }
+
+        long sum = 0;
+        Set<TransactionOutput> inputs = wallet.getInputs(units);
+        for(TransactionOutput input : inputs){
+            sum += UtxoStore.toUnits(input.value);
+        }
+        System.out.printf("%n%s for %.2f: %d inputs, change %.2f%n",
+                selector, goal, inputs.size(), UtxoStore.fromUnits(sum - units));
+    }
+
+    @Benchmark
+    public Set<TransactionOutput> select(){
+        return wallet.getInputs(units);
+    }
+}
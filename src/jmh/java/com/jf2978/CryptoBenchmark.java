@@ -0,0 +1,55 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The CryptoBenchmark class measures the hash and signature primitives every transaction, output and block goes
+ * through (Utility.SHA512, Utility.ECDSASignature and Utility.verifyECDSASignature, i.e. secp521r1). See
+ * SignatureBenchmark for the other signature schemes.
+ *
+ * @author jf2978
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Param({"64", "512"})
+    public int length; // characters hashed/signed
+
+    private String input;
+    private Wallet wallet;
+    private byte[] signature;
+
+    @Setup
+    public void setup(){
+        CryptoEngine.init();
+        StringBuilder sb = new StringBuilder(length);
+        for(int i = 0; i < length; i++){
+            sb.append((char) ('A' + i % 26));
+        }
+        input = sb.toString();
+        wallet = new Wallet(SignatureScheme.SECP521R1);
+        signature = Utility.ECDSASignature(input, wallet.dK);
+    }
+
+    @Benchmark
+    public String sha512(){
+        return Utility.SHA512(input);
+    }
+
+    @Benchmark
+    public byte[] sign(){
+        return Utility.ECDSASignature(input, wallet.dK);
+    }
+
+    @Benchmark
+    public boolean verify(){
+        return Utility.verifyECDSASignature(input, wallet.eK, signature);
+    }
+}
@@ -0,0 +1,86 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The HeaderIndexBenchmark class measures a HeaderIndex of synthetic headers (random merkle roots, linked hashes,
+ * difficulty 0): revalidating every header, and looking headers up by hash and by height. The memory used per header,
+ * and projected for 10M headers, is printed once per trial.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderIndexBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1000000"})
+    public int headers;
+
+    private HeaderIndex index;
+    private byte[][] hashes;
+    private int[] heights;
+
+    @Setup(Level.Trial)
+    public void fill(){
+        CryptoEngine.init();
+        index = new HeaderIndex(headers);
+        MessageDigest md = CryptoEngine.newDigest("SHA-512");
+        Random random = new Random(42);
+        byte[] previous = new byte[Utility.DIGEST_LENGTH];
+        byte[] root = new byte[Utility.DIGEST_LENGTH];
+        for(int height = 0; height < headers; height++){
+            random.nextBytes(root);
+            ByteBuffer header = ByteBuffer.allocate(BlockHeader.SIZE);
+            header.put(previous).put(root).putLong(height).putLong(height);
+            byte[] hash = md.digest(header.array());
+            index.append(previous, root, height, height, hash, 0);
+            previous = hash;
+        }
+
+        hashes = new byte[LOOKUPS][];
+        heights = new int[LOOKUPS];
+        for(int i = 0; i < LOOKUPS; i++){
+            heights[i] = random.nextInt(headers);
+            hashes[i] = index.hash(heights[i]);
+        }
+        System.out.printf("%n%d headers: %.1f bytes/header, %d MB (10M headers: %.2f GB)%n", headers,
+                index.bytesPerHeader(), index.memoryBytes() >> 20, index.bytesPerHeader() * 10_000_000 / 1e9);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int validate(){
+        return index.validate(0, headers, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int heightByHash(){
+        int found = 0;
+        for(byte[] hash : hashes){
+            found += index.height(hash);
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long headerByHeight(){
+        long work = 0;
+        for(int height : heights){
+            work += index.timestamp(height) + index.cumulativeWork(height);
+        }
+        return work;
+    }
+}
@@ -0,0 +1,56 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The MempoolBenchmark class measures building a block template from a mempool of signed transactions (a mix of
+ * fee-paying and free payments, each spending its own unspent output).
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MempoolBenchmark {
+
+    private static final int PENDING = 5_000;
+
+    @Param({"100", "1000"})
+    public int maxTxs;
+
+    private Mempool mempool;
+
+    @Setup(Level.Trial)
+    public void fill(){
+        CryptoEngine.init();
+        Wallet sender = new Wallet();
+        Wallet recipient = new Wallet();
+        UtxoStore UTXOs = new HeapUtxoStore();
+        Main.SimpleBlockChain.UTXOs = UTXOs;
+        mempool = new Mempool();
+        for(int i = 0; i < PENDING; i++){
+            TransactionOutput coin = new TransactionOutput(sender.address, 100f, Utility.SHA512("coin" + i));
+            UTXOs.add(coin);
+            Set<TransactionOutput> inputs = new HashSet<>();
+            inputs.add(coin);
+            float value = i % 3 == 0 ? 60f : 10f;
+            Transaction transaction = new Transaction(sender.eK, recipient.address, value,
+                    UtxoStore.toUnits(Utility.calculateFee(value)), inputs);
+            transaction.sign(sender.dK);
+            mempool.add(transaction);
+        }
+    }
+
+    @Benchmark
+    public List<Transaction> buildTemplate(){
+        return mempool.buildTemplate(maxTxs);
+    }
+}
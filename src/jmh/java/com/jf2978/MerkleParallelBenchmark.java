@@ -0,0 +1,50 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The MerkleParallelBenchmark class compares sequential and fork/join FlatMerkleTree construction across tree sizes,
+ * to place FlatMerkleTree.parallelThreshold at the crossover point where parallel hashing starts to pay off.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MerkleParallelBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "100000", "250000"})
+    public int leaves;
+
+    @Param({"256", "2048", "8192"})
+    public int threshold; // parents per fork/join task
+
+    private List<byte[]> digests;
+
+    @Setup
+    public void setup(){
+        CryptoEngine.init();
+        FlatMerkleTree.parallelThreshold = threshold;
+        digests = new ArrayList<>(leaves);
+        for(int i = 0; i < leaves; i++){
+            digests.add(Utility.digestBytes(Utility.SHA512(Integer.toString(i))));
+        }
+    }
+
+    @Benchmark
+    public byte[] sequential(){
+        return new FlatMerkleTree(digests, false).root();
+    }
+
+    @Benchmark
+    public byte[] parallel(){
+        return new FlatMerkleTree(digests, true).root();
+    }
+}
@@ -0,0 +1,59 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The MerkleTreeBenchmark class measures building a Merkle tree (and its root) from transaction ids, both as a
+ * Node tree and as a FlatMerkleTree, plus swapping a single leaf of an existing FlatMerkleTree.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MerkleTreeBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    public int leaves;
+
+    private List<String> ids;
+    private List<byte[]> digests;
+    private FlatMerkleTree flat;
+    private int swap;
+
+    @Setup
+    public void setup(){
+        CryptoEngine.init();
+        ids = new ArrayList<>(leaves);
+        digests = new ArrayList<>(leaves);
+        for(int i = 0; i < leaves; i++){
+            ids.add(Utility.SHA512(Integer.toString(i)));
+            digests.add(Utility.digestBytes(ids.get(i)));
+        }
+        flat = new FlatMerkleTree(digests);
+    }
+
+    @Benchmark
+    public MerkleTree.Node construct(){
+        return new MerkleTree(ids).getRoot();
+    }
+
+    @Benchmark
+    public byte[] constructFlat(){
+        return new FlatMerkleTree(digests).root();
+    }
+
+    @Benchmark
+    public byte[] replaceLeaf(){
+        swap = (swap + 1) % leaves;
+        flat.set(swap, digests.get((swap + 1) % leaves));
+        return flat.root();
+    }
+}
@@ -0,0 +1,68 @@
+package com.jf2978;
+
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The MiningBenchmark class measures proof-of-work hash attempts per second at a fixed difficulty. Each operation is
+ * one nonce attempt (set nonce, hash, check target), so the reported ops/s is the miner's hash rate:
+ *
+ *   fullHeader     - all 144 header bytes per attempt through the JDK MessageDigest (the loop before midstates)
+ *   fullHeaderBC   - all 144 header bytes per attempt through BouncyCastle's SHA512Digest (same engine as midstate)
+ *   midstate       - cached prefix state + 16-byte timestamp/nonce tail per attempt (current Block.mine loop)
+ *
+ * @author jf2978
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+
+    @Param({"16"})
+    public int difficulty; // leading zero bits
+
+    private BlockHeader header;
+    private BlockHeader.Midstate midstate;
+    private MessageDigest md;
+    private SHA512Digest bc;
+    private byte[] digest;
+    private long nonce;
+
+    @Setup
+    public void setup(){
+        header = new BlockHeader(Utility.SHA512("previous"), Utility.SHA512("merkle"), 0L, 0L);
+        midstate = header.midstate();
+        md = Utility.SHA512Digest();
+        bc = new SHA512Digest();
+        digest = new byte[Utility.DIGEST_LENGTH];
+        nonce = 0;
+    }
+
+    @Benchmark
+    public boolean fullHeader(){
+        header.setNonce(++nonce);
+        header.hash(md, digest);
+        return Utility.hasLeadingZeroBits(digest, difficulty);
+    }
+
+    @Benchmark
+    public boolean fullHeaderBC(){
+        header.setNonce(++nonce);
+        bc.update(header.getBytes(), 0, BlockHeader.SIZE);
+        bc.doFinal(digest, 0);
+        return Utility.hasLeadingZeroBits(digest, difficulty);
+    }
+
+    @Benchmark
+    public boolean midstate(){
+        midstate.setNonce(++nonce);
+        midstate.hash(digest);
+        return Utility.hasLeadingZeroBits(digest, difficulty);
+    }
+}
@@ -0,0 +1,54 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The SignatureBenchmark class measures key generation, signing and verification throughput for each SignatureScheme,
+ * over a transaction id (128 hex characters, as signed by Transaction.sign).
+ *
+ * @author jf2978
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    @Param({"SECP521R1", "SECP256K1", "ED25519"})
+    public SignatureScheme scheme;
+
+    private String id;
+    private Wallet wallet;
+    private byte[] signature;
+
+    @Setup
+    public void setup(){
+        CryptoEngine.init();
+        id = Utility.SHA512("transaction");
+        wallet = new Wallet(scheme);
+        signature = scheme.sign(id, wallet.dK);
+        System.out.printf("%n%s: %d byte key, %d byte signature%n",
+                scheme, wallet.eK.getEncoded().length, signature.length);
+    }
+
+    @Benchmark
+    public KeyPair keyGen() throws GeneralSecurityException {
+        return scheme.generateKeyPair();
+    }
+
+    @Benchmark
+    public byte[] sign(){
+        return scheme.sign(id, wallet.dK);
+    }
+
+    @Benchmark
+    public boolean verify(){
+        return scheme.verify(id, wallet.eK, signature);
+    }
+}
@@ -0,0 +1,46 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The SignatureCacheBenchmark class measures Transaction.verify for a transaction whose signature is already in the
+ * chain's SignatureCache (the mempool-then-block case) against a full check with the cache disabled.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureCacheBenchmark {
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        CryptoEngine.init();
+        Main.SimpleBlockChain.signatures = cached ? new SignatureCache(SignatureCache.DEFAULT_CAPACITY) : null;
+        Wallet sender = new Wallet();
+        transaction = new Transaction(sender.eK, new Wallet().address, 1f, new HashSet<>());
+        transaction.sign(sender.dK);
+        transaction.verify(); // admission check fills the cache
+    }
+
+    @TearDown(Level.Trial)
+    public void report(){
+        System.out.printf("%n%s%n", Main.SimpleBlockChain.signatures);
+    }
+
+    @Benchmark
+    public boolean verify(){
+        return transaction.verify();
+    }
+}
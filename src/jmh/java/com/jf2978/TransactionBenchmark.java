@@ -0,0 +1,64 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The TransactionBenchmark class measures Transaction.process (signature check + UTXO updates) against an unspent
+ * output store holding 1M outputs. Each operation spends one of the sender's outputs back to the sender, so the map
+ * keeps its size across invocations; creating and signing the transaction is done outside the measurement. The store
+ * parameter runs it against the heap and the off-heap UTXO backends (the latter reports its bytes per entry).
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TransactionBenchmark {
+
+    private static final int OUTPUTS = 1_000_000;
+    private static final int ADDRESSES = 1_000;
+
+    @Param({"heap", "offheap"})
+    public String store;
+
+    private Wallet sender;
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void fill(){
+        CryptoEngine.init();
+        UtxoStore UTXOs = store.equals("offheap") ? new OffHeapUtxoStore(OUTPUTS) : new HeapUtxoStore();
+        sender = new Wallet();
+        for(int a = 0; a < ADDRESSES; a++){
+            Address owner = a == 0 ? sender.address : new Wallet().address;
+            for(int i = 0; i < OUTPUTS / ADDRESSES; i++){
+                UTXOs.add(new TransactionOutput(owner, 1f + i % 100, Utility.SHA512(a + ":" + i)));
+            }
+        }
+        Main.SimpleBlockChain.UTXOs = UTXOs;
+        if(UTXOs instanceof OffHeapUtxoStore){
+            System.out.printf("Off-heap UTXO store: %.1f bytes/entry%n", ((OffHeapUtxoStore) UTXOs).bytesPerEntry());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare(){
+        TransactionOutput input = Main.SimpleBlockChain.UTXOs.outputsOf(sender.address).iterator().next();
+        Set<TransactionOutput> inputs = new HashSet<>();
+        inputs.add(input);
+        transaction = new Transaction(sender.eK, sender.address, input.value, inputs);
+        transaction.sign(sender.dK);
+    }
+
+    @Benchmark
+    public boolean process(){
+        return transaction.process();
+    }
+}
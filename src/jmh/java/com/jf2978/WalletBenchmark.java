@@ -0,0 +1,51 @@
+package com.jf2978;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** =====
+ * The WalletBenchmark class measures Wallet.getInputs coin selection and Wallet.balance for wallets holding many
+ * unspent outputs.
+ *
+ * @author jf2978
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletBenchmark {
+
+    @Param({"1000", "100000"})
+    public int outputs;
+
+    @Param({"10", "5000"})
+    public float goal;
+
+    private long units; // goal in fixed-point units
+    private Wallet wallet;
+
+    @Setup
+    public void setup(){
+        CryptoEngine.init();
+        wallet = new Wallet();
+        units = UtxoStore.toUnits(goal);
+        Main.SimpleBlockChain.UTXOs = new HeapUtxoStore();
+        for(int i = 0; i < outputs; i++){
+            Main.SimpleBlockChain.UTXOs.add(new TransactionOutput(wallet.address, 1f + i % 100, Utility.SHA512(Integer.toString(i))));
+        }
+    }
+
+    @Benchmark
+    public Set<TransactionOutput> getInputs(){
+        return wallet.getInputs(units);
+    }
+
+    @Benchmark
+    public float balance(){
+        return wallet.balance();
+    }
+}
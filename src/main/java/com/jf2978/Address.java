@@ -0,0 +1,111 @@
+package com.jf2978;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/** =====
+ * The Address class is the compact, immutable identity of a wallet: the SHA-256 hash of its encoded public key.
+ * Outputs are paid to addresses and the UTXO store indexes them by address, so keys are only parsed and encoded where
+ * a signature has to be verified. Addresses compare by their 32 bytes, and hash by (the first four of) them: a digest
+ * is already uniformly distributed, so hashCode is computed once and equals never touches a provider.
+ *
+ * @author jf2978
+ */
+public final class Address {
+
+    // Static Variables
+    public static final int LENGTH = 32; // SHA-256 output size in bytes
+    private static final int CACHE = 1024;
+    private static final ThreadLocal<Object[][]> known = ThreadLocal.withInitial(() ->
+            new Object[][]{new PublicKey[CACHE], new Address[CACHE]}); // direct-mapped key -> address cache
+
+    // Instance variables
+    private final byte[] hash;
+    private final int hashCode;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an address from its hash
+     *
+     * @param digest SHA-256 hash of an encoded public key (copied)
+     */
+    public Address(byte[] digest){
+        if(digest.length != LENGTH){
+            throw new IllegalArgumentException("Address must be " + LENGTH + " bytes, not " + digest.length);
+        }
+        hash = digest.clone();
+        hashCode = ByteBuffer.wrap(hash).getInt();
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the address of a public key
+     *
+     * @param key Public key
+     * @return SHA-256 hash of the key's encoding
+     */
+    public static Address of(PublicKey key){
+        // Keyed by identity: key objects are shared (by wallets and decoded blocks), and provider hashCodes are slow
+        Object[][] cache = known.get();
+        int slot = System.identityHashCode(key) & (CACHE - 1);
+        if(cache[0][slot] != key){
+            cache[1][slot] = new Address(CryptoEngine.digest("SHA-256").digest(key.getEncoded()));
+            cache[0][slot] = key;
+        }
+        return (Address) cache[1][slot];
+    }
+
+    /** =====
+     * Parses an address from its hex form (see toString)
+     *
+     * @param hex 64 hex characters
+     * @return Address
+     */
+    public static Address fromHex(String hex){
+        if(hex.length() != LENGTH * 2){
+            throw new IllegalArgumentException("Invalid address: " + hex);
+        }
+        byte[] digest = Utility.digestBytes(hex); // left-padded to a 64-byte digest
+        return new Address(Arrays.copyOfRange(digest, digest.length - LENGTH, digest.length));
+    }
+
+    /** =====
+     * Returns a copy of the address bytes
+     *
+     * @return SHA-256 hash of the encoded public key
+     */
+    public byte[] toBytes(){
+        return hash.clone();
+    }
+
+    /** =====
+     * Writes the address bytes to a buffer
+     *
+     * @param out Destination buffer (advanced past the address)
+     */
+    public void writeTo(ByteBuffer out){
+        out.put(hash);
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object o){
+        return o == this || o instanceof Address && Arrays.equals(hash, ((Address) o).hash);
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode(){
+        return hashCode;
+    }
+
+    /** {@inheritDoc} */
+    public String toString(){
+        return Utility.toHex(hash);
+    }
+}
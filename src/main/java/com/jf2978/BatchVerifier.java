@@ -0,0 +1,122 @@
+package com.jf2978;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** =====
+ * The BatchVerifier class checks the signatures of a batch of transactions concurrently on a fixed pool of worker
+ * threads. Signature checks are independent of each other (and of the UTXO map), so they can run in any order; the
+ * first invalid signature fails the whole batch and cancels the checks still pending.
+ *
+ * @author jf2978
+ */
+public class BatchVerifier {
+
+    // Instance variables
+    private final int workers;
+    private final ExecutorService pool;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * BatchVerifier constructor that starts a pool of (daemon) verification threads
+     *
+     * @param n Number of worker threads
+     */
+    public BatchVerifier(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("Must provide at least one verification worker");
+        }
+        workers = n;
+        pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "verifier");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the number of workers in this verifier's pool
+     *
+     * @return Worker count
+     */
+    public int getWorkers(){
+        return workers;
+    }
+
+    /** =====
+     * Verifies every transaction signature in the batch, failing fast on the first invalid one (signatures verified
+     * before are answered from the chain's SignatureCache)
+     *
+     * @param batch Transactions to verify
+     * @return True if all signatures are valid
+     */
+    public boolean verify(List<Transaction> batch){
+        return verify(batch, true);
+    }
+
+    /** =====
+     * Verifies every transaction signature in the batch, failing fast on the first invalid one
+     *
+     * @param batch Transactions to verify
+     * @param cached Whether the chain's SignatureCache may answer (false to check every signature afresh)
+     * @return True if all signatures are valid
+     */
+    public boolean verify(List<Transaction> batch, boolean cached){
+        if(batch.isEmpty()){
+            return true;
+        }
+        long begin = System.nanoTime();
+        SignatureCache cache = cached ? Main.SimpleBlockChain.signatures : null;
+        long hits = cache == null ? 0 : cache.getHits();
+        AtomicBoolean failed = new AtomicBoolean(false);
+        CompletionService<Boolean> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Boolean>> futures = new ArrayList<>(batch.size());
+        for(Transaction transaction : batch){
+            futures.add(completion.submit(() -> failed.get() || transaction.verify(cached))); // skip work once failed
+        }
+
+        boolean valid = true;
+        try {
+            for(int i = 0; i < futures.size() && valid; i++){
+                valid = completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            valid = false;
+        } catch (ExecutionException e) {
+            System.out.println(e.getMessage());
+            valid = false;
+        }
+
+        if(!valid){
+            failed.set(true);
+            for(Future<Boolean> f : futures){
+                f.cancel(false);
+            }
+            System.out.println("Batch signature verification failed...");
+            return false;
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("Verified %d signatures in %.3fs (%.0f sigs/s, %d workers, %d cached)\n",
+                batch.size(), seconds, seconds == 0 ? 0 : batch.size() / seconds, workers,
+                cache == null ? 0 : cache.getHits() - hits);
+        return true;
+    }
+
+    /** =====
+     * Stops the worker threads; no more batches can be verified with this verifier afterwards
+     */
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+}
@@ -1,18 +1,20 @@
 package com.jf2978;
 
 import com.google.gson.GsonBuilder;
-import org.apache.commons.lang3.StringUtils;
 
 import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /** =====
  * The Block class represents an individual block that makes up our decentralized network. As outlined in the Bitcoin
  * whitepaper, each block contains a public reference to the previous block, a list of transactions, a timestamp and its
- * merkleroot (for verification purposes)
+ * merkleroot (for verification purposes). Once buried deep enough, a block can be pruned down to its header: its
+ * transactions are dropped and only the merkle root committing to them is kept.
  *
  * @author jf2978
  */
@@ -22,9 +24,11 @@ public class Block {
     public String signature; // aims to provide data integrity, origin authenticity + non-repudiation
     public String previousHash; // dependence on the previous block signature guarantees no tampering on previous blocks
     public String merkleRoot; // hash tree root for verifying transaction list
-    public List<Transaction> transactions;
-    public String timestamp;
-    private int nonce;
+    public List<Transaction> transactions; // empty once pruned
+    public boolean pruned; // transaction bodies dropped (header only)
+    private transient FlatMerkleTree tree; // incrementally maintained over the transaction ids
+    public long timestamp; // epoch millis
+    private long nonce;
 
     // #####
     // CONSTRUCTOR(S)
@@ -36,13 +40,44 @@ public class Block {
      * @param prev Previous block id
      */
     public Block(String prev){
+        this(prev, new SecureRandom().nextInt());
+    }
+
+    /** =====
+     * Block constructor with a fixed starting nonce (reproducible mining runs, e.g. benchmarks)
+     *
+     * @param prev Previous block id
+     * @param seed Nonce the proof-of-work search starts from
+     */
+    Block(String prev, long seed){
         previousHash = prev;
         transactions = new ArrayList<>();
-        timestamp = LocalDateTime.now().toString();
-        nonce = new SecureRandom().nextInt();
+        tree = new FlatMerkleTree();
+        timestamp = System.currentTimeMillis();
+        nonce = seed;
         signature = this.hash();
     }
 
+    /** =====
+     * Block constructor that rebuilds a stored (already mined) block as is (see BlockCodec)
+     *
+     * @param prev Previous block id
+     * @param root Merkle root
+     * @param time Timestamp (epoch millis)
+     * @param n Nonce
+     * @param sig Block signature
+     * @param txs Transactions, in block order
+     */
+    Block(String prev, String root, long time, long n, String sig, List<Transaction> txs){
+        previousHash = prev;
+        merkleRoot = root;
+        timestamp = time;
+        nonce = n;
+        signature = sig;
+        transactions = txs;
+        tree = new FlatMerkleTree(Math.max(1, txs.size())); // filled from the transactions when next needed
+    }
+
     // #####
     // PUBLIC METHODS
     // #####
@@ -74,6 +109,9 @@ public class Block {
     }
 
     public String shortTransactions(){
+        if(pruned){
+            return "< pruned >";
+        }
         StringBuilder sb = new StringBuilder();
         sb.append("< ");
         for(Transaction tx : transactions){
@@ -89,32 +127,91 @@ public class Block {
     }
     /** =====
      * "Mines" current block. That is, using CPU power to continuously produce hash signatures that match
-     * the blockchain's current difficulty - Proof of Work
+     * the blockchain's current difficulty - Proof of Work. Only the timestamp/nonce tail of the binary header is
+     * hashed per attempt (on top of a cached midstate), so trying a nonce allocates nothing.
      *
-     * @param diff Mining difficulty and number of zeroes our target hash value starts with
+     * @param diff Mining difficulty as the number of leading zero bits our target hash value starts with
      */
     public void mine(int diff){
-        merkleRoot = Utility.getMerkleRoot(transactions);
-        String target = StringUtils.leftPad("", diff, '0'); // Appends diff * ('0') to ""
+        merkleRoot = merkleRoot();
+        BlockHeader.Midstate header = header().midstate();
+        byte[] digest = new byte[Utility.DIGEST_LENGTH];
         LocalDateTime start = LocalDateTime.now();
 
         System.out.println("Mining Block...");
-        while(!signature.substring(0, diff).equals(target)) {
-            nonce++;
-            timestamp = LocalDateTime.now().toString();
-            signature = hash();
+        header.hash(digest);
+        while(!Utility.hasLeadingZeroBits(digest, diff)) {
+            header.setNonce(++nonce);
+            header.setTimestamp(System.currentTimeMillis());
+            header.hash(digest);
         }
+        timestamp = header.getTimestamp();
+        signature = Utility.toHex(digest);
 
         LocalDateTime end = LocalDateTime.now();
         System.out.println("Mining Success: " + Duration.between(start,end).toString());
     }
 
+    /** =====
+     * "Mines" current block in parallel, splitting the nonce space across the given miner's worker pool
+     *
+     * @param diff Mining difficulty as the number of leading zero bits our target hash value starts with
+     * @param miner Pool of mining workers to use
+     * @throws IllegalStateException If the miner stopped without a solution (see ParallelMiner.mine)
+     */
+    public void mine(int diff, ParallelMiner miner){
+        merkleRoot = merkleRoot();
+        byte[] digest = header().hash();
+        signature = Utility.toHex(digest);
+        if(Utility.hasLeadingZeroBits(digest, diff)){
+            return;
+        }
+        miner.mine(this, diff);
+    }
+
+    /** =====
+     * Generates the Merkle inclusion proof of one of this block's transactions, so a light client holding only the
+     * block header (merkle root) can check the transaction was included
+     *
+     * @param txId Transaction id to prove
+     * @return Proof to check with MerkleTree.verify against this block's merkle root, or null if not in this block
+     */
+    public MerkleTree.Proof proofFor(String txId){
+        if(transactions.isEmpty()){
+            return null;
+        }
+        List<String> ids = new ArrayList<>(transactions.size());
+        for(Transaction tx : transactions){
+            ids.add(tx.id);
+        }
+        return new MerkleTree(ids).getProof(txId);
+    }
+
+    /** =====
+     * Drops this block's transaction bodies, keeping only its header (previous hash, merkle root, timestamp, nonce and
+     * signature). The header still hashes to the signature and commits to the dropped transactions through the merkle
+     * root, so the chain can still be validated; merkle proofs can no longer be generated from this block.
+     *
+     * @return Estimated heap bytes released (see heapSize)
+     */
+    public long prune(){
+        if(pruned){
+            return 0;
+        }
+        long released = heapSize(transactions);
+        transactions = Collections.emptyList();
+        tree = null;
+        pruned = true;
+        return released;
+    }
+
     /** =====
      * Adds transaction to this block
      *
      * @param transaction Transaction to be added to the list
      */
     public boolean addTransaction(Transaction transaction){
+        checkNotPruned();
         // Valid Transaction check
         if(transaction == null || transaction.outputs == null){ return false; }
 
@@ -125,21 +222,236 @@ public class Block {
                 return false;
             }
         }
+        syncTree(); // (catch up with transactions appended to the list directly first)
         transactions.add(transaction);
+        tree.append(Utility.digestBytes(transaction.id));
         return true;
     }
 
+    /** =====
+     * Gives back the UTXO changes of this block's transactions (applied as they were added), last transaction first,
+     * for a block the chain did not take. A genesis block's transactions were never applied. A transaction whose
+     * outputs were spent since stays applied (see Transaction.revert).
+     *
+     * @return True if every transaction was reverted
+     */
+    boolean revert(){
+        if(previousHash.equals("0")){
+            return true;
+        }
+        boolean reverted = true;
+        for(int i = transactions.size() - 1; i >= 0; i--){
+            reverted &= transactions.get(i).revert();
+        }
+        return reverted;
+    }
+
+    /** =====
+     * Replaces one of this block's transactions (e.g. a miner swapping an already-validated transaction into its
+     * block template); only the replaced leaf's path of the merkle tree is recomputed
+     *
+     * @param index Position of the transaction to replace
+     * @param transaction Transaction to put in its place
+     */
+    public void replaceTransaction(int index, Transaction transaction){
+        checkNotPruned();
+        syncTree();
+        transactions.set(index, transaction);
+        tree.set(index, Utility.digestBytes(transaction.id));
+    }
+
+    /** =====
+     * Adds a batch of transactions to this block. All signatures are checked concurrently first (the whole batch is
+     * rejected on the first invalid one), then the UTXO changes are applied one transaction at a time in block order.
+     *
+     * @param batch Transactions to be added, in block order
+     * @param verifier Pool used to check the signatures
+     * @return True if every transaction was added
+     */
+    public boolean addTransactions(List<Transaction> batch, BatchVerifier verifier){
+        return addTransactions(batch, verifier, null);
+    }
+
+    /** =====
+     * Adds a batch of transactions to this block, checking all signatures concurrently and then applying the UTXO
+     * changes with the given connector (independent transactions in parallel, with the same result as block order).
+     *
+     * @param batch Transactions to be added, in block order
+     * @param verifier Pool used to check the signatures
+     * @param connector Pool used to apply the UTXO changes (null to apply them sequentially)
+     * @return True if every transaction was added
+     */
+    public boolean addTransactions(List<Transaction> batch, BatchVerifier verifier, BlockConnector connector){
+        checkNotPruned();
+        // Valid Transaction check
+        for(Transaction transaction : batch){
+            if(transaction == null || transaction.outputs == null){ return false; }
+        }
+
+        syncTree(); // (catch up with transactions appended to the list directly first)
+
+        // Genesis block transactions are not processed
+        if(previousHash.equals("0")){
+            for(Transaction transaction : batch){
+                transactions.add(transaction);
+                tree.append(Utility.digestBytes(transaction.id));
+            }
+            return true;
+        }
+
+        if(!verifier.verify(batch)){
+            System.out.println("Transaction batch failed to verify. Discarded.");
+            return false;
+        }
+
+        boolean[] applied;
+        if(connector != null){
+            applied = connector.connect(batch);
+        } else {
+            applied = new boolean[batch.size()];
+            for(int i = 0; i < applied.length; i++){
+                applied[i] = batch.get(i).apply();
+            }
+        }
+
+        boolean added = true;
+        for(int i = 0; i < applied.length; i++){
+            if(!applied[i]) {
+                System.out.println("Transaction failed to process. Discarded.");
+                added = false;
+                continue;
+            }
+            transactions.add(batch.get(i));
+            tree.append(Utility.digestBytes(batch.get(i).id));
+        }
+        return added;
+    }
+
     // #####
     // HELPER METHODS
     // #####
 
     /** =====
-     * Generates cryptographic (one-way) hash for the current transaction using the Secure Hash Algorithm (512)
+     * Rejects changes to (and merkle roots of) a pruned block, whose transactions and merkle tree are gone
+     */
+    private void checkNotPruned() {
+        if(pruned){
+            throw new IllegalStateException("Block " + signature + " is pruned: its transactions are no longer held");
+        }
+    }
+
+    /** =====
+     * Generates cryptographic (one-way) hash for the current block header using the Secure Hash Algorithm (512)
      * Note, this aims to provide data integrity and origin authenticity before signing as well.
      *
      * @return Hex string output of the hash function
      */
     protected String hash() {
-        return Utility.SHA512(previousHash + timestamp + merkleRoot + Integer.toString(nonce));
+        return Utility.toHex(digest());
+    }
+
+    /** =====
+     * Returns the merkle root of the current transaction list
+     *
+     * @return Hex merkle root
+     */
+    private String merkleRoot() {
+        syncTree();
+        return tree.rootHex();
+    }
+
+    /** =====
+     * Brings the merkle tree up to date with transactions appended directly to the transaction list
+     */
+    private void syncTree() {
+        checkNotPruned();
+        if(tree.size() > transactions.size()){
+            tree = new FlatMerkleTree(transactions.size());
+        }
+        if(tree.size() == 0 && FlatMerkleTree.forks(transactions.size())){
+            List<byte[]> leaves = new ArrayList<>(transactions.size());
+            for(Transaction transaction : transactions){
+                leaves.add(Utility.digestBytes(transaction.id));
+            }
+            tree = new FlatMerkleTree(leaves, true); // large batch: build level by level across cores
+        }
+        for(int i = tree.size(); i < transactions.size(); i++){
+            tree.append(Utility.digestBytes(transactions.get(i).id));
+        }
+    }
+
+    /** =====
+     * Estimates the heap held by a transaction list alone, assuming compressed references (12-byte object headers,
+     * 8-byte alignment): the transactions with their ids, signatures and input/output sets, and their outputs. It
+     * only looks at the block itself (no UTXO store lookups, which would cost a hash lookup per output and, off-heap,
+     * a record rebuild), so it is an upper bound: a heap UTXO store still references the outputs left unspent. Keys
+     * and addresses are shared with wallets and other blocks, and inputs are the outputs of earlier transactions, so
+     * neither is counted.
+     *
+     * @param txs Transactions of a block
+     * @return Estimated bytes
+     */
+    private static long heapSize(List<Transaction> txs){
+        long bytes = 24 + align(16 + 4L * txs.size()); // list + backing array
+        for(Transaction tx : txs){
+            bytes += 48 + stringSize(tx.id) + (tx.signature == null ? 0 : align(16 + tx.signature.length));
+            bytes += setSize(tx.inputs) + setSize(tx.outputs);
+            for(TransactionOutput output : tx.outputs){
+                bytes += 32 + stringSize(output.id); // (its parent id is the transaction's id)
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringSize(String s){
+        return s == null ? 0 : 24 + align(16 + s.length()); // String + (Latin-1) byte[]
+    }
+
+    private static long setSize(Set<?> set){
+        return set == null ? 0 : 64 + align(16 + 8L * set.size()) + 32L * set.size(); // set, map, table, nodes
+    }
+
+    private static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+
+    /** =====
+     * Generates the raw SHA-512 digest of the current block header
+     *
+     * @return Raw digest bytes
+     */
+    protected byte[] digest() {
+        return header().hash();
+    }
+
+    /** =====
+     * Lays out the current block fields as a fixed-size binary header (the preimage of the block signature)
+     *
+     * @return Binary block header
+     */
+    BlockHeader header() {
+        return new BlockHeader(previousHash, merkleRoot, timestamp, nonce);
+    }
+
+    /** =====
+     * Returns the current nonce of this block
+     *
+     * @return Nonce
+     */
+    long getNonce(){
+        return nonce;
+    }
+
+    /** =====
+     * Records a proof-of-work solution found by a mining worker
+     *
+     * @param n Winning nonce
+     * @param time Timestamp used with the winning nonce
+     * @param sig Resulting signature
+     */
+    void solve(long n, long time, String sig){
+        nonce = n;
+        timestamp = time;
+        signature = sig;
     }
-}
\ No newline at end of file
+}
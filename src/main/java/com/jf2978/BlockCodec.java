@@ -0,0 +1,699 @@
+package com.jf2978;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.*;
+import java.util.function.Function;
+
+/** =====
+ * The BlockCodec class is the compact, versioned binary serialization of blocks, transactions and transaction
+ * outputs, read from and written to ByteBuffers directly. Top-level encodings start with a version byte; integers are
+ * (LEB128) varints, ids are written as raw 64-byte digests, addresses as their 32 bytes and public keys (only
+ * needed for the sender, whose signature they verify) as compressed curve points or raw Ed25519 keys.
+ *
+ *   Block        : version | previous id | merkle root id | signature id | timestamp | nonce (zigzag) |
+ *                  count + 1 (0 = pruned, header only) | tx*
+ *   Transaction  : id | signature scheme id | sender key | recipient address | value (float) | fee | nonce (8) |
+ *                  signature | inputs (count + 1, 0 = none) | outputs
+ *   Output       : id | parent id | recipient address | value (float) | index
+ *   Id           : 0 digest (64) | 1 literal (length + UTF-8, e.g. the genesis "0") | 2 null | 3 enclosing tx id
+ *   Key          : 0 X.509 (length + bytes) | 1 secp521r1 compressed point | 2 secp256k1 compressed point |
+ *                  3 Ed25519 (32)
+ *   Address      : 0 literal (32) | 1 tx recipient | 2 tx sender's address
+ *
+ * The hash preimages of transactions and their outputs use the same encoding of values, with raw addresses.
+ *
+ * Decoding never trusts a length or count: each is checked against the bytes left (and lengths against MAX_LENGTH)
+ * before anything is allocated, so a corrupt or truncated encoding fails with an IllegalArgumentException.
+ *
+ * @author jf2978
+ */
+public class BlockCodec {
+
+    // Static Variables
+    public static final byte VERSION = 2; // (1: transactions without their nonce)
+    static final int MAX_LENGTH = 1 << 16; // longest literal id, signature or X.509 key accepted on decode
+
+    private static final byte ID_DIGEST = 0;
+    private static final byte ID_LITERAL = 1;
+    private static final byte ID_NULL = 2;
+    private static final byte ID_PARENT = 3;
+
+    private static final byte KEY_X509 = 0;
+    private static final String[] CURVES = {null, "secp521r1", "secp256k1"}; // key tag -> named curve (compressed)
+    private static final byte KEY_ED25519 = 3;
+    private static final byte[] ED25519_X509 = {0x30, 0x2A, 0x30, 0x05, 0x06, 0x03, 0x2B, 0x65, 0x70, 0x03, 0x21, 0x00};
+    private static final int ED25519_LENGTH = 32;
+    private static final ECNamedCurveParameterSpec[] SPECS = new ECNamedCurveParameterSpec[CURVES.length];
+    private static final int KEY_CACHE = 1024;
+
+    private static final byte ADDRESS_LITERAL = 0;
+    private static final byte ADDRESS_RECIPIENT = 1;
+    private static final byte ADDRESS_SENDER = 2;
+
+    private static final ThreadLocal<ByteBuffer[]> scratch = ThreadLocal.withInitial(() -> new ByteBuffer[]{ByteBuffer.allocate(1 << 16)});
+    private static final ThreadLocal<Map<ByteBuffer, PublicKey>> keys = ThreadLocal.withInitial(() ->
+            new LinkedHashMap<ByteBuffer, PublicKey>(KEY_CACHE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PublicKey> eldest){
+                    return size() > KEY_CACHE;
+                }
+            }); // compressed point -> decoded key (point decompression is the costly part of decoding)
+    private static final ThreadLocal<Object[][]> encodings = ThreadLocal.withInitial(() ->
+            new Object[][]{new PublicKey[KEY_CACHE], new byte[KEY_CACHE][]}); // direct-mapped key -> encoding cache
+
+    static {
+        for(int t = 1; t < CURVES.length; t++){
+            SPECS[t] = ECNamedCurveTable.getParameterSpec(CURVES[t]);
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Encodes a block into the given buffer
+     *
+     * @param block Block to encode
+     * @param out Destination buffer (advanced past the encoding)
+     * @throws BufferOverflowException If the buffer is too small
+     */
+    public static void encode(Block block, ByteBuffer out){
+        out.put(VERSION);
+        putId(out, block.previousHash, null);
+        putId(out, block.merkleRoot, null);
+        putId(out, block.signature, null);
+        putVarLong(out, block.timestamp);
+        putVarLong(out, zigzag(block.getNonce()));
+        putVarInt(out, block.pruned ? 0 : block.transactions.size() + 1);
+        for(Transaction transaction : block.transactions){
+            putTransaction(out, transaction);
+        }
+    }
+
+    /** =====
+     * Encodes a block
+     *
+     * @param block Block to encode
+     * @return Encoded bytes
+     */
+    public static byte[] encode(Block block){
+        return encode(out -> encode(block, out));
+    }
+
+    /** =====
+     * Encodes a transaction (with its inputs and outputs) into the given buffer
+     *
+     * @param transaction Transaction to encode
+     * @param out Destination buffer (advanced past the encoding)
+     * @throws BufferOverflowException If the buffer is too small
+     */
+    public static void encode(Transaction transaction, ByteBuffer out){
+        out.put(VERSION);
+        putTransaction(out, transaction);
+    }
+
+    /** =====
+     * Encodes a transaction (with its inputs and outputs)
+     *
+     * @param transaction Transaction to encode
+     * @return Encoded bytes
+     */
+    public static byte[] encode(Transaction transaction){
+        return encode(out -> encode(transaction, out));
+    }
+
+    /** =====
+     * Encodes a transaction output into the given buffer
+     *
+     * @param output Transaction output to encode
+     * @param out Destination buffer (advanced past the encoding)
+     * @throws BufferOverflowException If the buffer is too small
+     */
+    public static void encode(TransactionOutput output, ByteBuffer out){
+        out.put(VERSION);
+        putOutput(out, output, null, null);
+    }
+
+    /** =====
+     * Encodes a transaction output
+     *
+     * @param output Transaction output to encode
+     * @return Encoded bytes
+     */
+    public static byte[] encode(TransactionOutput output){
+        return encode(out -> encode(output, out));
+    }
+
+    /** =====
+     * Decodes a block
+     *
+     * @param in Source buffer (advanced past the encoding)
+     * @return Decoded block
+     */
+    public static Block decodeBlock(ByteBuffer in){
+        return decode(in, BlockCodec::getBlock);
+    }
+
+    /** =====
+     * Re-encodes an encoded block without its transactions (as Block.prune would leave it), copying the header
+     * fields as they are rather than decoding the transactions
+     *
+     * @param in Encoded block (not advanced)
+     * @return Encoded header-only block
+     */
+    public static byte[] prune(ByteBuffer in){
+        ByteBuffer block = in.duplicate();
+        int start = block.position();
+        return decode(block, b -> {
+            for(int i = 0; i < 3; i++){
+                getId(b, null); // previous, merkle root, signature
+            }
+            getVarLong(b); // timestamp
+            getVarLong(b); // nonce
+            int length = b.position() - start;
+            byte[] header = new byte[length + 1]; // + count 0: pruned
+            b.position(start);
+            b.get(header, 0, length);
+            return header;
+        });
+    }
+
+    /** =====
+     * Decodes a transaction
+     *
+     * @param in Source buffer (advanced past the encoding)
+     * @return Decoded transaction
+     */
+    public static Transaction decodeTransaction(ByteBuffer in){
+        return decode(in, BlockCodec::getTransaction);
+    }
+
+    /** =====
+     * Decodes a transaction output
+     *
+     * @param in Source buffer (advanced past the encoding)
+     * @return Decoded transaction output
+     */
+    public static TransactionOutput decodeOutput(ByteBuffer in){
+        return decode(in, b -> getOutput(b, null, null));
+    }
+
+    /** =====
+     * Builds the hash preimage of a transaction: scheme id | sender address | recipient address | value | fee |
+     * input count | input ids | nonce
+     *
+     * @param scheme Signature scheme of the sender
+     * @param sender Address of the sender
+     * @param recipient Address of the recipient
+     * @param value Amount sent
+     * @param fee Fee paid, in fixed-point units
+     * @param inputs Ids of the spent outputs, in a canonical (sorted) order
+     * @param nonce Random number (differentiates otherwise identical transactions)
+     * @return Preimage bytes
+     */
+    static byte[] transactionPreimage(SignatureScheme scheme, Address sender, Address recipient, float value,
+                                      long fee, List<String> inputs, long nonce){
+        return encode(out -> {
+            out.put(scheme.id);
+            sender.writeTo(out);
+            recipient.writeTo(out);
+            out.putFloat(value);
+            putVarLong(out, fee);
+            putVarInt(out, inputs.size());
+            for(String input : inputs){
+                putId(out, input, null);
+            }
+            out.putLong(nonce);
+        });
+    }
+
+    /** =====
+     * Builds the hash preimage of a transaction output: recipient address | value | parent id | index
+     *
+     * @param recipient Address of the recipient
+     * @param value Output amount
+     * @param parent Id of the transaction that produced the output
+     * @param index Position among the parent transaction's outputs
+     * @return Preimage bytes
+     */
+    static byte[] outputPreimage(Address recipient, float value, String parent, int index){
+        return encode(out -> {
+            recipient.writeTo(out);
+            out.putFloat(value);
+            putId(out, parent, null);
+            putVarInt(out, index);
+        });
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    private interface Writer {
+        void write(ByteBuffer out);
+    }
+
+    /** =====
+     * Runs an encoder over this thread's scratch buffer (doubled until the encoding fits) and copies the result out
+     *
+     * @param writer Encoder
+     * @return Encoded bytes
+     */
+    private static byte[] encode(Writer writer){
+        ByteBuffer[] holder = scratch.get();
+        while(true){
+            ByteBuffer out = holder[0];
+            out.clear();
+            try {
+                writer.write(out);
+                byte[] bytes = new byte[out.position()];
+                out.flip();
+                out.get(bytes);
+                return bytes;
+            } catch (BufferOverflowException e) {
+                holder[0] = ByteBuffer.allocate(out.capacity() * 2);
+            }
+        }
+    }
+
+    /** =====
+     * Checks the version byte of an encoding and runs a decoder over the rest, reporting an encoding that is cut
+     * short as invalid
+     *
+     * @param in Source buffer (advanced past the encoding)
+     * @param reader Decoder
+     * @return Decoded object
+     * @throws IllegalArgumentException If the encoding is of another version, malformed or truncated
+     */
+    private static <T> T decode(ByteBuffer in, Function<ByteBuffer, T> reader){
+        try {
+            byte version = in.get();
+            if(version != VERSION){
+                throw new IllegalArgumentException("Unsupported codec version " + version);
+            }
+            return reader.apply(in);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated encoding", e);
+        }
+    }
+
+    private static Block getBlock(ByteBuffer in){
+        String previous = getId(in, null);
+        String root = getId(in, null);
+        String signature = getId(in, null);
+        long timestamp = getVarLong(in);
+        long nonce = unzigzag(getVarLong(in));
+        int count = getCount(in, 1) - 1;
+        if(count < 0){
+            Block block = new Block(previous, root, timestamp, nonce, signature, new ArrayList<>());
+            block.prune();
+            return block;
+        }
+        List<Transaction> transactions = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            transactions.add(getTransaction(in));
+        }
+        return new Block(previous, root, timestamp, nonce, signature, transactions);
+    }
+
+    private static void putTransaction(ByteBuffer out, Transaction transaction){
+        Address from = Address.of(transaction.sender);
+        putId(out, transaction.id, null);
+        out.put(transaction.scheme.id);
+        putKey(out, transaction.sender);
+        putAddress(out, transaction.recipient, null, from);
+        out.putFloat(transaction.value);
+        putVarLong(out, transaction.fee);
+        out.putLong(transaction.nonce);
+        if(transaction.signature == null){
+            putVarInt(out, 0);
+        } else {
+            putVarInt(out, transaction.signature.length + 1);
+            out.put(transaction.signature);
+        }
+        if(transaction.inputs == null){
+            putVarInt(out, 0);
+        } else {
+            putVarInt(out, transaction.inputs.size() + 1);
+            for(TransactionOutput input : transaction.inputs){
+                putOutput(out, input, transaction, from);
+            }
+        }
+        putVarInt(out, transaction.outputs.size());
+        for(TransactionOutput output : transaction.outputs){
+            putOutput(out, output, transaction, from);
+        }
+    }
+
+    private static Transaction getTransaction(ByteBuffer in){
+        String id = getId(in, null);
+        SignatureScheme scheme = SignatureScheme.fromId(in.get());
+        PublicKey sender = getKey(in);
+        Address from = Address.of(sender);
+        Address recipient = getAddress(in, null, from);
+        float value = in.getFloat();
+        long fee = getVarLong(in);
+        long nonce = in.getLong();
+        byte[] signature = null;
+        int length = getLength(in, 1);
+        if(length > 0){
+            signature = new byte[length - 1];
+            in.get(signature);
+        }
+        Transaction context = new Transaction(id, sender, scheme, recipient, value, fee, nonce, signature, null,
+                new HashSet<>());
+        int inputs = getCount(in, 1);
+        if(inputs > 0){
+            context.inputs = new HashSet<>();
+            for(int i = 0; i < inputs - 1; i++){
+                context.inputs.add(getOutput(in, context, from));
+            }
+        }
+        int outputs = getCount(in, 0);
+        for(int i = 0; i < outputs; i++){
+            context.outputs.add(getOutput(in, context, from));
+        }
+        return context;
+    }
+
+    private static void putOutput(ByteBuffer out, TransactionOutput output, Transaction context, Address from){
+        putId(out, output.id, null);
+        putId(out, output.parentId, context);
+        putAddress(out, output.recipient, context == null ? null : context.recipient, from);
+        out.putFloat(output.value);
+        putVarInt(out, output.index);
+    }
+
+    private static TransactionOutput getOutput(ByteBuffer in, Transaction context, Address from){
+        String id = getId(in, null);
+        if(id == null){
+            throw new IllegalArgumentException("Output without an id"); // (outputs are identified by it)
+        }
+        String parent = getId(in, context);
+        Address recipient = getAddress(in, context == null ? null : context.recipient, from);
+        float value = in.getFloat();
+        return new TransactionOutput(id, recipient, value, parent, getVarInt(in));
+    }
+
+    /** =====
+     * Writes an id: as a raw digest when it is a canonical (upper case) 128 character hex digest, else literally
+     *
+     * @param out Destination buffer
+     * @param id Id to write (may be null)
+     * @param context Enclosing transaction (its id is written as a one byte reference), or null
+     */
+    private static void putId(ByteBuffer out, String id, Transaction context){
+        if(id == null){
+            out.put(ID_NULL);
+        } else if(context != null && id.equals(context.id)){
+            out.put(ID_PARENT);
+        } else if(isDigest(id)){
+            out.put(ID_DIGEST);
+            out.put(Utility.digestBytes(id));
+        } else {
+            byte[] literal = id.getBytes(StandardCharsets.UTF_8);
+            out.put(ID_LITERAL);
+            putVarInt(out, literal.length);
+            out.put(literal);
+        }
+    }
+
+    private static String getId(ByteBuffer in, Transaction context){
+        byte tag = in.get();
+        switch(tag){
+            case ID_DIGEST:
+                byte[] digest = new byte[Utility.DIGEST_LENGTH];
+                in.get(digest);
+                return Utility.toHex(digest);
+            case ID_LITERAL:
+                byte[] literal = new byte[getLength(in, 0)];
+                in.get(literal);
+                return new String(literal, StandardCharsets.UTF_8);
+            case ID_NULL:
+                return null;
+            case ID_PARENT:
+                if(context == null){
+                    throw new IllegalArgumentException("Id refers to an enclosing transaction outside of one");
+                }
+                return context.id;
+            default:
+                throw new IllegalArgumentException("Unknown id tag " + tag);
+        }
+    }
+
+    private static boolean isDigest(String id){
+        if(id.length() != Utility.DIGEST_LENGTH * 2){
+            return false;
+        }
+        for(int i = 0; i < id.length(); i++){
+            char c = id.charAt(i);
+            if(!(c >= '0' && c <= '9' || c >= 'A' && c <= 'F')){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** =====
+     * Writes an address: as a reference to the enclosing transaction's recipient or sender, or literally
+     *
+     * @param out Destination buffer
+     * @param address Address to write
+     * @param recipient Recipient of the enclosing transaction, or null
+     * @param sender Address of the enclosing transaction's sender, or null
+     */
+    private static void putAddress(ByteBuffer out, Address address, Address recipient, Address sender){
+        if(address.equals(recipient)){
+            out.put(ADDRESS_RECIPIENT);
+        } else if(address.equals(sender)){
+            out.put(ADDRESS_SENDER);
+        } else {
+            out.put(ADDRESS_LITERAL);
+            address.writeTo(out);
+        }
+    }
+
+    private static Address getAddress(ByteBuffer in, Address recipient, Address sender){
+        byte tag = in.get();
+        switch(tag){
+            case ADDRESS_LITERAL:
+                byte[] address = new byte[Address.LENGTH];
+                in.get(address);
+                return new Address(address);
+            case ADDRESS_RECIPIENT:
+            case ADDRESS_SENDER:
+                Address referenced = tag == ADDRESS_RECIPIENT ? recipient : sender;
+                if(referenced == null){
+                    throw new IllegalArgumentException("Address refers to a transaction outside of one");
+                }
+                return referenced;
+            default:
+                throw new IllegalArgumentException("Unknown address tag " + tag);
+        }
+    }
+
+    /** =====
+     * Writes a public key: as a compressed point of a known named curve, a raw Ed25519 key, or as its X.509 encoding
+     *
+     * @param out Destination buffer
+     * @param key Key to write
+     */
+    private static void putKey(ByteBuffer out, PublicKey key){
+        // Keyed by identity: key objects are shared across transactions, and provider hashCodes are slow
+        Object[][] cache = encodings.get();
+        int slot = System.identityHashCode(key) & (KEY_CACHE - 1);
+        if(cache[0][slot] != key){
+            cache[1][slot] = compress(key);
+            cache[0][slot] = key;
+        }
+        out.put((byte[]) cache[1][slot]);
+    }
+
+    /** =====
+     * Encodes a public key as a compressed point of a known named curve or a raw Ed25519 key (or, failing that, as its
+     * X.509 encoding)
+     *
+     * @param key Key to encode
+     * @return Key encoding, tag included
+     */
+    private static byte[] compress(PublicKey key){
+        if(key instanceof ECPublicKey){
+            ECPublicKey ec = (ECPublicKey) key;
+            for(int t = 1; t < CURVES.length; t++){
+                if(ec.getParams().getOrder().equals(SPECS[t].getN())){
+                    ByteBuffer out = ByteBuffer.allocate(2 + (SPECS[t].getCurve().getFieldSize() + 7) / 8);
+                    out.put((byte) t);
+                    out.put((byte) (ec.getW().getAffineY().testBit(0) ? 0x03 : 0x02));
+                    putUnsigned(out, ec.getW().getAffineX(), out.remaining());
+                    return out.array();
+                }
+            }
+        }
+        byte[] encoded = key.getEncoded();
+        if(encoded.length == ED25519_X509.length + ED25519_LENGTH
+                && Arrays.equals(Arrays.copyOf(encoded, ED25519_X509.length), ED25519_X509)){
+            ByteBuffer out = ByteBuffer.allocate(1 + ED25519_LENGTH);
+            out.put(KEY_ED25519);
+            out.put(encoded, ED25519_X509.length, ED25519_LENGTH);
+            return out.array();
+        }
+        ByteBuffer out = ByteBuffer.allocate(1 + 5 + encoded.length);
+        out.put(KEY_X509);
+        putVarInt(out, encoded.length);
+        out.put(encoded);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static PublicKey getKey(ByteBuffer in){
+        byte tag = in.get();
+        if(tag == KEY_X509){
+            byte[] encoded = new byte[getLength(in, 0)];
+            in.get(encoded);
+            try {
+                return Utility.getKeyFromBytes(encoded);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid public key", e);
+            }
+        }
+        if(tag < 0 || tag > KEY_ED25519){
+            throw new IllegalArgumentException("Unknown key tag " + tag);
+        }
+        int length = tag == KEY_ED25519 ? ED25519_LENGTH : 1 + (SPECS[tag].getCurve().getFieldSize() + 7) / 8;
+        byte[] point = new byte[length];
+        in.get(point);
+        Map<ByteBuffer, PublicKey> cache = keys.get();
+        ByteBuffer cacheKey = ByteBuffer.allocate(point.length + 1).put(tag).put(point);
+        cacheKey.flip();
+        PublicKey key = cache.get(cacheKey);
+        if(key == null){
+            try {
+                key = tag == KEY_ED25519 ? Utility.getKeyFromBytes(concat(ED25519_X509, point))
+                        : decompress(tag, point);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid public key", e);
+            }
+            cache.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    /** =====
+     * Rebuilds a public key from its compressed curve point
+     *
+     * @param tag Curve tag
+     * @param point Compressed point (parity byte + x coordinate)
+     * @return Public key, from the provider currently selected for its scheme
+     */
+    private static PublicKey decompress(byte tag, byte[] point){
+        try {
+            ECNamedCurveParameterSpec spec = SPECS[tag];
+            PublicKey key = KeyFactory.getInstance("ECDSA", BouncyCastleProvider.PROVIDER_NAME)
+                    .generatePublic(new ECPublicKeySpec(spec.getCurve().decodePoint(point), spec));
+            String algorithm = SignatureScheme.of(key).keyAlgorithm;
+            return CryptoEngine.implementation(algorithm) == CryptoEngine.Implementation.BOUNCY_CASTLE
+                    ? key : Utility.getKeyFromBytes(key.getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] suffix){
+        byte[] bytes = Arrays.copyOf(prefix, prefix.length + suffix.length);
+        System.arraycopy(suffix, 0, bytes, prefix.length, suffix.length);
+        return bytes;
+    }
+
+    private static void putUnsigned(ByteBuffer out, BigInteger value, int length){
+        byte[] bytes = value.toByteArray(); // big-endian, possibly with a leading sign byte
+        for(int i = length; i > bytes.length; i--){
+            out.put((byte) 0);
+        }
+        out.put(bytes, Math.max(0, bytes.length - length), Math.min(bytes.length, length));
+    }
+
+    private static void putVarInt(ByteBuffer out, int value){
+        putVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static int getVarInt(ByteBuffer in){
+        long value = getVarLong(in);
+        if(value >>> 32 != 0){
+            throw new IllegalArgumentException("Malformed varint");
+        }
+        return (int) value;
+    }
+
+    /** =====
+     * Reads a byte length, checked against MAX_LENGTH and the bytes left before anything is allocated for it
+     *
+     * @param in Source buffer
+     * @param offset Added to the length when it was written (e.g. 1 when 0 stands for null)
+     * @return Length as written (offset included)
+     * @throws IllegalArgumentException If the length is out of bounds
+     */
+    private static int getLength(ByteBuffer in, int offset){
+        long length = getVarLong(in);
+        if(length < 0 || length - offset > Math.min(MAX_LENGTH, in.remaining())){
+            throw new IllegalArgumentException("Invalid length " + Long.toUnsignedString(length - offset));
+        }
+        return (int) length;
+    }
+
+    /** =====
+     * Reads an element count, checked against the bytes left (every element takes at least one byte)
+     *
+     * @param in Source buffer
+     * @param offset Added to the count when it was written (e.g. 1 when 0 stands for none)
+     * @return Count as written (offset included)
+     * @throws IllegalArgumentException If the count is out of bounds
+     */
+    private static int getCount(ByteBuffer in, int offset){
+        long count = getVarLong(in);
+        if(count < 0 || count - offset > in.remaining()){
+            throw new IllegalArgumentException("Invalid count " + Long.toUnsignedString(count - offset));
+        }
+        return (int) count;
+    }
+
+    private static void putVarLong(ByteBuffer out, long value){
+        while((value & ~0x7FL) != 0){
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in){
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
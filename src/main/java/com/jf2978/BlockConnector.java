@@ -0,0 +1,156 @@
+package com.jf2978;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** =====
+ * The BlockConnector class applies the UTXO changes of a block's (already verified) transactions concurrently.
+ * It first builds the intra-block spend dependency graph per address: a transaction can only spend outputs of its
+ * sender's address, so it is ordered after the previous transaction spending from that address and after every
+ * transaction paying (or giving change to) the address since, while a transaction paying an address is ordered after
+ * the previous one spending from it. Every transaction that could spend an output created elsewhere in the block
+ * thus keeps its block order relative to the creator (whichever comes first), without looking at the parent ids of
+ * its inputs (which outputs read back from a UtxoStore may not carry). Each transaction is then applied
+ * as soon as the transactions it depends on have been, so independent transactions run in parallel while dependent
+ * chains stay in block order - giving exactly the result of applying the block sequentially.
+ *
+ * @author jf2978
+ */
+public class BlockConnector {
+
+    // Instance variables
+    private final int workers;
+    private final ExecutorService pool;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * BlockConnector constructor that starts a pool of (daemon) worker threads
+     *
+     * @param n Number of worker threads
+     */
+    public BlockConnector(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("Must provide at least one connect worker");
+        }
+        workers = n;
+        pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "connector");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the number of workers in this connector's pool
+     *
+     * @return Worker count
+     */
+    public int getWorkers(){
+        return workers;
+    }
+
+    /** =====
+     * Applies the given transactions to the UTXO map, honouring intra-block dependencies
+     *
+     * @param batch Verified transactions, in block order
+     * @return Per-transaction result (false if the transaction failed to apply), in block order
+     */
+    public boolean[] connect(List<Transaction> batch){
+        List<List<Integer>> dependencies = dependencies(batch);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(batch.size());
+        for(int i = 0; i < batch.size(); i++){
+            Transaction transaction = batch.get(i);
+            List<Integer> deps = dependencies.get(i);
+            CompletableFuture<?>[] before = new CompletableFuture<?>[deps.size()];
+            for(int d = 0; d < deps.size(); d++){
+                before[d] = results.get(deps.get(d));
+            }
+            results.add(CompletableFuture.allOf(before).thenApplyAsync(v -> transaction.apply(), pool));
+        }
+
+        boolean[] applied = new boolean[batch.size()];
+        for(int i = 0; i < applied.length; i++){
+            applied[i] = results.get(i).join();
+        }
+        return applied;
+    }
+
+    /** =====
+     * Stops the worker threads; no more blocks can be connected with this connector afterwards
+     */
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Builds the spend dependency graph of a batch, reporting any double-spends found along the way
+     *
+     * @param batch Transactions, in block order
+     * @return For each transaction, the (earlier) indices it must wait for
+     */
+    static List<List<Integer>> dependencies(List<Transaction> batch){
+        Map<Address, Integer> spenders = new HashMap<>(); // address -> index of the last tx spending from it
+        Map<Address, List<Integer>> creators = new HashMap<>(); // address -> txs paying it since its last spender
+        Map<String, Integer> claims = new HashMap<>(); // input id -> index of the first tx spending it
+        List<Set<Integer>> dependencies = new ArrayList<>(batch.size());
+        for(int i = 0; i < batch.size(); i++){
+            dependencies.add(new TreeSet<>());
+        }
+
+        for(int i = 0; i < batch.size(); i++){
+            Transaction transaction = batch.get(i);
+            Address from = Address.of(transaction.sender);
+            if(transaction.inputs != null && !transaction.inputs.isEmpty()){
+                // Spends from its sender's address: after the last spender and the outputs created since (spending
+                // an output created *later* in the block fails sequentially, so the creator waits for it in turn)
+                Integer spender = spenders.put(from, i);
+                if(spender != null){
+                    dependencies.get(i).add(spender);
+                }
+                List<Integer> created = creators.remove(from);
+                if(created != null){
+                    dependencies.get(i).addAll(created);
+                }
+            }
+            for(Address to : new HashSet<>(Arrays.asList(transaction.recipient, from))){ // (payment and change)
+                Integer spender = spenders.get(to);
+                if(spender != null && spender != i){
+                    dependencies.get(i).add(spender);
+                }
+                creators.computeIfAbsent(to, a -> new ArrayList<>()).add(i);
+            }
+            if(transaction.inputs == null){
+                continue;
+            }
+            for(TransactionOutput input : transaction.inputs){
+                Integer claimant = claims.putIfAbsent(input.id, i);
+                if(claimant != null && claimant != i){
+                    System.out.printf("Double spend in block: transaction %d re-spends an input of transaction %d\n",
+                            i, claimant);
+                    // applied after the first claimant, so it fails as it would sequentially
+                    dependencies.get(i).add(claimant);
+                }
+            }
+        }
+
+        List<List<Integer>> result = new ArrayList<>(batch.size());
+        for(Set<Integer> deps : dependencies){
+            result.add(new ArrayList<>(deps));
+        }
+        return result;
+    }
+}
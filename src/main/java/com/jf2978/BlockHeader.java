@@ -0,0 +1,164 @@
+package com.jf2978;
+
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/** =====
+ * The BlockHeader class is the fixed-layout binary preimage of a Block's signature. Hashing it in place (rather than
+ * concatenating Strings) lets the mining loop try a new nonce without allocating anything.
+ *
+ *   [ previous hash (64) | merkle root (64) | timestamp (8, epoch millis) | nonce (8) ] = 144 bytes, big-endian
+ *
+ * The constant part (previous hash + merkle root) is exactly one 128-byte SHA-512 block, so mining can compress it
+ * once per template (see {@link Midstate}) and only feed the 16-byte timestamp/nonce tail on each attempt.
+ *
+ * @author jf2978
+ */
+public class BlockHeader {
+
+    // Static Variables
+    public static final int SIZE = 144;
+    static final int PREVIOUS = 0;
+    static final int MERKLE_ROOT = 64;
+    static final int TIMESTAMP = 128;
+    static final int NONCE = 136;
+
+    // Instance variables
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * BlockHeader constructor to lay out the given block fields
+     *
+     * @param prev Previous block signature (hex)
+     * @param merkle Merkle root of the block's transactions (hex, null if not computed yet)
+     * @param timestamp Block timestamp (epoch millis)
+     * @param nonce Proof-of-work nonce
+     */
+    public BlockHeader(String prev, String merkle, long timestamp, long nonce){
+        bytes = new byte[SIZE];
+        buffer = ByteBuffer.wrap(bytes);
+        System.arraycopy(Utility.digestBytes(prev), 0, bytes, PREVIOUS, Utility.DIGEST_LENGTH);
+        System.arraycopy(Utility.digestBytes(merkle), 0, bytes, MERKLE_ROOT, Utility.DIGEST_LENGTH);
+        setTimestamp(timestamp);
+        setNonce(nonce);
+    }
+
+    /** =====
+     * Inner Midstate class caching the SHA-512 state after the constant header prefix. Each attempt restores that
+     * state in place (no clone) and hashes only the variable tail, halving the compression work per nonce.
+     */
+    public static class Midstate {
+
+        private static final int TAIL_TIMESTAMP = 0; // field offsets within the 16-byte tail
+        private static final int TAIL_NONCE = NONCE - TIMESTAMP;
+
+        private final SHA512Digest prefix; // state after absorbing previous hash + merkle root
+        private final SHA512Digest working;
+        private final byte[] tail;
+        private final ByteBuffer buffer;
+
+        private Midstate(byte[] header){
+            prefix = new SHA512Digest();
+            prefix.update(header, 0, TIMESTAMP);
+            working = new SHA512Digest(prefix);
+            tail = new byte[SIZE - TIMESTAMP];
+            System.arraycopy(header, TIMESTAMP, tail, 0, tail.length);
+            buffer = ByteBuffer.wrap(tail);
+        }
+
+        public void setTimestamp(long timestamp){
+            buffer.putLong(TAIL_TIMESTAMP, timestamp);
+        }
+
+        public void setNonce(long nonce){
+            buffer.putLong(TAIL_NONCE, nonce);
+        }
+
+        public long getTimestamp(){
+            return buffer.getLong(TAIL_TIMESTAMP);
+        }
+
+        /** =====
+         * Hashes the full header (cached prefix + current tail) into the given output buffer (no allocation)
+         *
+         * @param out Buffer of at least 64 bytes receiving the digest
+         */
+        public void hash(byte[] out){
+            working.reset(prefix);
+            working.update(tail, 0, tail.length);
+            working.doFinal(out, 0);
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Computes the digest state for this header's constant prefix, to be reused across nonce attempts
+     *
+     * @return Midstate initialised with this header's timestamp and nonce
+     */
+    public Midstate midstate(){
+        return new Midstate(bytes);
+    }
+
+    public void setTimestamp(long timestamp){
+        buffer.putLong(TIMESTAMP, timestamp);
+    }
+
+    public void setNonce(long nonce){
+        buffer.putLong(NONCE, nonce);
+    }
+
+    public long getTimestamp(){
+        return buffer.getLong(TIMESTAMP);
+    }
+
+    public long getNonce(){
+        return buffer.getLong(NONCE);
+    }
+
+    /** =====
+     * Returns the raw header bytes (not a copy)
+     *
+     * @return Header bytes
+     */
+    public byte[] getBytes(){
+        return bytes;
+    }
+
+    /** =====
+     * Hashes this header into the given output buffer (no allocation)
+     *
+     * @param md SHA-512 digest to use (reset by this call)
+     * @param out Buffer of at least 64 bytes receiving the digest
+     */
+    public void hash(MessageDigest md, byte[] out){
+        md.update(bytes, 0, SIZE);
+        try {
+            md.digest(out, 0, Utility.DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** =====
+     * Hashes this header into a newly allocated buffer
+     *
+     * @return Raw SHA-512 digest of this header
+     */
+    public byte[] hash(){
+        byte[] out = new byte[Utility.DIGEST_LENGTH];
+        hash(CryptoEngine.digest("SHA-512"), out);
+        return out;
+    }
+}
@@ -0,0 +1,456 @@
+package com.jf2978;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/** =====
+ * The BlockStore class is a persistent, append-only log of serialized blocks. Blocks are appended to fixed-size
+ * segment files (blk00000.dat, blk00001.dat, ...) through memory-mapped I/O, each as one record:
+ *
+ *   [ magic (4) | payload length (4) | CRC32 of hash + payload (4) | block hash (64) | payload ]
+ *
+ * An in-memory index maps block height and block hash to a record's segment and offset, and reads hand out read-only
+ * views of the mapped segment (no copy). The log holds a single chain: a block is only appended if it extends the
+ * last block stored (the tip). On open, the segments are scanned to rebuild the index; a record that is
+ * incomplete or fails its checksum (a write torn by a crash) ends the log, and it is zeroed along with every segment
+ * after it, so the store always restarts from its last whole block.
+ *
+ * Old segments can be compacted (see prune): their records are rewritten, e.g. down to block headers, into a shorter
+ * file that atomically replaces the segment. A segment file shorter than the segment size is a compacted one.
+ *
+ * @author jf2978
+ */
+public class BlockStore implements Closeable {
+
+    // Static Variables
+    static final int MAGIC = 0x4A424C4B; // "JBLK"
+    static final int HEADER = 12 + Utility.DIGEST_LENGTH;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20; // 64 MB
+
+    // Instance variables
+    private final Path directory;
+    private final int segmentSize;
+    private final List<FileChannel> channels;
+    private final List<MappedByteBuffer> segments;
+    private int position; // write offset within the last segment
+    private int[] segmentOf; // height -> segment
+    private int[] offsetOf; // height -> record offset in its segment
+    private int size; // number of blocks stored
+    private final Map<String, Integer> heights; // block hash -> height
+    private String tip; // hash of the last block stored (null = empty)
+    private final List<Integer> firsts; // segment -> height of its first record
+    private int compacted; // number of leading segments already compacted
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Opens (or creates) the block store in the given directory with the default segment size
+     *
+     * @param dir Directory holding the segment files
+     * @throws IOException If a segment cannot be opened or mapped
+     */
+    public BlockStore(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** =====
+     * Opens (or creates) the block store in the given directory, recovering its index from the segment files and
+     * truncating a torn tail left by a crash
+     *
+     * @param dir Directory holding the segment files
+     * @param segment Size of each segment file in bytes (the largest block that can be stored, plus its header)
+     * @throws IOException If a segment cannot be opened or mapped
+     */
+    public BlockStore(Path dir, int segment) throws IOException {
+        if(segment <= HEADER){
+            throw new IllegalArgumentException("Segment size must exceed the record header (" + HEADER + " bytes)");
+        }
+        directory = dir;
+        segmentSize = segment;
+        channels = new ArrayList<>();
+        segments = new ArrayList<>();
+        segmentOf = new int[1024];
+        offsetOf = new int[1024];
+        heights = new HashMap<>();
+        firsts = new ArrayList<>();
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Appends a serialized block to the log. It must extend the stored chain: its previous hash must be the hash of
+     * the last block stored (any block may start an empty store, e.g. one bootstrapped from a UTXO snapshot).
+     *
+     * @param hash Block hash (hex signature)
+     * @param previous Previous block hash (hex signature)
+     * @param payload Serialized block
+     * @return Height of the stored block
+     * @throws IOException If a new segment cannot be created
+     */
+    public synchronized int append(String hash, String previous, byte[] payload) throws IOException {
+        if(tip != null && !tip.equals(previous)){
+            throw new IllegalArgumentException("Block " + hash + " does not extend the stored chain");
+        }
+        if(HEADER + payload.length > segmentSize){
+            throw new IllegalArgumentException("Block of " + payload.length + " bytes does not fit in a segment");
+        }
+        if(segments.isEmpty() || position + HEADER + payload.length > segmentSize){
+            map(segments.size());
+            position = 0;
+        }
+        byte[] digest = Utility.digestBytes(hash);
+        CRC32 crc = new CRC32();
+        crc.update(digest);
+        crc.update(payload);
+
+        MappedByteBuffer segment = segments.get(segments.size() - 1);
+        ByteBuffer record = segment.duplicate();
+        record.position(position + 4);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(digest);
+        record.put(payload);
+        segment.putInt(position, MAGIC); // written last: a record without its magic is not part of the log
+
+        index(hash, segments.size() - 1, position);
+        position += HEADER + payload.length;
+        return size - 1;
+    }
+
+    /** =====
+     * Takes the last block back out of the log, e.g. one whose write could not be synced to disk: its record loses its
+     * magic (so a reopen ends the log before it), and the next block appended takes its place
+     *
+     * @return Hash of the removed block
+     */
+    public synchronized String removeTip(){
+        if(size == 0){
+            throw new IllegalStateException("Block store is empty");
+        }
+        int height = size - 1;
+        MappedByteBuffer segment = segments.get(segmentOf[height]); // (the last segment: it holds the tip)
+        String removed = tip;
+        segment.putInt(offsetOf[height], 0);
+        position = offsetOf[height];
+        heights.remove(removed, height);
+        if(firsts.get(firsts.size() - 1) == height){
+            firsts.remove(firsts.size() - 1); // (re-added by the next record written to the segment)
+        }
+        size = height;
+        tip = size == 0 ? null : hashAt(size - 1);
+        return removed;
+    }
+
+    /** =====
+     * Returns the serialized block at the given height, as a read-only view of the mapped segment (no copy)
+     *
+     * @param height Block height (0 = genesis)
+     * @return Serialized block
+     */
+    public synchronized ByteBuffer read(int height){
+        if(height < 0 || height >= size){
+            throw new IndexOutOfBoundsException("Block " + height + " of " + size);
+        }
+        ByteBuffer view = segments.get(segmentOf[height]).asReadOnlyBuffer();
+        int at = offsetOf[height];
+        view.position(at + HEADER);
+        view.limit(at + HEADER + view.getInt(at + 4));
+        return view.slice();
+    }
+
+    /** =====
+     * Returns the serialized block with the given hash, as a read-only view of the mapped segment (no copy)
+     *
+     * @param hash Block hash (hex signature)
+     * @return Serialized block, or null if not stored
+     */
+    public synchronized ByteBuffer read(String hash){
+        Integer height = heights.get(hash);
+        return height == null ? null : read(height);
+    }
+
+    /** =====
+     * Returns the height of the block with the given hash
+     *
+     * @param hash Block hash (hex signature)
+     * @return Block height, or -1 if not stored
+     */
+    public synchronized int height(String hash){
+        Integer height = heights.get(hash);
+        return height == null ? -1 : height;
+    }
+
+    /** =====
+     * Returns the hash of the last block stored
+     *
+     * @return Tip block hash (hex signature), or null if the store is empty
+     */
+    public synchronized String tip(){
+        return tip;
+    }
+
+    /** =====
+     * Returns the directory holding the segment files
+     *
+     * @return Store directory
+     */
+    public Path directory(){
+        return directory;
+    }
+
+    /** =====
+     * Returns the number of blocks stored
+     *
+     * @return Block count
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /** =====
+     * Returns the bytes of segment space used by the stored records
+     *
+     * @return Bytes written (headers included)
+     */
+    public synchronized long bytesWritten(){
+        long bytes = position;
+        for(int s = 0; s < segments.size() - 1; s++){
+            bytes += segments.get(s).capacity(); // segmentSize, unless compacted
+        }
+        return bytes;
+    }
+
+    /** =====
+     * Reclaims the disk space of old blocks: every closed segment (one that is no longer appended to) whose blocks all
+     * lie below the given height has each record's payload passed through the given function, and is replaced by a
+     * file holding just the rewritten records. Segments are compacted oldest first, each once.
+     *
+     * @param below Height below which blocks may be rewritten
+     * @param rewrite Payload transformation (e.g. BlockCodec.prune, keeping block headers only)
+     * @return Bytes of segment files reclaimed
+     * @throws IOException If a compacted segment cannot be written or mapped
+     */
+    public synchronized long prune(int below, Function<ByteBuffer, byte[]> rewrite) throws IOException {
+        long reclaimed = 0;
+        while(compacted < firsts.size() - 1 && firsts.get(compacted + 1) <= below){
+            reclaimed += compact(compacted, firsts.get(compacted), firsts.get(compacted + 1), rewrite);
+            compacted++;
+        }
+        return reclaimed;
+    }
+
+    /** =====
+     * Flushes every appended block to disk
+     */
+    public synchronized void sync(){
+        if(!segments.isEmpty()){
+            segments.get(segments.size() - 1).force(); // earlier segments are forced when the log rolls over
+        }
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void close() throws IOException {
+        sync();
+        for(FileChannel channel : channels){
+            channel.close();
+        }
+        channels.clear();
+        segments.clear(); // the mappings themselves are released once garbage collected
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Rebuilds the index from the segment files, truncating the log at the first torn record
+     *
+     * @throws IOException If a segment cannot be opened, mapped or deleted
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "blk*.tmp")) {
+            for(Path file : stream){
+                Files.delete(file); // compaction interrupted before replacing its segment
+            }
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "blk*.dat")) {
+            for(Path file : stream){
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for(int s = 0; s < files.size(); s++){
+            if(!files.get(s).equals(segmentPath(s))){
+                throw new IOException("Missing block segment " + segmentPath(s));
+            }
+            MappedByteBuffer segment = map(s);
+            int capacity = segment.capacity();
+            if(capacity < segmentSize){
+                compacted = s + 1;
+            }
+            int at = 0;
+            boolean torn = false;
+            while(at + HEADER <= capacity && segment.getInt(at) != 0){
+                int length = segment.getInt(at + 4);
+                if(segment.getInt(at) != MAGIC || length < 0 || length > capacity - HEADER - at
+                        || checksum(segment, at, length) != segment.getInt(at + 8)){
+                    torn = true;
+                    break;
+                }
+                byte[] digest = new byte[Utility.DIGEST_LENGTH];
+                for(int i = 0; i < digest.length; i++){
+                    digest[i] = segment.get(at + 12 + i);
+                }
+                index(Utility.toHex(digest), s, at);
+                at += HEADER + length;
+            }
+            position = at;
+
+            if(torn){
+                System.out.printf("Truncating torn block record in %s at offset %d\n", files.get(s).getFileName(), at);
+                for(int i = at; i < capacity; i++){
+                    segment.put(i, (byte) 0);
+                }
+                segment.force();
+                for(int later = s + 1; later < files.size(); later++){
+                    Files.delete(files.get(later));
+                }
+                return;
+            }
+        }
+    }
+
+    /** =====
+     * Rewrites a closed segment with transformed payloads into a new file, which atomically replaces it
+     *
+     * @param s Segment number
+     * @param from Height of the segment's first record
+     * @param to Height of the next segment's first record
+     * @param rewrite Payload transformation
+     * @return Bytes of the segment file reclaimed
+     * @throws IOException If the compacted segment cannot be written or mapped
+     */
+    private long compact(int s, int from, int to, Function<ByteBuffer, byte[]> rewrite) throws IOException {
+        MappedByteBuffer segment = segments.get(s);
+        byte[][] payloads = new byte[to - from][];
+        int length = 0;
+        for(int h = from; h < to; h++){
+            payloads[h - from] = rewrite.apply(read(h));
+            length += HEADER + payloads[h - from].length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(length);
+        int[] offsets = new int[to - from];
+        byte[] digest = new byte[Utility.DIGEST_LENGTH];
+        for(int h = from; h < to; h++){
+            ByteBuffer hash = segment.duplicate();
+            hash.position(offsetOf[h] + 12);
+            hash.get(digest);
+            byte[] payload = payloads[h - from];
+            CRC32 crc = new CRC32();
+            crc.update(digest);
+            crc.update(payload);
+            offsets[h - from] = out.position();
+            out.putInt(MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(digest).put(payload);
+        }
+        out.flip();
+
+        Path file = segmentPath(s);
+        Path tmp = directory.resolve(String.format("blk%05d.tmp", s));
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(out.hasRemaining()){
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        long before = channels.get(s).size();
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        channels.get(s).close();
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.set(s, channel);
+        segments.set(s, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        System.arraycopy(offsets, 0, offsetOf, from, offsets.length);
+
+        long reclaimed = before - length;
+        System.out.printf("Compacted %s: %d blocks, %d bytes of disk reclaimed (%d bytes per block)\n",
+                file.getFileName(), to - from, reclaimed, reclaimed / (to - from));
+        return reclaimed;
+    }
+
+    /** =====
+     * Creates (if needed) and maps a segment file (a compacted one at its own, shorter length), appending it to the
+     * open segments
+     *
+     * @param s Segment number
+     * @return Mapped segment
+     * @throws IOException If the segment cannot be opened or mapped
+     */
+    private MappedByteBuffer map(int s) throws IOException {
+        if(!segments.isEmpty()){
+            segments.get(segments.size() - 1).force();
+        }
+        FileChannel channel = FileChannel.open(segmentPath(s),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size() > 0 && channel.size() < segmentSize ? channel.size() : segmentSize;
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        channels.add(channel);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Path segmentPath(int s){
+        return directory.resolve(String.format("blk%05d.dat", s));
+    }
+
+    private void index(String hash, int segment, int offset){
+        if(size == segmentOf.length){
+            segmentOf = Arrays.copyOf(segmentOf, size * 2);
+            offsetOf = Arrays.copyOf(offsetOf, size * 2);
+        }
+        segmentOf[size] = segment;
+        offsetOf[size] = offset;
+        if(segment == firsts.size()){
+            firsts.add(size);
+        }
+        heights.putIfAbsent(hash, size);
+        tip = hash;
+        size++;
+    }
+
+    private String hashAt(int height){
+        byte[] digest = new byte[Utility.DIGEST_LENGTH];
+        ByteBuffer hash = segments.get(segmentOf[height]).duplicate();
+        hash.position(offsetOf[height] + 12);
+        hash.get(digest);
+        return Utility.toHex(digest);
+    }
+
+    private static int checksum(ByteBuffer segment, int at, int length){
+        ByteBuffer covered = segment.duplicate();
+        covered.position(at + 12);
+        covered.limit(at + HEADER + length);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+}
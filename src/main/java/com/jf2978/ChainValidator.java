@@ -0,0 +1,237 @@
+package com.jf2978;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** =====
+ * The ChainValidator class revalidates a whole chain from scratch across a fixed pool of worker threads. The headers
+ * are checked first, in the chain's HeaderIndex (hash, link to the previous header and proof-of-work, hashing the
+ * index's records in place); every block is then checked against its indexed header and its merkle root recomputed.
+ * Both steps cut the chain into ranges that the workers check in parallel, reporting progress as ranges complete; all
+ * transaction signatures are then checked as one batch. The first failure stops the run.
+ *
+ * Pruned blocks (see Block.prune) are checked through their headers alone: the merkle root and signatures of their
+ * transactions were checked before the bodies were dropped, and the header hash still commits to that merkle root.
+ *
+ * @author jf2978
+ */
+public class ChainValidator {
+
+    // Static Variables
+    private static final int RANGE = 256; // blocks per task
+    private static final int HEADER_RANGE = 1 << 16; // headers per task (see validate(HeaderIndex, int))
+
+    // Instance variables
+    private final int workers;
+    private final ExecutorService pool;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * ChainValidator constructor that starts a pool of (daemon) validation threads
+     *
+     * @param n Number of worker threads
+     */
+    public ChainValidator(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("Must provide at least one validation worker");
+        }
+        workers = n;
+        pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "validator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the number of workers in this validator's pool
+     *
+     * @return Worker count
+     */
+    public int getWorkers(){
+        return workers;
+    }
+
+    /** =====
+     * Revalidates every block of the chain: its header index (hashes, links and proof-of-work), then each block
+     * against its indexed header and its merkle root in parallel, then every transaction signature (genesis
+     * excepted) in one batch. Signatures are checked afresh, bypassing the SignatureCache: a revalidation does not
+     * trust the results of earlier checks.
+     *
+     * @param chain Blocks, genesis first
+     * @param headers Header index of the chain (one header per block)
+     * @param difficulty Number of leading zero bits each block hash must start with
+     * @param verifier Pool used to check the signatures (null to check them on the calling thread)
+     * @return True if the whole chain is valid
+     */
+    public boolean validate(List<Block> chain, HeaderIndex headers, int difficulty, BatchVerifier verifier){
+        long begin = System.nanoTime();
+        if(headers.size() != chain.size()){
+            System.out.printf("Chain revalidation failed: %d headers indexed for %d blocks\n",
+                    headers.size(), chain.size());
+            return false;
+        }
+        if(!validate(headers, difficulty)){
+            System.out.println("Chain revalidation failed...");
+            return false;
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for(int from = 0; from < chain.size(); from += RANGE){
+            int start = from;
+            int end = Math.min(chain.size(), from + RANGE);
+            futures.add(completion.submit(() -> {
+                for(int i = start; i < end && !failed.get(); i++){
+                    if(!check(chain, headers, i, true)){
+                        failed.set(true);
+                    }
+                }
+                return end - start;
+            }));
+        }
+
+        int validated = 0;
+        int reported = 0; // last progress decile printed
+        try {
+            for(int i = 0; i < futures.size() && !failed.get(); i++){
+                validated += completion.take().get();
+                int decile = (int) (10L * validated / chain.size());
+                if(decile > reported && validated < chain.size() && !failed.get()){
+                    reported = decile;
+                    System.out.printf("Validated %d/%d blocks (%d%%)\n", validated, chain.size(), 100L * validated / chain.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } catch (ExecutionException e) {
+            System.out.println(e.getMessage());
+            failed.set(true);
+        }
+        if(failed.get()){
+            for(Future<Integer> f : futures){
+                f.cancel(false);
+            }
+            System.out.println("Chain revalidation failed...");
+            return false;
+        }
+
+        List<Transaction> signed = new ArrayList<>();
+        int pruned = 0;
+        for(Block block : chain){
+            if(block.pruned){
+                pruned++;
+            } else if(!block.previousHash.equals("0")){
+                signed.addAll(block.transactions);
+            }
+        }
+        boolean valid;
+        if(verifier != null){
+            valid = verifier.verify(signed, false);
+        } else {
+            valid = true;
+            for(int i = 0; i < signed.size() && valid; i++){
+                valid = signed.get(i).verify(false);
+            }
+        }
+        if(!valid){
+            System.out.println("Chain revalidation failed: invalid transaction signature");
+            return false;
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("Revalidated %d blocks (%d transactions, %d pruned) in %.3fs (%.0f blocks/s, %d workers)\n",
+                chain.size(), signed.size(), pruned, seconds, seconds == 0 ? 0 : chain.size() / seconds, workers);
+        return true;
+    }
+
+    /** =====
+     * Revalidates every header of a header index (hashes, links and proof-of-work) in parallel ranges, hashing the
+     * index's records in place
+     *
+     * @param headers Header index
+     * @param difficulty Number of leading zero bits each block hash must start with
+     * @return True if every header is valid
+     */
+    public boolean validate(HeaderIndex headers, int difficulty){
+        long begin = System.nanoTime();
+        int size = headers.size();
+        List<Future<Integer>> futures = new ArrayList<>();
+        for(int from = 0; from < size; from += HEADER_RANGE){
+            int start = from;
+            int end = Math.min(size, from + HEADER_RANGE);
+            futures.add(pool.submit(() -> headers.validate(start, end, difficulty)));
+        }
+
+        int invalid = -1;
+        try {
+            for(int i = 0; i < futures.size() && invalid < 0; i++){
+                invalid = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+        if(invalid >= 0){
+            for(Future<Integer> f : futures){
+                f.cancel(false);
+            }
+            System.out.printf("Header %d is invalid\n", invalid);
+            return false;
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("Revalidated %d headers in %.3fs (%.0f headers/s, %d workers)\n",
+                size, seconds, seconds == 0 ? 0 : size / seconds, workers);
+        return true;
+    }
+
+    /** =====
+     * Stops the worker threads; no more chains can be validated with this validator afterwards
+     */
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+
+    /** =====
+     * Checks one block of a chain against its header index: it carries the header indexed at its height (whose
+     * hash, link and proof-of-work the index validates), and, optionally, its merkle root matches its transactions
+     * (unless they were pruned)
+     *
+     * @param chain Blocks, genesis first
+     * @param headers Header index of the chain
+     * @param i Height of the block to check
+     * @param merkle True to also recompute the merkle root
+     * @return Validity of the block
+     */
+    static boolean check(List<Block> chain, HeaderIndex headers, int i, boolean merkle){
+        Block current = chain.get(i);
+
+        // Header fields (hash, previous hash, merkle root, timestamp, nonce) must be the indexed ones
+        if(!headers.matches(i, current)){
+            System.out.printf("Block %d does not match its indexed header\n", i);
+            return false;
+        }
+
+        // Merkle root over the transaction ids (built sequentially: the blocks themselves are checked in parallel)
+        if(merkle && !current.pruned && !Utility.getMerkleRoot(current.transactions, false).equals(current.merkleRoot)){
+            System.out.printf("Block %d merkle root does not match its transactions\n", i);
+            return false;
+        }
+        return true;
+    }
+}
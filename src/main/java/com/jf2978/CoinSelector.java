@@ -0,0 +1,126 @@
+package com.jf2978;
+
+import java.util.*;
+
+/** =====
+ * The CoinSelector enum lists the strategies a Wallet can use to pick the unspent outputs (inputs) that fund a
+ * payment. Every strategy works on the owner's outputs as indexed by the UTXO store, largest value first, and takes
+ * the goal and sums amounts in fixed-point units (see UtxoStore.toUnits) so that "exact" means exact. If the outputs
+ * cannot cover the goal, all of them are returned (and the transaction is then rejected for insufficient inputs).
+ *
+ * @author jf2978
+ */
+public enum CoinSelector {
+
+    /** =====
+     * Takes the largest outputs until the goal is covered: the fewest inputs for this payment
+     */
+    LARGEST_FIRST {
+        public Set<TransactionOutput> select(NavigableSet<TransactionOutput> available, long goal){
+            long current = 0;
+            Set<TransactionOutput> result = new LinkedHashSet<>();
+            for(Iterator<TransactionOutput> it = available.iterator(); current < goal && it.hasNext(); ){
+                TransactionOutput next = it.next();
+                result.add(next);
+                current += UtxoStore.toUnits(next.value);
+            }
+            return result;
+        }
+    },
+
+    /** =====
+     * Searches (depth first, largest outputs first) for a set of outputs summing to exactly the goal, so the
+     * transaction needs no change output. The search gives up after MAX_TRIES steps and falls back to LARGEST_FIRST.
+     */
+    BRANCH_AND_BOUND {
+        public Set<TransactionOutput> select(NavigableSet<TransactionOutput> available, long goal){
+            // Candidates: outputs no larger than the goal (any larger one would overshoot on its own). The bound is
+            // the float just above the goal, so no output worth exactly the goal in units is cut off by rounding.
+            float limit = Math.nextUp(UtxoStore.fromUnits(goal));
+            TransactionOutput bound = new TransactionOutput("", null, limit, "", 0); // sorts first among outputs = limit
+            TransactionOutput[] candidates = new TransactionOutput[available.size()];
+            long[] values = new long[candidates.length];
+            int n = 0;
+            for(TransactionOutput output : available.tailSet(bound, true)){
+                long value = UtxoStore.toUnits(output.value);
+                if(value <= goal && value > 0){
+                    candidates[n] = output;
+                    values[n++] = value;
+                }
+            }
+            long[] remaining = new long[n + 1]; // remaining[i] = sum of values[i..n)
+            int[] next = new int[n]; // next[i] = first candidate after i with a smaller value
+            for(int i = n - 1; i >= 0; i--){
+                remaining[i] = remaining[i + 1] + values[i];
+                next[i] = i + 1 < n && values[i + 1] == values[i] ? next[i + 1] : i + 1;
+            }
+            if(remaining[0] < goal){
+                return LARGEST_FIRST.select(available, goal);
+            }
+
+            int[] included = new int[n]; // stack of included candidate indices
+            int top = 0;
+            int depth = 0;
+            long current = 0;
+            for(int tries = 0; tries < MAX_TRIES; tries++){
+                if(current == goal){
+                    Set<TransactionOutput> result = new LinkedHashSet<>();
+                    for(int i = 0; i < top; i++){
+                        result.add(candidates[included[i]]);
+                    }
+                    return result;
+                }
+                if(current > goal || current + remaining[depth] < goal){
+                    // Backtrack: exclude the most recently included candidate, and the candidates of equal value after
+                    // it (including one of those instead would repeat the same branch)
+                    if(top == 0){
+                        break; // search space exhausted
+                    }
+                    int last = included[--top];
+                    current -= values[last];
+                    depth = next[last];
+                } else {
+                    included[top++] = depth;
+                    current += values[depth++];
+                }
+            }
+            return LARGEST_FIRST.select(available, goal);
+        }
+    },
+
+    /** =====
+     * Covers the goal with the largest outputs, then, when the address holds many outputs, also spends its smallest
+     * ones (up to MAX_INPUTS inputs in total) so they are merged into the change output and the UTXO set shrinks
+     */
+    CONSOLIDATE {
+        public Set<TransactionOutput> select(NavigableSet<TransactionOutput> available, long goal){
+            Set<TransactionOutput> result = LARGEST_FIRST.select(available, goal);
+            if(available.size() <= FRAGMENTED){
+                return result;
+            }
+            for(Iterator<TransactionOutput> it = available.descendingIterator();
+                result.size() < MAX_INPUTS && it.hasNext(); ){
+                result.add(it.next());
+            }
+            return result;
+        }
+    };
+
+    // Static Variables
+    static final int MAX_TRIES = 100_000; // branch-and-bound search steps before falling back
+    static final int FRAGMENTED = 100; // outputs an address must hold before CONSOLIDATE sweeps small ones
+    static final int MAX_INPUTS = 50; // inputs CONSOLIDATE fills a transaction up to
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Picks the outputs used to fund a payment
+     *
+     * @param available Unspent outputs of the payer, largest value first (see UtxoStore.outputsOf)
+     * @param goal Amount looking to spend, in fixed-point units (see UtxoStore.toUnits)
+     * @return Outputs to use as transaction inputs
+     */
+    public abstract Set<TransactionOutput> select(NavigableSet<TransactionOutput> available, long goal);
+}
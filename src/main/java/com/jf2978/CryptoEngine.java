@@ -0,0 +1,185 @@
+package com.jf2978;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.*;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** =====
+ * The CryptoEngine class owns every digest and signature instance used by the blockchain. The BouncyCastle provider
+ * is registered exactly once (when this class is loaded), each algorithm can be mapped to either the JDK or the
+ * BouncyCastle implementation, and instances are cached per thread so hot paths never go through a provider lookup.
+ *
+ * Instances handed out by {@link #digest(String)} and {@link #signature(String)} belong to the calling thread and
+ * must be used to completion before the same algorithm is requested again on that thread.
+ *
+ * @author jf2978
+ */
+public class CryptoEngine {
+
+    /** =====
+     * Available implementations of an algorithm
+     */
+    public enum Implementation {
+        JDK,
+        BOUNCY_CASTLE
+    }
+
+    // Static Variables
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final Map<String, Implementation> implementations = new ConcurrentHashMap<>(); // algorithm -> impl
+    private static final Map<String, String> jdkNames = new HashMap<>(); // BouncyCastle alias -> JDK standard name
+    private static final ThreadLocal<Map<Implementation, Map<String, MessageDigest>>> digests =
+            ThreadLocal.withInitial(() -> new EnumMap<>(Implementation.class));
+    private static final ThreadLocal<Map<Implementation, Map<String, Signature>>> signatures =
+            ThreadLocal.withInitial(() -> new EnumMap<>(Implementation.class));
+
+    static {
+        if(Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null){
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        jdkNames.put("ECDSA", "SHA1withECDSA"); // BouncyCastle's "ECDSA" is SHA-1 with ECDSA
+        implementations.put("SHA-512", Implementation.JDK); // intrinsified on most JVMs
+        implementations.put("SHA-256", Implementation.JDK);
+        implementations.put("ECDSA", Implementation.BOUNCY_CASTLE);
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Registers the providers (if not done already); call once at startup
+     */
+    public static void init(){
+        // Work is done by the static initializer
+    }
+
+    /** =====
+     * Selects which implementation to use for an algorithm from now on (all threads)
+     *
+     * @param algorithm Algorithm name (e.g. "SHA-512", "ECDSA")
+     * @param implementation JDK or BouncyCastle
+     */
+    public static void use(String algorithm, Implementation implementation){
+        implementations.put(algorithm, implementation);
+    }
+
+    /** =====
+     * Returns the implementation currently selected for an algorithm (BouncyCastle unless configured otherwise)
+     *
+     * @param algorithm Algorithm name
+     * @return Selected implementation
+     */
+    public static Implementation implementation(String algorithm){
+        return implementations.getOrDefault(algorithm, Implementation.BOUNCY_CASTLE);
+    }
+
+    /** =====
+     * Returns this thread's (reset) MessageDigest for the given algorithm
+     *
+     * @param algorithm Digest algorithm name
+     * @return Thread-local digest instance
+     */
+    public static MessageDigest digest(String algorithm){
+        Implementation impl = implementation(algorithm);
+        Map<String, MessageDigest> cache = digests.get().computeIfAbsent(impl, i -> new HashMap<>());
+        MessageDigest md = cache.get(algorithm);
+        if(md == null){
+            md = newDigest(algorithm);
+            cache.put(algorithm, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
+    /** =====
+     * Returns this thread's Signature for the given algorithm; callers must initialise it (initSign/initVerify)
+     *
+     * @param algorithm Signature algorithm name
+     * @return Thread-local signature instance
+     */
+    public static Signature signature(String algorithm){
+        Implementation impl = implementation(algorithm);
+        Map<String, Signature> cache = signatures.get().computeIfAbsent(impl, i -> new HashMap<>());
+        Signature signature = cache.get(algorithm);
+        if(signature == null){
+            try {
+                signature = impl == Implementation.JDK
+                        ? Signature.getInstance(jdkNames.getOrDefault(algorithm, algorithm))
+                        : Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                throw new IllegalStateException(e);
+            }
+            cache.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    /** =====
+     * Creates a new (unshared) MessageDigest for callers that keep one for a long-running loop
+     *
+     * @param algorithm Digest algorithm name
+     * @return Digest instance owned by the caller
+     */
+    public static MessageDigest newDigest(String algorithm){
+        try {
+            return implementation(algorithm) == Implementation.JDK
+                    ? MessageDigest.getInstance(algorithm)
+                    : MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** =====
+     * Creates a key pair generator for the given algorithm
+     *
+     * @param algorithm Key algorithm name (e.g. "ECDSA")
+     * @return Key pair generator from the selected implementation
+     */
+    public static KeyPairGenerator keyPairGenerator(String algorithm){
+        try {
+            return implementation(algorithm) == Implementation.JDK
+                    ? KeyPairGenerator.getInstance("ECDSA".equals(algorithm) ? "EC" : algorithm)
+                    : KeyPairGenerator.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** =====
+     * Creates a key factory for the given algorithm (e.g. to decode stored public keys)
+     *
+     * @param algorithm Key algorithm name (e.g. "ECDSA")
+     * @return Key factory from the selected implementation
+     */
+    public static KeyFactory keyFactory(String algorithm){
+        try {
+            return implementation(algorithm) == Implementation.JDK
+                    ? KeyFactory.getInstance("ECDSA".equals(algorithm) ? "EC" : algorithm)
+                    : KeyFactory.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** =====
+     * Encodes bytes as an (upper case) hex string using a lookup table
+     *
+     * @param bytes Bytes to encode
+     * @return Hex string
+     */
+    public static String toHex(byte[] bytes){
+        char[] out = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++){
+            out[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            out[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,281 @@
+package com.jf2978;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** =====
+ * The FlatMerkleTree class is an array-backed Merkle tree of raw 64-byte digests. Every level is stored contiguously
+ * in a single byte[] (node i of a level at offset i * 64), so there is no Node object per hash, and appending or
+ * replacing a leaf only recomputes the O(log n) nodes on its path to the root. This lets a miner swap transactions
+ * in a block template without rebuilding the tree.
+ *
+ * Its shape and hashes are the same as MerkleTree's: parent = SHA-512(left digest || right digest), and the odd
+ * node out of a level is "inherited" by the level above unhashed (so a single leaf is its own root).
+ *
+ * @author jf2978
+ */
+public class FlatMerkleTree {
+
+    // Static Variables
+    private static final int D = Utility.DIGEST_LENGTH;
+    public static int parallelThreshold = 2048; // parents per fork/join task (levels this small stay sequential)
+
+    // Instance variables
+    private byte[][] levels; // levels[0] = leaves, levels[k + 1] = parents of levels[k]
+    private int capacity; // leaves that fit before the arrays are grown
+    private int size; // number of leaves
+    private final MessageDigest md;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty tree
+     */
+    public FlatMerkleTree(){
+        this(16);
+    }
+
+    /** =====
+     * Constructs an empty tree with room for the given number of leaves before growing
+     *
+     * @param initialCapacity Expected number of leaves
+     */
+    public FlatMerkleTree(int initialCapacity){
+        md = CryptoEngine.newDigest("SHA-512");
+        allocate(Math.max(1, initialCapacity));
+    }
+
+    /** =====
+     * Constructs the tree over the given leaves, level by level (bottom up) on the calling thread
+     *
+     * @param leaves Raw 64-byte leaf digests
+     */
+    public FlatMerkleTree(List<byte[]> leaves){
+        this(leaves, false);
+    }
+
+    /** =====
+     * Constructs the tree over the given leaves, level by level (bottom up). In parallel mode each level's hashes are
+     * split across the common fork/join pool; levels with no more than parallelThreshold parents are hashed
+     * sequentially, so small trees never pay for task scheduling. Both modes produce the same tree.
+     *
+     * @param leaves Raw 64-byte leaf digests
+     * @param parallel True to hash large levels across cores
+     */
+    public FlatMerkleTree(List<byte[]> leaves, boolean parallel){
+        this(leaves.size());
+        for(int i = 0; i < leaves.size(); i++){
+            System.arraycopy(leaves.get(i), 0, levels[0], i * D, D);
+        }
+        size = leaves.size();
+        for(int k = 0, count = size; count > 1; k++, count = (count + 1) / 2){
+            int parents = (count + 1) / 2;
+            if(parallel && forks(count)){
+                ForkJoinPool.commonPool().invoke(new LevelTask(k, 0, parents, count));
+            } else {
+                for(int p = 0; p < parents; p++){
+                    parent(md, k, p, count);
+                }
+            }
+        }
+    }
+
+    /** =====
+     * Inner LevelTask class hashing a range of one level's parents, split in halves until small enough
+     */
+    private class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int k, from, to, count;
+
+        LevelTask(int level, int first, int end, int nodes){
+            k = level;
+            from = first;
+            to = end;
+            count = nodes;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= parallelThreshold){
+                MessageDigest digest = CryptoEngine.digest("SHA-512"); // this worker's own instance
+                for(int p = from; p < to; p++){
+                    parent(digest, k, p, count);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(k, from, mid, count), new LevelTask(k, mid, to, count));
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the number of leaves in the tree
+     *
+     * @return Leaf count
+     */
+    public int size(){
+        return size;
+    }
+
+    /** =====
+     * Appends a leaf, recomputing only its path to the root
+     *
+     * @param leaf Raw 64-byte leaf digest
+     */
+    public void append(byte[] leaf){
+        if(size == capacity){
+            grow();
+        }
+        size++;
+        set(size - 1, leaf);
+    }
+
+    /** =====
+     * Replaces a leaf, recomputing only its path to the root
+     *
+     * @param index Leaf position
+     * @param leaf Raw 64-byte leaf digest
+     */
+    public void set(int index, byte[] leaf){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Leaf " + index + " of " + size);
+        }
+        System.arraycopy(leaf, 0, levels[0], index * D, D);
+        for(int k = 0, count = size, i = index; count > 1; k++, count = (count + 1) / 2, i >>= 1){
+            parent(md, k, i >> 1, count);
+        }
+    }
+
+    /** =====
+     * Returns a copy of a leaf digest
+     *
+     * @param index Leaf position
+     * @return Raw leaf digest
+     */
+    public byte[] getLeaf(int index){
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Leaf " + index + " of " + size);
+        }
+        byte[] out = new byte[D];
+        System.arraycopy(levels[0], index * D, out, 0, D);
+        return out;
+    }
+
+    /** =====
+     * Returns the Merkle root
+     *
+     * @return Raw root digest
+     */
+    public byte[] root(){
+        if(size == 0){
+            throw new IllegalArgumentException("Must provide a transaction signature to construct Merkle Tree");
+        }
+        int k = 0;
+        for(int count = size; count > 1; count = (count + 1) / 2){
+            k++;
+        }
+        byte[] out = new byte[D];
+        System.arraycopy(levels[k], 0, out, 0, D);
+        return out;
+    }
+
+    /** =====
+     * Returns the Merkle root as a hex string (the form stored in Block.merkleRoot)
+     *
+     * @return Hex root
+     */
+    public String rootHex(){
+        return Utility.toHex(root());
+    }
+
+    /** =====
+     * Hashes two child digests into their parent (the pair hash shared with MerkleTree)
+     *
+     * @param left Left child digest
+     * @param right Right child digest
+     * @return Parent digest
+     */
+    public static byte[] hashPair(byte[] left, byte[] right){
+        MessageDigest md = CryptoEngine.digest("SHA-512");
+        md.update(left, 0, D);
+        md.update(right, 0, D);
+        return md.digest();
+    }
+
+    /** =====
+     * Returns whether a parallel build hashes a level of the given size across the fork/join pool, i.e. whether it
+     * has more than parallelThreshold parents (the leaf level of a tree is its largest)
+     *
+     * @param nodes Number of nodes in the level
+     * @return True if the level's parents are split into fork/join tasks
+     */
+    static boolean forks(int nodes){
+        return (nodes + 1) / 2 > parallelThreshold;
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Recomputes one node from the level below: the hash of its two children, or its only child when inherited
+     *
+     * @param md SHA-512 digest owned by the calling thread
+     * @param k Level of the children
+     * @param p Index of the parent in level k + 1
+     * @param count Number of nodes in level k
+     */
+    private void parent(MessageDigest md, int k, int p, int count){
+        int left = 2 * p;
+        if(left + 1 < count){
+            md.update(levels[k], left * D, D);
+            md.update(levels[k], (left + 1) * D, D);
+            try {
+                md.digest(levels[k + 1], p * D, D);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            System.arraycopy(levels[k], left * D, levels[k + 1], p * D, D);
+        }
+    }
+
+    /** =====
+     * Allocates every level for the given leaf capacity
+     *
+     * @param leaves Leaf capacity
+     */
+    private void allocate(int leaves){
+        int depth = 1;
+        for(int count = leaves; count > 1; count = (count + 1) / 2){
+            depth++;
+        }
+        byte[][] resized = new byte[depth][];
+        for(int k = 0, count = leaves; k < depth; k++, count = (count + 1) / 2){
+            resized[k] = new byte[count * D];
+            if(levels != null && k < levels.length){
+                System.arraycopy(levels[k], 0, resized[k], 0, Math.min(levels[k].length, resized[k].length));
+            }
+        }
+        levels = resized;
+        capacity = leaves;
+    }
+
+    /** =====
+     * Doubles the leaf capacity, keeping every node already computed
+     */
+    private void grow(){
+        allocate(capacity * 2);
+    }
+}
@@ -0,0 +1,393 @@
+package com.jf2978;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/** =====
+ * The HeaderIndex class keeps the headers of a chain in compact binary form: raw digests and primitive fields in
+ * fixed-size records on direct (off-heap) pages, a primitive open-addressing table from block hash to height and a
+ * cumulative proof-of-work array. Nothing per header is a Java object, so millions of headers cost no GC time, and a
+ * header is found by height in O(1) (page, offset) and by hash in O(1) expected. Each record is:
+ *
+ *   [ merkle root (64) | timestamp (8) | nonce (8) | block hash (64) ] = 144 bytes
+ *
+ * The previous hash is not stored, as it is the hash field of the record before. Records are contiguous, so the
+ * preimage of a block hash (previous hash | merkle root | timestamp | nonce, see BlockHeader) is exactly the bytes from
+ * the previous record's hash field to the end of this record's nonce, and validation hashes the pages in place.
+ *
+ * Appends are serialized; reads take no locks. Records never change once written, and a header is published by the
+ * (volatile) size written after it, so readers see every header below the size they read.
+ *
+ * Two 64-byte SHA-512 digests per header cannot be compressed away: 10M headers take 1.44 GB of records, plus about
+ * 15 bytes per header for the table and the work array (about 1.6 GB in all, against well over 10 GB as Blocks).
+ *
+ * @author jf2978
+ */
+public class HeaderIndex {
+
+    // Static Variables
+    static final int RECORD = 144;
+    private static final int MERKLE_ROOT = 0;
+    private static final int TIMESTAMP = 64;
+    private static final int NONCE = 72;
+    private static final int HASH = 80;
+    private static final int KEY = HASH + Utility.DIGEST_LENGTH - 8; // table key: last 8 hash bytes (not the zeros)
+    private static final int PAGE_BITS = 16; // 65,536 headers (~9 MB) per page
+    private static final int PAGE = 1 << PAGE_BITS;
+    private static final int MASK = PAGE - 1;
+    private static final double MAX_LOAD = 0.6;
+
+    // Instance variables
+    private volatile ByteBuffer[] pages; // header records
+    private volatile long[][] work; // height -> cumulative proof-of-work (expected hashes)
+    private volatile int[] table; // hash -> height + 1 (0 = empty), linear probing
+    private byte[] origin; // previous hash of the first indexed header
+    private volatile int size; // written last: publishes the headers below it
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty header index
+     */
+    public HeaderIndex(){
+        this(PAGE);
+    }
+
+    /** =====
+     * Constructs an empty header index sized for the given number of headers (it grows past that as needed)
+     *
+     * @param expected Expected number of headers
+     */
+    public HeaderIndex(int expected){
+        pages = new ByteBuffer[0];
+        work = new long[0][];
+        table = new int[tableFor(expected)];
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Appends the header of a mined block; it must extend the indexed chain (unless it is the first one)
+     *
+     * @param block Mined block
+     * @param difficulty Number of leading zero bits its hash was mined to
+     * @return Height of the header, or -1 if the block does not extend the indexed chain
+     */
+    public int append(Block block, int difficulty){
+        return append(Utility.digestBytes(block.previousHash), Utility.digestBytes(block.merkleRoot), block.timestamp,
+                block.getNonce(), Utility.digestBytes(block.signature), difficulty);
+    }
+
+    /** =====
+     * Appends a header given as raw fields; it must extend the indexed chain (unless it is the first one)
+     *
+     * @param previous Previous block hash
+     * @param merkleRoot Merkle root
+     * @param timestamp Timestamp (epoch millis)
+     * @param nonce Nonce
+     * @param hash Block hash
+     * @param difficulty Number of leading zero bits the hash was mined to
+     * @return Height of the header, or -1 if it does not extend the indexed chain
+     */
+    public synchronized int append(byte[] previous, byte[] merkleRoot, long timestamp, long nonce, byte[] hash,
+                                   int difficulty){
+        int height = size;
+        if(height == 0){
+            origin = previous.clone();
+        } else if(!Arrays.equals(previous, hash(height - 1))){
+            System.out.println("Header does not extend the indexed chain");
+            return -1;
+        }
+        if((height >> PAGE_BITS) == pages.length){
+            ByteBuffer[] more = Arrays.copyOf(pages, pages.length + 1);
+            more[pages.length] = ByteBuffer.allocateDirect(PAGE * RECORD);
+            long[][] longer = Arrays.copyOf(work, work.length + 1);
+            longer[work.length] = new long[PAGE];
+            pages = more;
+            work = longer;
+        }
+        ByteBuffer page = pages[height >> PAGE_BITS];
+        int at = offset(height);
+        put(page, at + MERKLE_ROOT, merkleRoot);
+        page.putLong(at + TIMESTAMP, timestamp);
+        page.putLong(at + NONCE, nonce);
+        put(page, at + HASH, hash);
+        long before = height == 0 ? 0 : work[(height - 1) >> PAGE_BITS][(height - 1) & MASK];
+        work[height >> PAGE_BITS][height & MASK] = Math.addExact(before, 1L << difficulty);
+
+        if(height + 1 > table.length * MAX_LOAD){
+            rehash(table.length * 2, height);
+        }
+        insert(table, height);
+        size = height + 1;
+        return height;
+    }
+
+    /** =====
+     * Returns the number of indexed headers
+     *
+     * @return Header count
+     */
+    public int size(){
+        return size;
+    }
+
+    /** =====
+     * Returns the height of the block with the given hash
+     *
+     * @param hash Block hash (hex signature)
+     * @return Height, or -1 if not indexed
+     */
+    public int height(String hash){
+        return height(Utility.digestBytes(hash));
+    }
+
+    /** =====
+     * Returns the height of the block with the given hash
+     *
+     * @param hash Raw block hash
+     * @return Height, or -1 if not indexed
+     */
+    public int height(byte[] hash){
+        long key = ByteBuffer.wrap(hash).getLong(KEY - HASH);
+        int published = size;
+        int[] slots = table;
+        ByteBuffer[] records = pages;
+        for(int i = slot(key, slots.length); slots[i] != 0; i = (i + 1) & (slots.length - 1)){
+            int height = slots[i] - 1;
+            if(height < published && records[height >> PAGE_BITS].getLong(offset(height) + KEY) == key
+                    && Arrays.equals(hash, hash(height))){
+                return height;
+            }
+        }
+        return -1;
+    }
+
+    /** =====
+     * Returns the hash of the block at the given height
+     *
+     * @param height Block height
+     * @return Raw block hash
+     */
+    public byte[] hash(int height){
+        return bytes(height, HASH, Utility.DIGEST_LENGTH);
+    }
+
+    /** =====
+     * Returns the merkle root of the block at the given height
+     *
+     * @param height Block height
+     * @return Raw merkle root
+     */
+    public byte[] merkleRoot(int height){
+        return bytes(height, MERKLE_ROOT, Utility.DIGEST_LENGTH);
+    }
+
+    /** =====
+     * Returns the timestamp of the block at the given height
+     *
+     * @param height Block height
+     * @return Timestamp (epoch millis)
+     */
+    public long timestamp(int height){
+        return ByteBuffer.wrap(bytes(height, TIMESTAMP, 8)).getLong();
+    }
+
+    /** =====
+     * Returns the nonce of the block at the given height
+     *
+     * @param height Block height
+     * @return Nonce
+     */
+    public long nonce(int height){
+        return ByteBuffer.wrap(bytes(height, NONCE, 8)).getLong();
+    }
+
+    /** =====
+     * Returns the proof-of-work of the chain up to (and including) the given height
+     *
+     * @param height Block height
+     * @return Expected number of hashes needed to mine blocks [first indexed, height]
+     */
+    public long cumulativeWork(int height){
+        check(height);
+        return work[height >> PAGE_BITS][height & MASK];
+    }
+
+    /** =====
+     * Returns the binary header of the block at the given height (the preimage of its hash, see BlockHeader)
+     *
+     * @param height Block height
+     * @return Header bytes
+     */
+    public byte[] header(int height){
+        check(height);
+        ByteBuffer out = ByteBuffer.allocate(BlockHeader.SIZE);
+        out.put(height == 0 ? origin : hash(height - 1));
+        ByteBuffer record = page(height).duplicate();
+        record.limit(offset(height) + HASH).position(offset(height));
+        out.put(record);
+        return out.array();
+    }
+
+    /** =====
+     * Checks a block's header fields (hash, previous hash, merkle root, timestamp and nonce) are the ones indexed at
+     * the given height, so that validating the index validates the block's header
+     *
+     * @param height Block height
+     * @param block Block expected at that height
+     * @return True if the block carries the indexed header
+     */
+    public boolean matches(int height, Block block){
+        check(height);
+        ByteBuffer page = page(height);
+        int at = offset(height);
+        return page.getLong(at + TIMESTAMP) == block.timestamp && page.getLong(at + NONCE) == block.getNonce()
+                && Arrays.equals(hash(height), Utility.digestBytes(block.signature))
+                && Arrays.equals(merkleRoot(height), Utility.digestBytes(block.merkleRoot))
+                && Arrays.equals(height == 0 ? origin : hash(height - 1), Utility.digestBytes(block.previousHash));
+    }
+
+    /** =====
+     * Checks a range of headers: each hashes (in place) to its stored hash, which meets the proof-of-work target.
+     * Links hold by construction, since a header's previous hash is the stored hash of the header before it.
+     *
+     * @param from First height to check
+     * @param to Height after the last one to check
+     * @param difficulty Number of leading zero bits each block hash must start with
+     * @return Height of the first invalid header, or -1 if the whole range is valid
+     */
+    public int validate(int from, int to, int difficulty){
+        MessageDigest md = CryptoEngine.newDigest("SHA-512");
+        byte[] digest = new byte[Utility.DIGEST_LENGTH];
+        if(from < to){
+            check(from);
+            check(to - 1);
+        }
+        try {
+            for(int height = from; height < to; height++){
+                ByteBuffer page = page(height).duplicate();
+                int at = offset(height);
+                if(height == 0){
+                    md.update(origin);
+                    page.limit(at + HASH).position(at);
+                } else if(at == 0){
+                    md.update(hash(height - 1)); // previous hash is on the previous page
+                    page.limit(HASH).position(0);
+                } else {
+                    page.limit(at + HASH).position(at - Utility.DIGEST_LENGTH);
+                }
+                md.update(page);
+                md.digest(digest, 0, digest.length);
+                page.limit(at + RECORD).position(at + HASH);
+                if(!page.equals(ByteBuffer.wrap(digest)) || !Utility.hasLeadingZeroBits(digest, difficulty)){
+                    return height;
+                }
+            }
+            return -1;
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** =====
+     * Returns the memory held by the index: the off-heap records, and the on-heap table and work array
+     *
+     * @return Bytes allocated
+     */
+    public long memoryBytes(){
+        return (long) pages.length * PAGE * (RECORD + 8) + 4L * table.length;
+    }
+
+    /** =====
+     * Returns the memory used per header: record, work entry and table slots (at the table's current load)
+     *
+     * @return Bytes per header (0 when empty)
+     */
+    public double bytesPerHeader(){
+        int n = size;
+        return n == 0 ? 0 : RECORD + 8 + 4.0 * table.length / n;
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    private ByteBuffer page(int height){
+        return pages[height >> PAGE_BITS];
+    }
+
+    private static int offset(int height){
+        return (height & MASK) * RECORD;
+    }
+
+    /** =====
+     * Checks a header is published (its height is below the size), which also makes its record visible to this thread
+     *
+     * @param height Header height
+     */
+    private void check(int height){
+        int published = size;
+        if(height < 0 || height >= published){
+            throw new IndexOutOfBoundsException("Header " + height + " of " + published);
+        }
+    }
+
+    private byte[] bytes(int height, int field, int length){
+        check(height);
+        byte[] out = new byte[length];
+        ByteBuffer record = page(height).duplicate();
+        record.position(offset(height) + field);
+        record.get(out);
+        return out;
+    }
+
+    private static void put(ByteBuffer page, int at, byte[] bytes){
+        ByteBuffer field = page.duplicate();
+        field.position(at);
+        field.put(bytes);
+    }
+
+    private static int tableFor(int headers){
+        int slots = Integer.highestOneBit((int) Math.max(2, headers / MAX_LOAD) - 1) << 1;
+        return Math.max(16, slots);
+    }
+
+    private static int slot(long key, int capacity){
+        return (int) (key ^ (key >>> 32)) & (capacity - 1); // hash bytes are uniformly distributed already
+    }
+
+    /** =====
+     * Adds a stored header to a hash table
+     *
+     * @param into Table (with at least one empty slot)
+     * @param height Height of the header
+     */
+    private void insert(int[] into, int height){
+        int i = slot(page(height).getLong(offset(height) + KEY), into.length);
+        while(into[i] != 0){
+            i = (i + 1) & (into.length - 1);
+        }
+        into[i] = height + 1;
+    }
+
+    /** =====
+     * Rebuilds the hash table with the given number of slots, from the stored headers
+     *
+     * @param capacity New number of slots (power of two)
+     * @param count Number of headers to insert
+     */
+    private void rehash(int capacity, int count){
+        int[] larger = new int[capacity];
+        for(int height = 0; height < count; height++){
+            insert(larger, height);
+        }
+        table = larger;
+    }
+}
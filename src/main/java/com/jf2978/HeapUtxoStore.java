@@ -0,0 +1,133 @@
+package com.jf2978;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/** =====
+ * The HeapUtxoStore class is the default (on-heap) UtxoStore: a concurrent map from output id to TransactionOutput,
+ * plus a concurrent per-recipient account (its outputs, kept sorted by value, and running balance) for wallet queries.
+ * It takes no locks: an output's value is added to its recipient's account first, then the output is published by
+ * id (an atomic putIfAbsent, so a duplicate id leaves the first copy and its index entry alone, and takes its value
+ * back) and put in the recipient's index; a spend claims it by id (an atomic remove) before unindexing it, so it
+ * always finds the account to take the value from. An add that finds its output spent once indexed unindexes it again, so no spent output stays
+ * in an index, and senders of unrelated outputs never contend.
+ *
+ * @author jf2978
+ */
+public class HeapUtxoStore implements UtxoStore {
+
+    // Instance variables
+    private final Map<String, TransactionOutput> outputs; // output id -> unspent output
+    private final Map<Address, Account> owners; // address -> its unspent outputs + balance
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty UTXO store
+     */
+    public HeapUtxoStore(){
+        outputs = new ConcurrentHashMap<>();
+        owners = new ConcurrentHashMap<>();
+    }
+
+    /** =====
+     * Inner Account class: an address's unspent outputs (largest first) and their sum (in fixed-point units)
+     */
+    private static class Account {
+
+        final NavigableSet<TransactionOutput> outputs = new ConcurrentSkipListSet<>(BY_VALUE);
+        final LongAdder balance = new LongAdder();
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** {@inheritDoc} */
+    public void add(TransactionOutput output){
+        Account account = owners.computeIfAbsent(output.recipient, k -> new Account());
+        long units = UtxoStore.toUnits(output.value);
+        account.balance.add(units); // (before the output is published, so any spend of it finds the account)
+        if(outputs.putIfAbsent(output.id, output) != null){
+            account.balance.add(-units);
+            return; // (already unspent: the first copy stays indexed)
+        }
+        account.outputs.add(output);
+        if(!outputs.containsKey(output.id)){
+            account.outputs.remove(output); // spent before it was indexed: the spend found nothing to unindex
+        }
+    }
+
+    /** {@inheritDoc} */
+    public TransactionOutput get(String id){
+        return outputs.get(id);
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(TransactionOutput output){
+        return outputs.containsKey(output.id);
+    }
+
+    /** {@inheritDoc} */
+    public boolean spend(TransactionOutput output){
+        TransactionOutput spent = outputs.remove(output.id);
+        if(spent == null){
+            return false;
+        }
+        Account account = owners.get(spent.recipient);
+        if(account != null){
+            account.balance.add(-UtxoStore.toUnits(spent.value));
+            account.outputs.remove(spent);
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public NavigableSet<TransactionOutput> outputsOf(Address owner){
+        Account account = owners.get(owner);
+        return account == null ? Collections.<TransactionOutput>emptyNavigableSet()
+                : Collections.unmodifiableNavigableSet(account.outputs);
+    }
+
+    /** {@inheritDoc} */
+    public long balanceOf(Address owner){
+        Account account = owners.get(owner);
+        return account == null ? 0 : account.balance.sum();
+    }
+
+    /** {@inheritDoc} */
+    public Map<Address, Long> balances(){
+        Map<Address, Long> balances = new HashMap<>();
+        for(Map.Entry<Address, Account> entry : owners.entrySet()){
+            long balance = entry.getValue().balance.sum();
+            if(balance != 0){
+                balances.put(entry.getKey(), balance);
+            }
+        }
+        return balances;
+    }
+
+    /** {@inheritDoc} */
+    public void forEach(Consumer<TransactionOutput> action){
+        outputs.values().forEach(action);
+    }
+
+    /** {@inheritDoc} */
+    public int size(){
+        return outputs.size();
+    }
+
+    /** {@inheritDoc} */
+    public void clear(){
+        outputs.clear();
+        owners.clear();
+    }
+}
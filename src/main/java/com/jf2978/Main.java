@@ -4,11 +4,15 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
-import java.security.PublicKey;
-import java.security.Security;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * ===== Wrapper class for main() entry point to the blockchain program -
@@ -19,8 +23,18 @@ import java.util.*;
 public class Main {
 
     public static void main(String[] args) {
-        Security.addProvider(new BouncyCastleProvider());
+        CryptoEngine.init();
+        if (System.getProperty("chain.dir") != null) {
+            SimpleBlockChain.open(Paths.get(System.getProperty("chain.dir"))); // -Dchain.dir=<dir> to persist blocks
+        }
         // TODO: List erroneous use cases + ensure graceful exit
+        if (!SimpleBlockChain.blockchain.isEmpty()) {
+            // Restored from the block store: its genesis already released the funds (to wallets of an earlier run)
+            System.out.printf("Restored headers valid? %b\n", SimpleBlockChain.validateHeaders());
+            System.out.printf("Restored chain valid? %b\n", SimpleBlockChain.revalidate());
+            SimpleBlockChain.prettyPrint();
+            return;
+        }
 
         // Create wallets
         Wallet alice = new Wallet();
@@ -28,9 +42,9 @@ public class Main {
         Wallet coinbase = new Wallet();
 
         // Create genesis transaction to release funds into the blockchain
-        Transaction genesisTransaction = new Transaction("0", coinbase.eK, alice.eK, 100f);
+        Transaction genesisTransaction = new Transaction("0", coinbase.eK, alice.address, 100f);
         genesisTransaction.sign(coinbase.dK);
-        SimpleBlockChain.UTXOs.put(alice.eK, genesisTransaction.outputs);
+        SimpleBlockChain.UTXOs.addAll(genesisTransaction.outputs);
 
         // Create + mine Genesis block
         Block genesis = new Block("0");
@@ -41,14 +55,14 @@ public class Main {
 
         // If Alice tries to send money she doesn't have, should return null Transaction
         // obj
-        Transaction toBob = alice.send(bob.eK, 500f);
+        Transaction toBob = alice.send(bob.address, 500f);
         if (toBob != null) {
             toBob.sign(alice.dK);
         }
         System.out.printf("Alice Balance: %s\n", alice.balance());
 
         // Test Successful transaction, should be fine
-        Transaction toBob2 = alice.send(bob.eK, 50f);
+        Transaction toBob2 = alice.send(bob.address, 50f);
         if (toBob2 != null) {
             toBob2.sign(alice.dK);
         }
@@ -74,56 +88,337 @@ public class Main {
     public static class SimpleBlockChain {
 
         // Static Variables
-        public static List<Block> blockchain = new ArrayList<>();
-        public static Map<PublicKey, Set<TransactionOutput>> UTXOs = new HashMap<>(); // eK -> unspent transaction
-                                                                                      // outputs
-        public static Map<PublicKey, Float> fees = new HashMap<>(); // eK -> individualized fee rate
-        public static int difficulty = 2; // "# of 0s" needed to solve PoW
+        public static List<Block> blockchain = new ArrayList<>(); // guarded by the SimpleBlockChain class lock
+        public static int baseHeight; // chain height of blockchain.get(0) (> 0 once bootstrapped from a UTXO snapshot)
+        public static HeaderIndex headers = new HeaderIndex(); // compact index of the blockchain's headers
+        public static UtxoStore UTXOs = Boolean.getBoolean("utxo.offheap") // -Dutxo.offheap=true for large chains
+                ? new OffHeapUtxoStore(1 << 16) : new HeapUtxoStore(); // output id -> unspent transaction output (+ address index)
+        public static final ReentrantReadWriteLock utxoLock = new ReentrantReadWriteLock(); // apply (read) / snapshot
+        static final Set<Transaction> unconnected = ConcurrentHashMap.newKeySet(); // applied, not in the chain yet
+        public static Map<Address, Float> fees = new ConcurrentHashMap<>(); // address -> individualized fee rate
+        public static int difficulty = 8; // # of leading zero bits needed to solve PoW
+        public static ParallelMiner miner = new ParallelMiner(Runtime.getRuntime().availableProcessors());
+        public static BatchVerifier verifier = new BatchVerifier(Runtime.getRuntime().availableProcessors());
+        public static SignatureCache signatures = new SignatureCache(Integer.getInteger("sigcache.size",
+                SignatureCache.DEFAULT_CAPACITY)); // verified signatures (null = always verify)
+        public static BlockConnector connector = new BlockConnector(Runtime.getRuntime().availableProcessors());
+        public static ChainValidator validator = new ChainValidator(Runtime.getRuntime().availableProcessors());
+        public static int validatedHeight = -1; // blocks [0, validatedHeight] have passed isValid()
+        public static Mempool mempool = new Mempool(); // signed transactions waiting to be mined
+        public static BlockStore store; // persistent block log (null = in-memory only)
+        public static int snapshotInterval = 1000; // blocks between UTXO snapshots (of a persisted chain)
+        public static int pruneDepth = Integer.getInteger("prune.depth", 0); // blocks kept whole (0 = never prune)
+        public static int prunedHeight = -1; // blocks [0, prunedHeight] hold their headers only
+        public static long prunedBytes; // estimated heap released by pruning so far
+        static final Deque<Integer> snapshotHeights = new ArrayDeque<>(); // of the kept UTXO snapshots, oldest first
 
         /**
-         * ===== Adds Block object to SimpleBlockChain
+         * ===== Persists every block added from now on to the block store in the given directory, and restores the
+         * blocks already stored there: every block (and its header) is loaded back into the chain, and the UTXO set
+         * is restored from the latest UTXO snapshot of a stored block, replaying only the blocks after it. Opening
+         * fails if a block that needs replaying was pruned (no snapshot covering it could be read).
          *
-         * @param block Block to be mined + added
+         * An empty store is bootstrapped from the latest snapshot alone: the blocks added from then on are stored from
+         * height 0, but stand at chain heights snapshot.height + 1 on (baseHeight), which snapshot names and the
+         * snapshot checks of later openings use. A store whose first block is not a genesis block was bootstrapped
+         * that way, and its base height is recovered from the snapshot its UTXO set is restored from.
+         *
+         * @param dir Block store directory
          */
-        public static void add(Block block) {
-            block.mine(difficulty);
-            blockchain.add(block);
+        public static synchronized void open(Path dir) {
+            if (store != null || !blockchain.isEmpty()) {
+                System.out.println("Unable to open block store: the chain must be empty and in-memory only");
+                return;
+            }
+            try {
+                store = new BlockStore(dir);
+                System.out.printf("Opened block store %s (%d blocks)\n", dir, store.size());
+
+                long start = System.nanoTime();
+                String origin = store.size() == 0 ? null : BlockCodec.decodeBlock(store.read(0)).previousHash;
+                boolean bootstrapped = origin != null && !origin.equals("0");
+                UtxoSnapshot snapshot = UtxoSnapshot.load(dir, UTXOs, (tip, height) -> {
+                    if (store.size() == 0) {
+                        return true; // (bootstrapped from it)
+                    }
+                    int stored = position(tip, origin);
+                    return bootstrapped ? stored >= -1 && height > stored : stored >= 0 && height == stored;
+                });
+                int from = 0;
+                if (snapshot != null) {
+                    from = snapshot.height + 1;
+                    if (store.size() == 0) {
+                        baseHeight = from; // (the blocks added next are stored from 0 on, and it covers none of them)
+                    } else {
+                        baseHeight = snapshot.height - position(snapshot.tip, origin);
+                        snapshotHeights.add(snapshot.height);
+                    }
+                } else if (bootstrapped) {
+                    throw new IOException("the stored chain starts after genesis and no UTXO snapshot covers it");
+                }
+                for (int index = 0; index < store.size(); index++) {
+                    Block block = BlockCodec.decodeBlock(store.read(index));
+                    if (headers.append(block, difficulty) != index) {
+                        throw new IOException("stored block " + index + " does not extend the stored chain");
+                    }
+                    blockchain.add(block);
+                    if (block.pruned && prunedHeight == index - 1) {
+                        prunedHeight = index;
+                    }
+                    if (baseHeight + index >= from) {
+                        replay(block, baseHeight + index);
+                    }
+                }
+                System.out.printf("Restored %d unspent outputs (snapshot height %d, %d blocks replayed) in %d ms\n",
+                        UTXOs.size(), snapshot == null ? -1 : snapshot.height,
+                        Math.max(0, baseHeight + store.size() - from), (System.nanoTime() - start) / 1_000_000);
+                prune(); // stored whole (not yet covered by a snapshot) but buried deep enough to prune in memory
+            } catch (IOException e) {
+                System.out.println("Unable to open block store: " + e.getMessage());
+                close();
+            }
         }
 
         /**
-         * ===== Checks if current state of blockchain is valid (current/prev hashes +
-         * proof-of-work)
+         * ===== Finds the position of a block in the block store
          *
-         * @return Validity flag/result
+         * @param hash Block hash
+         * @param origin Previous hash of the first stored block (null if the store is empty)
+         * @return Position in the store, -1 for the block the store starts after, or -2 if it is not on the chain
          */
-        public static boolean isValid() {
-            String target = StringUtils.leftPad("", difficulty, '0');
-            for (int i = 1; i < blockchain.size(); i++) {
+        private static int position(String hash, String origin) {
+            int height = store.height(hash);
+            return hash.equals(origin) ? -1 : height < 0 ? -2 : height;
+        }
 
-                Block previous = blockchain.get(i - 1);
-                Block current = blockchain.get(i);
+        /**
+         * ===== Closes the block store, if one is open, and resets the chain to an empty in-memory one
+         */
+        static synchronized void close() {
+            try {
+                if (store != null) {
+                    store.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Unable to close block store: " + e.getMessage());
+            }
+            store = null;
+            blockchain.clear();
+            baseHeight = 0;
+            headers = new HeaderIndex();
+            UTXOs.clear();
+            unconnected.clear();
+            validatedHeight = -1;
+            prunedHeight = -1;
+            snapshotHeights.clear();
+        }
 
-                // Verify hash value is the same as calculated hash
-                if (!current.signature.equals(current.hash())) {
-                    System.out.println("Current block corrupted");
-                    return false;
+        /**
+         * ===== Re-applies the UTXO changes of an already validated block (no signature checks)
+         *
+         * @param block Stored block
+         * @param height Height of the block
+         * @throws IOException If the block was pruned, so its UTXO changes are lost
+         */
+        static void replay(Block block, int height) throws IOException {
+            if (block.pruned) {
+                throw new IOException("stored block " + height + " is pruned and no UTXO snapshot covers it");
+            }
+            for (Transaction transaction : block.transactions) {
+                if (block.previousHash.equals("0")) {
+                    UTXOs.addAll(transaction.outputs); // genesis outputs are created, not spent into
+                } else if (!transaction.apply()) {
+                    System.out.println("Stored transaction failed to replay: " + transaction.id);
                 }
+            }
+            block.transactions.forEach(Transaction::connect);
+        }
 
-                // Check if previous signature is the current 'previousHash' value
-                if (!previous.signature.equals(current.previousHash)) {
-                    System.out.println("Previous block corrupted");
+        /**
+         * ===== Adds Block object to SimpleBlockChain (mined in parallel when a multi-worker miner is set) and persists
+         * it to the block store, if one is open. A block that does not extend the chain's tip is discarded before it is
+         * mined. A mined block is persisted (and synced) before the chain changes in memory, so the block store and the
+         * chain never disagree: a block that cannot be persisted is taken back out of the store and discarded. A
+         * discarded block's transactions are reverted (see Block.revert), so the UTXO set holds the chain's changes and
+         * those of transactions still applied on top of it.
+         *
+         * @param block Block to be mined + added
+         * @return True if the block was added (false if it was discarded)
+         */
+        public static synchronized boolean add(Block block) {
+            int index = blockchain.size(); // (the header index and store hold the same blocks, at the same positions)
+            int height = baseHeight + index;
+            if (index > 0 && !block.previousHash.equals(blockchain.get(index - 1).signature)) {
+                discard(block, "it does not extend the chain");
+                return false;
+            }
+            try {
+                if (miner != null && miner.getWorkers() > 1) {
+                    block.mine(difficulty, miner);
+                } else {
+                    block.mine(difficulty);
+                }
+            } catch (IllegalStateException e) {
+                discard(block, e.getMessage());
+                return false;
+            }
+            if (store != null) {
+                try {
+                    store.append(block.signature, block.previousHash, BlockCodec.encode(block));
+                } catch (IOException | IllegalArgumentException e) {
+                    discard(block, "it could not be persisted (" + e.getMessage() + ")");
                     return false;
                 }
+                try {
+                    store.sync();
+                } catch (UncheckedIOException e) {
+                    store.removeTip();
+                    discard(block, "it could not be synced to disk (" + e.getMessage() + ")");
+                    return false;
+                }
+            }
+            if (headers.append(block, difficulty) < 0) {
+                if (store != null) {
+                    store.removeTip();
+                }
+                discard(block, "it does not extend the indexed headers");
+                return false;
+            }
+            blockchain.add(block);
+            block.transactions.forEach(Transaction::connect);
+            mempool.removeConfirmed(block);
+            if (store != null && (height + 1) % snapshotInterval == 0) {
+                try {
+                    snapshot(block.signature, height);
+                } catch (IOException e) {
+                    System.out.println("Unable to write UTXO snapshot: " + e.getMessage()); // (open replays past it)
+                }
+            }
+            prune();
+            return true;
+        }
+
+        /**
+         * ===== Writes a UTXO snapshot of the chain's tip. Transactions applied to the UTXO set without being in the
+         * chain yet (e.g. those of a block template being filled) are left out of it, and the UTXO write lock keeps
+         * the set and those transactions from changing while the snapshot is written.
+         *
+         * @param tip Hash of the chain's tip
+         * @param height Height of the chain's tip
+         * @throws IOException If the snapshot cannot be written
+         */
+        static void snapshot(String tip, int height) throws IOException {
+            utxoLock.writeLock().lock();
+            try {
+                UtxoSnapshot.write(store.directory(), UTXOs, unconnected, tip, height);
+            } finally {
+                utxoLock.writeLock().unlock();
+            }
+            snapshotHeights.add(height);
+            while (snapshotHeights.size() > UtxoSnapshot.KEEP) {
+                snapshotHeights.remove();
+            }
+        }
+
+        /**
+         * ===== Reverts the UTXO changes of a block the chain did not take (see Block.revert)
+         *
+         * @param block Discarded block
+         * @param reason Why it was discarded
+         */
+        static void discard(Block block, String reason) {
+            if (block.revert()) {
+                System.out.println("Block discarded: " + reason);
+            } else {
+                System.out.println("Block discarded: " + reason + " (transactions whose outputs were spent since "
+                        + "stay applied)");
+            }
+        }
+
+        /**
+         * ===== Prunes the blocks buried more than pruneDepth blocks deep down to their headers (see Block.prune),
+         * reporting the heap and disk space reclaimed. On disk, only blocks covered by every kept UTXO snapshot are
+         * pruned, so that the UTXO set can still be restored from any of them (the older one standing in for a corrupt
+         * newer one) and the (whole) blocks after it. The blockchain list, header index and block store hold the blocks
+         * at the same positions; chain heights (of snapshots) are baseHeight further on (see open).
+         */
+        static void prune() {
+            if (pruneDepth <= 0) {
+                return;
+            }
+            int buried = blockchain.size() - pruneDepth; // blocks below this position are buried deep enough
+            for (int index = prunedHeight + 1; index < buried; index++) {
+                long released = blockchain.get(index).prune();
+                prunedBytes += released;
+                prunedHeight = index;
+                System.out.printf("Pruned block %d: up to ~%d bytes of heap released (~%d bytes in total)\n",
+                        baseHeight + index, released, prunedBytes);
+            }
+            if (store != null) {
+                try {
+                    int covered = snapshotHeights.isEmpty() ? -1 : snapshotHeights.peek() - baseHeight; // (oldest kept)
+                    store.prune(Math.min(buried, covered + 1), BlockCodec::prune);
+                } catch (IOException e) {
+                    System.out.println("Unable to prune block store: " + e.getMessage());
+                }
+            }
+        }
 
-                // Proof-of-work
-                if (!current.signature.substring(0, difficulty).equals(target)) {
-                    System.out.println("This block hasn't been mined (un-verified by the proof-of-work)");
+        /**
+         * ===== Checks if current state of blockchain is valid (current/prev hashes +
+         * proof-of-work). Incremental: only the blocks added since the last successful call are checked, so each new
+         * block costs O(1) header checks (use revalidate() to re-check the whole chain). The headers are checked in
+         * the header index, and each block against its indexed header.
+         *
+         * @return Validity flag/result
+         */
+        public static synchronized boolean isValid() {
+            if (headers.size() != blockchain.size()) {
+                System.out.printf("%d headers indexed for %d blocks\n", headers.size(), blockchain.size());
+                return false;
+            }
+            validatedHeight = Math.min(validatedHeight, blockchain.size() - 1);
+            int invalid = headers.validate(validatedHeight + 1, blockchain.size(), difficulty);
+            int end = invalid < 0 ? blockchain.size() : invalid;
+            for (int i = validatedHeight + 1; i < end; i++) {
+                if (!ChainValidator.check(blockchain, headers, i, false)) {
                     return false;
                 }
+                validatedHeight = i;
+            }
+            if (invalid >= 0) {
+                System.out.printf("Header %d is invalid\n", invalid);
+                return false;
             }
             return true;
         }
 
+        /**
+         * ===== Revalidates the whole blockchain from scratch in parallel: every header in the header index (hashes,
+         * links and proof-of-work), every block against its header and its merkle root, then every transaction
+         * signature
+         *
+         * @return Validity flag/result
+         */
+        public static synchronized boolean revalidate() {
+            validatedHeight = -1;
+            if (!validator.validate(blockchain, headers, difficulty, verifier)) {
+                return false;
+            }
+            validatedHeight = blockchain.size() - 1;
+            return true;
+        }
+
+        /**
+         * ===== Validates the chain's headers alone, in parallel over the header index (hashes, links and
+         * proof-of-work): no block body is read, so this is what a node holding pruned blocks can still check
+         *
+         * @return Validity flag/result
+         */
+        public static synchronized boolean validateHeaders() {
+            return validator.validate(headers, difficulty);
+        }
+
         /**
          * ===== Prints current blockchain state
          *
@@ -143,7 +438,7 @@ public class Main {
             int count = 0;
             for (Block block : blockchain) {
                 blockNo.append(String.format("// %s //      ", StringUtils.center(Integer.toString(count++), 41)));
-                times.append(String.format("// Timestamp: %s //      ", StringUtils.center(block.timestamp, 30)));
+                times.append(String.format("// Timestamp: %s //      ", StringUtils.center(Instant.ofEpochMilli(block.timestamp).toString(), 30)));
                 prev.append(String.format("// Previous: %s //      ", StringUtils.center(block.shortPrevious(), 31)));
                 sig.append(String.format("// Signature: %s //  →  ", StringUtils.center(block.shortSignature(), 30)));
                 transactions.append(String.format("// Transactions: %s //     ",
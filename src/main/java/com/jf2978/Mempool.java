@@ -0,0 +1,264 @@
+package com.jf2978;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** =====
+ * The Mempool class holds signed transactions waiting to be mined. Any number of threads may submit transactions:
+ * signatures and inputs are checked outside of any lock, and only the (cheap) admission step is serialized.
+ *
+ * Pending transactions are kept ordered by fee rate (the explicit fee each transaction pays, per kB of BlockCodec
+ * encoding; first come first served among equal rates), and an index of which pending transaction claims each input
+ * rejects double-spends on arrival (first seen wins). When the encoded size of the pool exceeds its memory budget the
+ * lowest fee rate entries are evicted. buildTemplate hands the miner the best transactions without locking out
+ * submitters.
+ *
+ * @author jf2978
+ */
+public class Mempool {
+
+    // Static Variables
+    public static final long DEFAULT_BUDGET = 64L << 20; // 64 MB of encoded transactions
+
+    // Instance variables
+    private final long budget;
+    private final ConcurrentSkipListSet<Entry> byFeeRate; // best first
+    private final Map<String, Entry> entries; // tx id -> entry
+    private final Map<String, Entry> claims; // input id -> entry of the pending transaction spending it
+    private final ReentrantLock admission;
+    private final AtomicLong sequence;
+    private long bytes; // encoded size of the pending transactions (guarded by admission)
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty mempool with the default memory budget
+     */
+    public Mempool(){
+        this(DEFAULT_BUDGET);
+    }
+
+    /** =====
+     * Constructs an empty mempool
+     *
+     * @param maxBytes Memory budget, as the encoded size of the pending transactions
+     */
+    public Mempool(long maxBytes){
+        budget = maxBytes;
+        byFeeRate = new ConcurrentSkipListSet<>();
+        entries = new ConcurrentHashMap<>();
+        claims = new ConcurrentHashMap<>();
+        admission = new ReentrantLock();
+        sequence = new AtomicLong();
+    }
+
+    /** =====
+     * Inner Entry class: a pending transaction with its fee, encoded size and arrival order
+     */
+    static class Entry implements Comparable<Entry> {
+
+        final Transaction transaction;
+        final long fee; // fixed-point units
+        final int size; // encoded bytes
+        final double feeRate; // fee per kB
+        final long seq;
+
+        Entry(Transaction tx, int bytes, long n){
+            transaction = tx;
+            fee = tx.fee;
+            size = bytes;
+            feeRate = fee * 1000.0 / bytes;
+            seq = n;
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(Entry o){
+            int byRate = Double.compare(o.feeRate, feeRate); // higher fee rate first
+            return byRate != 0 ? byRate : Long.compare(seq, o.seq); // then oldest first
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Submits a signed transaction to the mempool
+     *
+     * @param transaction Signed transaction spending unspent outputs of its sender
+     * @return True if the transaction is now pending (false if invalid, conflicting or priced out)
+     */
+    public boolean add(Transaction transaction){
+        if(transaction == null || transaction.inputs == null || transaction.inputs.isEmpty()){
+            return false;
+        }
+        if(entries.containsKey(transaction.id)){
+            return false;
+        }
+
+        // Expensive checks first, without holding the admission lock
+        if(!transaction.verify()){
+            System.out.println("Failed to verify transaction signature...");
+            return false;
+        }
+        Address sender = Address.of(transaction.sender);
+        List<TransactionOutput> unspent = new ArrayList<>(transaction.inputs.size());
+        for(TransactionOutput input : transaction.inputs){
+            TransactionOutput stored = Main.SimpleBlockChain.UTXOs.get(input.id);
+            if(stored == null || !stored.recipient.equals(sender)){
+                System.out.println("Transaction inputs are invalid...");
+                return false;
+            }
+            unspent.add(stored);
+        }
+        long sum = Transaction.getInputsValue(unspent); // fixed-point, exactly as Transaction.apply will check it
+        if(transaction.fee < 0 || sum < UtxoStore.toUnits(transaction.value) + transaction.fee){
+            System.out.printf("Available input (%f) too low for amount (%f) and fee (%f)\n",
+                    UtxoStore.fromUnits(sum), transaction.value, UtxoStore.fromUnits(transaction.fee));
+            return false;
+        }
+        Entry entry = new Entry(transaction, BlockCodec.encode(transaction).length, sequence.getAndIncrement());
+
+        admission.lock();
+        try {
+            if(entries.containsKey(transaction.id)){
+                return false;
+            }
+            for(TransactionOutput input : transaction.inputs){
+                if(claims.containsKey(input.id)){
+                    System.out.println("Double spend rejected: input already claimed by a pending transaction");
+                    return false;
+                }
+            }
+            insert(entry);
+
+            while(bytes > budget){
+                Entry worst = byFeeRate.last();
+                remove(worst);
+                if(worst == entry){
+                    System.out.println("Mempool full: transaction fee rate too low");
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    /** =====
+     * Builds a block template: the highest fee rate pending transactions whose inputs are all still unspent
+     * (pending transactions never share an input, so the result has no conflicts)
+     *
+     * @param maxTxs Maximum number of transactions
+     * @return Transactions, best fee rate first
+     */
+    public List<Transaction> buildTemplate(int maxTxs){
+        List<Transaction> template = new ArrayList<>(Math.min(maxTxs, entries.size()));
+        UtxoStore UTXOs = Main.SimpleBlockChain.UTXOs;
+        for(Iterator<Entry> it = byFeeRate.iterator(); it.hasNext() && template.size() < maxTxs; ){
+            Transaction transaction = it.next().transaction;
+            boolean unspent = true;
+            for(TransactionOutput input : transaction.inputs){
+                if(!UTXOs.contains(input)){
+                    unspent = false; // spent by a block since it was accepted
+                    break;
+                }
+            }
+            if(unspent){
+                template.add(transaction);
+            }
+        }
+        return template;
+    }
+
+    /** =====
+     * Drops the transactions of a mined block from the mempool, along with any pending transaction spending one of
+     * the same inputs (now a double-spend of the block)
+     *
+     * @param block Block added to the chain
+     */
+    public void removeConfirmed(Block block){
+        admission.lock();
+        try {
+            for(Transaction transaction : block.transactions){
+                Entry pending = entries.get(transaction.id);
+                if(pending != null){
+                    remove(pending);
+                }
+                if(transaction.inputs == null){
+                    continue;
+                }
+                for(TransactionOutput input : transaction.inputs){
+                    Entry conflict = claims.get(input.id);
+                    if(conflict != null){
+                        remove(conflict);
+                    }
+                }
+            }
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    /** =====
+     * Checks whether a transaction is pending
+     *
+     * @param id Transaction id
+     * @return True if pending
+     */
+    public boolean contains(String id){
+        return entries.containsKey(id);
+    }
+
+    /** =====
+     * Returns the number of pending transactions
+     *
+     * @return Mempool size
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    /** =====
+     * Returns the encoded size of the pending transactions
+     *
+     * @return Bytes used against the memory budget
+     */
+    public long bytes(){
+        admission.lock();
+        try {
+            return bytes;
+        } finally {
+            admission.unlock();
+        }
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    private void insert(Entry entry){
+        entries.put(entry.transaction.id, entry);
+        for(TransactionOutput input : entry.transaction.inputs){
+            claims.put(input.id, entry);
+        }
+        byFeeRate.add(entry);
+        bytes += entry.size;
+    }
+
+    private void remove(Entry entry){
+        if(entries.remove(entry.transaction.id, entry)){
+            for(TransactionOutput input : entry.transaction.inputs){
+                claims.remove(input.id, entry);
+            }
+            byFeeRate.remove(entry);
+            bytes -= entry.size;
+        }
+    }
+}
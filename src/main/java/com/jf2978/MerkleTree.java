@@ -10,6 +10,9 @@ import java.util.List;
  * of transactions as the merkle root contains the integrity of all signatures from its base and any one transaction
  * can be verified in O(d) time if the location of the leaf is known.
  *
+ * Leaves are transaction ids read as 64-byte digests (see Utility.digestBytes) and every parent is the SHA-512 of its
+ * two children's raw digests; the resulting root is the same as FlatMerkleTree's.
+ *
  * @author jf2978
  */
 public class MerkleTree {
@@ -32,6 +35,41 @@ public class MerkleTree {
         constructTree(leaves);
     }
 
+    /** =====
+     * Hashes two child hashes into their parent hash (SHA-512 over both raw digests)
+     *
+     * @param left Left child hash (hex)
+     * @param right Right child hash (hex)
+     * @return Parent hash (hex)
+     */
+    public static String hashPair(String left, String right){
+        return Utility.toHex(FlatMerkleTree.hashPair(Utility.digestBytes(left), Utility.digestBytes(right)));
+    }
+
+    /** =====
+     * Inner Proof class holding a leaf's Merkle branch: the sibling hash at every level (leaf → root) and whether that
+     * sibling sits on the left. Levels where the node was inherited (odd node out) have no sibling and no entry.
+     */
+    public static class Proof {
+
+        public List<String> siblings;
+        public List<Boolean> left;
+
+        public Proof(){
+            siblings = new ArrayList<>();
+            left = new ArrayList<>();
+        }
+
+        public int size(){
+            return siblings.size();
+        }
+
+        private void add(String sibling, boolean isLeft){
+            siblings.add(sibling);
+            left.add(isLeft);
+        }
+    }
+
     /** =====
      * Inner Node class for Merkle Tree
      */
@@ -81,6 +119,37 @@ public class MerkleTree {
         return this.leaves;
     }
 
+    /** =====
+     * Generates the inclusion proof (Merkle branch) for a leaf of this tree
+     *
+     * @param leaf Transaction signature (id) to prove
+     * @return Proof for the leaf, or null if the leaf is not in this tree
+     */
+    public Proof getProof(String leaf){
+        Proof proof = new Proof();
+        return path(root, canonical(leaf), proof) ? proof : null;
+    }
+
+    /** =====
+     * Verifies an inclusion proof against a Merkle root in O(log n) hashes, without the rest of the tree
+     *
+     * @param leaf Transaction signature (id) being proven
+     * @param proof Merkle branch for the leaf
+     * @param root Expected Merkle root (e.g. from a block header)
+     * @return Verification result
+     */
+    public static boolean verify(String leaf, Proof proof, String root){
+        if(leaf == null || proof == null || root == null || proof.siblings.size() != proof.left.size()){
+            return false;
+        }
+        String hash = canonical(leaf);
+        for(int i = 0; i < proof.size(); i++){
+            String sibling = proof.siblings.get(i);
+            hash = proof.left.get(i) ? hashPair(sibling, hash) : hashPair(hash, sibling);
+        }
+        return hash.equals(canonical(root));
+    }
+
     // #####
     // HELPER METHODS
     // #####
@@ -96,11 +165,7 @@ public class MerkleTree {
             throw new IllegalArgumentException("Must provide a transaction signature to construct Merkle Tree");
         }
 
-        // If only one transaction, return as root node
-        if(signatures.size() == 1){
-            root = new Node(Utility.SHA512(signatures.get(0)));
-        }
-
+        // Note, a single transaction is inherited up unhashed like any odd node, so it is its own root
         List<Node> parents = constructBase(signatures);
         root = constructInternal(parents);
     }
@@ -117,15 +182,15 @@ public class MerkleTree {
 
         // Create leaves + construct immediate parents
         for(int i = 1; i < signatures.size(); i += 2){
-            Node left = new Node(signatures.get(i-1));
-            Node right = new Node(signatures.get(i));
-            Node parent = new Node(Utility.SHA512(signatures.get(i-1) + signatures.get(i)), left, right);
+            Node left = new Node(canonical(signatures.get(i-1)));
+            Node right = new Node(canonical(signatures.get(i)));
+            Node parent = new Node(hashPair(left.hash, right.hash), left, right);
             parents.add(parent);
         }
 
         // If the number of nodes is odd, "inherit" the remaining child node
         if(odd){
-            Node n = new Node(signatures.get(signatures.size() - 1));
+            Node n = new Node(canonical(signatures.get(signatures.size() - 1)));
             parents.add(n);
         }
 
@@ -148,17 +213,51 @@ public class MerkleTree {
 
         // Generate parents
         boolean odd = children.size() % 2 != 0;
+        List<Node> parents = new ArrayList<>(children.size() / 2 + 1);
         for(int i = 1; i < children.size(); i += 2){
             Node left = children.get(i-1);
             Node right = children.get(i);
-            Node parent = new Node(Utility.SHA512(left.hash + right.hash), left, right);
-            children.add(parent);
+            Node parent = new Node(hashPair(left.hash, right.hash), left, right);
+            parents.add(parent);
         }
 
         // If the number of nodes is odd, "inherit" the remaining child node (no hash needed)
         if(odd){
-            children.add(children.get(children.size() - 1));
+            parents.add(children.get(children.size() - 1));
+        }
+        return constructInternal(parents);
+    }
+
+    /** =====
+     * Returns the canonical (128 character, upper case) form of a leaf or root hash
+     *
+     * @param hash Hex hash (e.g. a transaction id)
+     * @return Canonical hex hash
+     */
+    private static String canonical(String hash){
+        return Utility.toHex(Utility.digestBytes(hash));
+    }
+
+    /** =====
+     * Recursively searches for a leaf, recording the sibling of every node on the way back up to the root
+     *
+     * @param node Current (sub)tree root
+     * @param leaf Leaf signature to look for
+     * @param proof Proof collecting the branch (leaf → root order)
+     * @return True if the leaf is in this subtree
+     */
+    private boolean path(Node node, String leaf, Proof proof){
+        if(node.left == null){
+            return node.hash.equals(leaf);
+        }
+        if(path(node.left, leaf, proof)){
+            proof.add(node.right.hash, false);
+            return true;
+        }
+        if(path(node.right, leaf, proof)){
+            proof.add(node.left.hash, true);
+            return true;
         }
-        return constructInternal(children);
+        return false;
     }
 }
\ No newline at end of file
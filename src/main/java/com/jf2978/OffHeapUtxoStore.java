@@ -0,0 +1,521 @@
+package com.jf2978;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/** =====
+ * The OffHeapUtxoStore class keeps unspent outputs as fixed-size binary records in direct (off-heap) ByteBuffers,
+ * organised as open-addressing hash tables (linear probing on the output id, tombstones on spend). Nothing per
+ * output lives on the Java heap (but see the sorted index below), so tens of millions of outputs cost no GC time.
+ * Each record is:
+ *
+ *   [ amount (8, fixed-point 1e-8) | prev (4) | next (4) | state (4) | output id (64) | recipient address (32) ]
+ *   = 116 bytes
+ *
+ * A record holds only what spending the output needs: its id (which already commits to the parent transaction id
+ * and output index, so those are not stored; outputs read back have a null parentId and index 0), owner and amount.
+ * Fields are read and written with bulk ByteBuffer transfers at absolute positions.
+ *
+ * The outputs are split across STRIPES independent tables by output id, each guarded by its own read/write lock, so
+ * transactions spending and creating unrelated outputs rarely contend. Within a stripe, prev/next link the records of
+ * one address into a list, which serves as the per-address index. The heap holds one entry per address (its list
+ * heads and running balance), plus, for the addresses a wallet has queried, a sorted index: the first outputsOf call
+ * walks the address's lists into a set sorted by value (as HeapUtxoStore keeps), which add and spend then maintain,
+ * so later wallet queries are O(1) instead of a walk and a sort. This trades heap for speed: every unspent output of
+ * an indexed address is held on the heap again (as a TransactionOutput and a skip list node, a few hundred bytes
+ * each) until the store is cleared. That is meant for the handful of addresses a node's own wallets query; a store
+ * serving queries for every address holds the whole UTXO set on the heap as HeapUtxoStore does. Slots are spread
+ * over fixed-size pages, so a table is not limited by the 2 GB size of a single ByteBuffer.
+ *
+ * @author jf2978
+ */
+public class OffHeapUtxoStore implements UtxoStore {
+
+    // Static Variables
+    static final int RECORD = 116;
+    private static final int AMOUNT = 0;
+    private static final int PREV = 8;
+    private static final int NEXT = 12;
+    private static final int STATE = 16;
+    private static final int ID = 20;
+    private static final int ADDRESS = 84;
+    private static final int ADDRESS_LENGTH = Address.LENGTH;
+
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int TOMBSTONE = 2;
+
+    static final int STRIPES = 16; // independently locked tables (power of two)
+    private static final int PAGE_BITS = 16; // 65,536 slots (~7.6 MB) per page
+    private static final double MAX_LOAD = 0.7;
+
+    // Instance variables
+    private final Stripe[] stripes;
+    private final Map<Address, Owner> owners; // address -> list heads + balance
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty store sized for the given number of outputs (it grows past that as needed)
+     *
+     * @param expected Expected number of unspent outputs
+     */
+    public OffHeapUtxoStore(int expected){
+        owners = new ConcurrentHashMap<>();
+        stripes = new Stripe[STRIPES];
+        for(int s = 0; s < STRIPES; s++){
+            stripes[s] = new Stripe(s, slotsFor(expected / STRIPES));
+        }
+    }
+
+    /** =====
+     * Inner Owner class: an address (shared by the outputs rebuilt for it), its record list head in each stripe, its
+     * balance and its sorted index (once queried). A list head is only read or written under its stripe's lock.
+     */
+    private static class Owner {
+
+        final Address address;
+        final int[] heads = new int[STRIPES];
+        final LongAdder balance = new LongAdder(); // fixed-point units
+        volatile NavigableSet<TransactionOutput> sorted; // unspent outputs by value (null = not indexed yet; on heap)
+        volatile boolean indexed; // sorted holds every unspent output
+
+        Owner(Address a){
+            address = a;
+            Arrays.fill(heads, -1);
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** {@inheritDoc} */
+    public void add(TransactionOutput output){
+        byte[] id = Utility.digestBytes(output.id);
+        Stripe stripe = stripe(id);
+        stripe.lock.writeLock().lock();
+        try {
+            // looked up under the stripe lock: clear takes every stripe lock, so it cannot orphan the entry
+            Owner owner = owners.computeIfAbsent(output.recipient, Owner::new);
+            stripe.add(id, output, owner);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public TransactionOutput get(String id){
+        byte[] key = Utility.digestBytes(id);
+        Stripe stripe = stripe(key);
+        stripe.lock.readLock().lock();
+        try {
+            int slot = stripe.find(key);
+            return slot < 0 ? null : stripe.read(slot);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(TransactionOutput output){
+        byte[] key = Utility.digestBytes(output.id);
+        Stripe stripe = stripe(key);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.find(key) >= 0;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean spend(TransactionOutput output){
+        byte[] key = Utility.digestBytes(output.id);
+        Stripe stripe = stripe(key);
+        stripe.lock.writeLock().lock();
+        try {
+            return stripe.spend(key);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public NavigableSet<TransactionOutput> outputsOf(Address owner){
+        Owner entry = owners.get(owner);
+        if(entry == null){
+            return Collections.emptyNavigableSet();
+        }
+        if(!entry.indexed){
+            index(entry);
+        }
+        return Collections.unmodifiableNavigableSet(entry.sorted);
+    }
+
+    /** {@inheritDoc} */
+    public void forEach(Consumer<TransactionOutput> action){
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try {
+                for(int slot = 0; slot < stripe.capacity; slot++){
+                    if(stripe.state(slot) == USED){
+                        action.accept(stripe.read(slot));
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public long balanceOf(Address owner){
+        Owner entry = owners.get(owner);
+        return entry == null ? 0 : entry.balance.sum();
+    }
+
+    /** {@inheritDoc} */
+    public Map<Address, Long> balances(){
+        Map<Address, Long> balances = new HashMap<>();
+        for(Owner owner : owners.values()){
+            long balance = owner.balance.sum();
+            if(balance != 0){
+                balances.put(owner.address, balance);
+            }
+        }
+        return balances;
+    }
+
+    /** {@inheritDoc} */
+    public int size(){
+        int size = 0;
+        for(Stripe stripe : stripes){
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public void clear(){
+        for(Stripe stripe : stripes){
+            stripe.lock.writeLock().lock(); // in stripe order, so concurrent clears cannot deadlock
+        }
+        try {
+            owners.clear();
+            for(Stripe stripe : stripes){
+                stripe.allocate(slotsFor(0));
+                stripe.size = 0;
+                stripe.tombstones = 0;
+            }
+        } finally {
+            for(Stripe stripe : stripes){
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** =====
+     * Returns the off-heap memory held by the tables
+     *
+     * @return Bytes allocated
+     */
+    public long memoryBytes(){
+        long bytes = 0;
+        for(Stripe stripe : stripes){
+            bytes += (long) stripe.capacity * RECORD;
+        }
+        return bytes;
+    }
+
+    /** =====
+     * Returns the off-heap bytes used per unspent output (record size divided by the tables' load)
+     *
+     * @return Bytes per entry (0 when empty)
+     */
+    public double bytesPerEntry(){
+        int size = size();
+        return size == 0 ? 0 : (double) memoryBytes() / size;
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Builds an address's sorted index from its record lists. The (empty) index is published first, so outputs added
+     * or spent while the lists are walked are applied to it by the stripes themselves; the walk holds each stripe's
+     * read lock in turn, so every output is either seen by it or applied by its stripe. An entry a concurrent clear
+     * dropped (looked up before the clear) has no lists left to walk: its index is left empty.
+     *
+     * @param owner Address entry to index
+     */
+    private void index(Owner owner){
+        synchronized(owner){
+            if(owner.indexed){
+                return;
+            }
+            owner.sorted = new ConcurrentSkipListSet<>(BY_VALUE);
+            for(Stripe stripe : stripes){
+                stripe.lock.readLock().lock();
+                try {
+                    if(owners.get(owner.address) != owner){
+                        owner.sorted.clear(); // (cleared: its list heads point into the discarded tables)
+                        break;
+                    }
+                    for(int slot = owner.heads[stripe.number]; slot >= 0; slot = stripe.next(slot)){
+                        owner.sorted.add(stripe.read(slot));
+                    }
+                } finally {
+                    stripe.lock.readLock().unlock();
+                }
+            }
+            owner.indexed = true;
+        }
+    }
+
+    /** =====
+     * Returns the stripe holding an output id (chosen by a byte the in-stripe slot does not depend on)
+     *
+     * @param id Raw output id
+     * @return Stripe of the id
+     */
+    private Stripe stripe(byte[] id){
+        return stripes[id[4] & (STRIPES - 1)];
+    }
+
+    private static int slotsFor(int entries){
+        int slots = 16;
+        while(slots * MAX_LOAD < entries + 1){
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    private static int offset(int slot){
+        return (slot & ((1 << PAGE_BITS) - 1)) * RECORD;
+    }
+
+    private static void put(ByteBuffer page, int at, byte[] bytes){
+        ByteBuffer field = page.duplicate();
+        field.position(at);
+        field.put(bytes);
+    }
+
+    private static byte[] get(ByteBuffer page, int at, int length){
+        byte[] out = new byte[length];
+        ByteBuffer field = page.duplicate();
+        field.position(at);
+        field.get(out);
+        return out;
+    }
+
+    private static ByteBuffer slice(ByteBuffer page, int at, int length){
+        ByteBuffer field = page.duplicate();
+        field.limit(at + length).position(at);
+        return field;
+    }
+
+    /** =====
+     * Inner Stripe class: one open-addressing table of records and its lock. Every method expects the caller to hold
+     * the lock (the read lock to look records up, the write lock to change them).
+     */
+    private class Stripe {
+
+        final int number;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        ByteBuffer[] pages;
+        int capacity; // slots (power of two)
+        volatile int size; // used slots (read without the lock by size())
+        int tombstones;
+
+        Stripe(int s, int slots){
+            number = s;
+            allocate(slots);
+        }
+
+        void add(byte[] id, TransactionOutput output, Owner owner){
+            if(find(id) >= 0){
+                return;
+            }
+            if(size + tombstones + 1 > capacity * MAX_LOAD){
+                rehash(slotsFor(size + 1));
+            }
+            int slot = probe(id);
+            ByteBuffer page = page(slot);
+            int at = offset(slot);
+            if(page.getInt(at + STATE) == TOMBSTONE){
+                tombstones--;
+            }
+            page.putLong(at + AMOUNT, UtxoStore.toUnits(output.value));
+            page.putInt(at + STATE, USED);
+            put(page, at + ID, id);
+            put(page, at + ADDRESS, output.recipient.toBytes());
+            link(slot, owner);
+            owner.balance.add(page.getLong(at + AMOUNT));
+            if(owner.sorted != null){
+                owner.sorted.add(read(slot));
+            }
+            size++;
+        }
+
+        boolean spend(byte[] id){
+            int slot = find(id);
+            if(slot < 0){
+                return false;
+            }
+            Owner owner = unlink(slot);
+            if(owner.sorted != null){
+                owner.sorted.remove(read(slot));
+            }
+            page(slot).putInt(offset(slot) + STATE, TOMBSTONE);
+            size--;
+            tombstones++;
+            return true;
+        }
+
+        /** =====
+         * Finds the slot of a used record by output id
+         *
+         * @param id Raw output id
+         * @return Slot, or -1 if not present
+         */
+        int find(byte[] id){
+            int mask = capacity - 1;
+            for(int slot = home(id, mask); ; slot = (slot + 1) & mask){
+                int state = state(slot);
+                if(state == EMPTY){
+                    return -1;
+                }
+                if(state == USED && matches(slot, id)){
+                    return slot;
+                }
+            }
+        }
+
+        /** =====
+         * Finds the first free (empty or tombstone) slot on an output id's probe sequence
+         *
+         * @param id Raw output id
+         * @return Free slot
+         */
+        int probe(byte[] id){
+            int mask = capacity - 1;
+            int slot = home(id, mask);
+            while(state(slot) == USED){
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int home(byte[] id, int mask){
+            // ids are SHA-512 digests, so their first bytes are already uniformly distributed
+            int h = (id[0] & 0xFF) << 24 | (id[1] & 0xFF) << 16 | (id[2] & 0xFF) << 8 | (id[3] & 0xFF);
+            return h & mask;
+        }
+
+        boolean matches(int slot, byte[] id){
+            return slice(page(slot), offset(slot) + ID, Utility.DIGEST_LENGTH).equals(ByteBuffer.wrap(id));
+        }
+
+        int state(int slot){
+            return page(slot).getInt(offset(slot) + STATE);
+        }
+
+        int next(int slot){
+            return page(slot).getInt(offset(slot) + NEXT);
+        }
+
+        /** =====
+         * Rebuilds the TransactionOutput stored in a slot (without its parent id and index, which are not stored)
+         *
+         * @param slot Used slot
+         * @return Transaction output
+         */
+        TransactionOutput read(int slot){
+            ByteBuffer page = page(slot);
+            int at = offset(slot);
+            Owner owner = owners.get(new Address(get(page, at + ADDRESS, ADDRESS_LENGTH)));
+            return new TransactionOutput(Utility.toHex(get(page, at + ID, Utility.DIGEST_LENGTH)), owner.address,
+                    UtxoStore.fromUnits(page.getLong(at + AMOUNT)), null, 0);
+        }
+
+        void link(int slot, Owner owner){
+            ByteBuffer page = page(slot);
+            int at = offset(slot);
+            int head = owner.heads[number];
+            page.putInt(at + PREV, -1);
+            page.putInt(at + NEXT, head);
+            if(head >= 0){
+                page(head).putInt(offset(head) + PREV, slot);
+            }
+            owner.heads[number] = slot;
+        }
+
+        Owner unlink(int slot){
+            ByteBuffer page = page(slot);
+            int at = offset(slot);
+            int prev = page.getInt(at + PREV);
+            int next = page.getInt(at + NEXT);
+            Owner owner = owners.get(new Address(get(page, at + ADDRESS, ADDRESS_LENGTH)));
+            owner.balance.add(-page.getLong(at + AMOUNT));
+            if(prev >= 0){
+                page(prev).putInt(offset(prev) + NEXT, next);
+            } else {
+                owner.heads[number] = next;
+            }
+            if(next >= 0){
+                page(next).putInt(offset(next) + PREV, prev);
+            }
+            return owner;
+        }
+
+        /** =====
+         * Moves every used record into a new table of the given capacity (dropping tombstones)
+         *
+         * @param slots New capacity (power of two)
+         */
+        void rehash(int slots){
+            ByteBuffer[] old = pages;
+            int oldCapacity = capacity;
+            allocate(slots);
+            tombstones = 0;
+            for(Owner owner : owners.values()){
+                owner.heads[number] = -1;
+            }
+
+            for(int slot = 0; slot < oldCapacity; slot++){
+                ByteBuffer page = old[slot >>> PAGE_BITS];
+                int at = offset(slot);
+                if(page.getInt(at + STATE) != USED){
+                    continue;
+                }
+                int target = probe(get(page, at + ID, Utility.DIGEST_LENGTH));
+                ByteBuffer copy = page(target).duplicate();
+                copy.position(offset(target));
+                copy.put(slice(page, at, RECORD));
+                link(target, owners.get(new Address(get(page, at + ADDRESS, ADDRESS_LENGTH))));
+            }
+        }
+
+        void allocate(int slots){
+            int perPage = Math.min(slots, 1 << PAGE_BITS);
+            pages = new ByteBuffer[Math.max(1, slots / perPage)];
+            for(int i = 0; i < pages.length; i++){
+                pages[i] = ByteBuffer.allocateDirect(perPage * RECORD);
+            }
+            capacity = slots;
+        }
+
+        ByteBuffer page(int slot){
+            return pages[slot >>> PAGE_BITS];
+        }
+    }
+}
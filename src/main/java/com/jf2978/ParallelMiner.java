@@ -0,0 +1,178 @@
+package com.jf2978;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** =====
+ * The ParallelMiner class splits the proof-of-work nonce space of a Block across a fixed pool of worker threads.
+ * Worker w tries the nonces (start + w), (start + w + n), (start + w + 2n), ... so no two workers ever hash the same
+ * candidate, and the first worker to find a signature matching the difficulty target cancels the others. Per-worker
+ * hash rates are printed after each round only when run with -Dminer.stats=true.
+ *
+ * @author jf2978
+ */
+public class ParallelMiner {
+
+    // Static Variables
+    private static final boolean STATS = Boolean.getBoolean("miner.stats");
+
+    // Instance variables
+    private final int workers;
+    private final ExecutorService pool;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * ParallelMiner constructor that starts a pool of (daemon) mining threads
+     *
+     * @param n Number of worker threads to split the nonce space across
+     */
+    public ParallelMiner(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("Must provide at least one mining worker");
+        }
+        workers = n;
+        pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "miner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** =====
+     * Inner Result class holding what an individual worker did during a mining round
+     */
+    static class Result {
+
+        public final int worker;
+        public final long hashes;
+        public final long nanos;
+
+        public Result(int w, long h, long ns){
+            worker = w;
+            hashes = h;
+            nanos = ns;
+        }
+
+        public double hashRate(){
+            return nanos == 0 ? 0 : hashes * 1e9 / nanos;
+        }
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the number of workers in this miner's pool
+     *
+     * @return Worker count
+     */
+    public int getWorkers(){
+        return workers;
+    }
+
+    /** =====
+     * "Mines" the given block across every worker in the pool. Once a worker finds a valid signature, the block's
+     * nonce, timestamp and signature are set to that solution and the remaining workers stop.
+     *
+     * @param block Block to be mined
+     * @param diff Mining difficulty as the number of leading zero bits our target hash value starts with
+     * @return Per-worker hash counts and timings for this round
+     * @throws IllegalStateException If no solution was found (a worker failed, or the caller was interrupted)
+     */
+    public List<Result> mine(Block block, int diff){
+        AtomicBoolean solved = new AtomicBoolean(false);
+        long start = block.getNonce();
+        LocalDateTime begin = LocalDateTime.now();
+
+        System.out.printf("Mining Block (%d workers)...\n", workers);
+        List<Future<Result>> futures = new ArrayList<>(workers);
+        for(int w = 0; w < workers; w++){
+            final int id = w;
+            futures.add(pool.submit(() -> search(block, diff, start + id, solved, id)));
+        }
+
+        List<Result> results = new ArrayList<>(workers);
+        Exception failure = null;
+        for(Future<Result> f : futures){
+            try {
+                results.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                solved.set(true); // (stops the workers; none can solve the block from now on)
+                failure = e;
+            } catch (ExecutionException e) {
+                solved.set(true);
+                failure = e;
+            }
+        }
+        if(failure != null || !Utility.hasLeadingZeroBits(Utility.digestBytes(block.signature), diff)){
+            throw new IllegalStateException("Block could not be mined", failure);
+        }
+
+        LocalDateTime end = LocalDateTime.now();
+        System.out.println("Mining Success: " + Duration.between(begin, end).toString());
+        if(STATS){
+            long total = 0;
+            for(Result r : results){
+                System.out.printf("  Worker %d: %d hashes (%.0f H/s)\n", r.worker, r.hashes, r.hashRate());
+                total += r.hashes;
+            }
+            double seconds = Duration.between(begin, end).toNanos() / 1e9;
+            System.out.printf("  Total: %d hashes (%.0f H/s)\n", total, seconds == 0 ? 0 : total / seconds);
+        }
+        return results;
+    }
+
+    /** =====
+     * Stops the worker threads; no more blocks can be mined with this miner afterwards
+     */
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Worker loop: hashes every n-th nonce starting from the given offset until a solution is found (by any worker).
+     * Each worker owns its header midstate and output buffer, so the loop neither allocates nor shares state.
+     *
+     * @param block Block being mined
+     * @param diff Required number of leading zero bits
+     * @param nonce First nonce tried by this worker
+     * @param solved Shared flag set by the first worker to find a solution
+     * @param id Worker index (for reporting)
+     * @return Number of hashes computed + time spent by this worker
+     */
+    private Result search(Block block, int diff, long nonce, AtomicBoolean solved, int id){
+        long begin = System.nanoTime();
+        long hashes = 0;
+        BlockHeader.Midstate header = block.header().midstate();
+        byte[] digest = new byte[Utility.DIGEST_LENGTH];
+
+        while(!solved.get()){
+            header.setNonce(nonce);
+            header.setTimestamp(System.currentTimeMillis());
+            header.hash(digest);
+            hashes++;
+            if(Utility.hasLeadingZeroBits(digest, diff) && solved.compareAndSet(false, true)){
+                block.solve(nonce, header.getTimestamp(), Utility.toHex(digest));
+                break;
+            }
+            nonce += workers;
+        }
+        return new Result(id, hashes, System.nanoTime() - begin);
+    }
+}
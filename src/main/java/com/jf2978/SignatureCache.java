@@ -0,0 +1,184 @@
+package com.jf2978;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** =====
+ * The SignatureCache class remembers transaction signatures that have already been verified, so a transaction checked
+ * on mempool admission is not put through the curve arithmetic again when it is mined into a block, connected or
+ * revalidated. An entry is the SHA-256 of everything a verification depends on (scheme, transaction id, sender address
+ * and signature bytes), and only successful verifications are added: a hit means "this exact check passed before",
+ * while an invalid signature is re-checked (and rejected) every time.
+ *
+ * The cache is bounded: entries live in a fixed ring of slots and are evicted with the CLOCK algorithm (a hit sets the
+ * slot's reference bit; the hand clears set bits and replaces the first unreferenced slot). Lookups take no locks,
+ * insertions are serialized.
+ *
+ * @author jf2978
+ */
+public class SignatureCache {
+
+    // Static Variables
+    public static final int DEFAULT_CAPACITY = 1 << 16; // about 10 MB of entries
+
+    // Instance variables
+    private final int capacity;
+    private final Map<ByteBuffer, Integer> index; // entry -> slot
+    private final ByteBuffer[] slots; // slot -> entry (guarded by this)
+    private final AtomicIntegerArray referenced; // CLOCK reference bits
+    private int hand; // next slot considered for eviction (guarded by this)
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    /** =====
+     * Constructs an empty signature cache
+     *
+     * @param n Maximum number of verified signatures to remember
+     */
+    public SignatureCache(int n){
+        if(n < 1){
+            throw new IllegalArgumentException("Signature cache must hold at least one entry");
+        }
+        capacity = n;
+        index = new ConcurrentHashMap<>(n * 4 / 3 + 1);
+        slots = new ByteBuffer[n];
+        referenced = new AtomicIntegerArray(n);
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Verifies a transaction's signature, skipping the check if the same signature was verified before
+     *
+     * @param transaction Transaction to verify
+     * @return Verification result
+     */
+    public boolean verify(Transaction transaction){
+        if(transaction.signature == null){
+            return transaction.scheme.verify(transaction.id, transaction.sender, transaction.signature);
+        }
+        ByteBuffer entry = entry(transaction);
+        Integer slot = index.get(entry);
+        if(slot != null){
+            referenced.lazySet(slot, 1);
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        if(!transaction.scheme.verify(transaction.id, transaction.sender, transaction.signature)){
+            return false;
+        }
+        add(entry);
+        return true;
+    }
+
+    /** =====
+     * Returns the number of verifications answered from the cache
+     *
+     * @return Hit count
+     */
+    public long getHits(){
+        return hits.sum();
+    }
+
+    /** =====
+     * Returns the number of verifications that had to check the signature
+     *
+     * @return Miss count
+     */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /** =====
+     * Returns the number of verified signatures currently remembered
+     *
+     * @return Entry count
+     */
+    public int size(){
+        return index.size();
+    }
+
+    /** =====
+     * Returns the maximum number of verified signatures remembered
+     *
+     * @return Capacity
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /** =====
+     * Forgets every verified signature (the hit and miss counters are kept)
+     */
+    public synchronized void clear(){
+        index.clear();
+        for(int i = 0; i < capacity; i++){
+            slots[i] = null;
+            referenced.set(i, 0);
+        }
+        hand = 0;
+    }
+
+    /** {@inheritDoc} */
+    public String toString(){
+        long h = getHits();
+        long m = getMisses();
+        return String.format("%d/%d signatures cached, %d hits, %d misses (%.1f%% hit rate)",
+                size(), capacity, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Computes the cache entry of a transaction's signature check: SHA-256(scheme | id | sender address | signature)
+     *
+     * @param transaction Signed transaction
+     * @return Entry (32 bytes)
+     */
+    private static ByteBuffer entry(Transaction transaction){
+        Address sender = Address.of(transaction.sender); // (uses this thread's SHA-256 digest, so before ours)
+        MessageDigest md = CryptoEngine.digest("SHA-256");
+        md.update(transaction.scheme.id);
+        md.update(transaction.id.getBytes(StandardCharsets.UTF_8));
+        md.update(sender.toBytes());
+        md.update(transaction.signature);
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    /** =====
+     * Remembers a verified signature, evicting the entry under the CLOCK hand if the cache is full
+     *
+     * @param entry Entry of a successful verification
+     */
+    private synchronized void add(ByteBuffer entry){
+        if(index.containsKey(entry)){
+            return; // verified concurrently by another thread
+        }
+        while(referenced.get(hand) == 1){
+            referenced.set(hand, 0); // second chance
+            hand = (hand + 1) % capacity;
+        }
+        if(slots[hand] != null){
+            index.remove(slots[hand]);
+        }
+        slots[hand] = entry;
+        index.put(entry, hand);
+        hand = (hand + 1) % capacity;
+    }
+}
@@ -0,0 +1,192 @@
+package com.jf2978;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.sec.SECObjectIdentifiers;
+import org.bouncycastle.asn1.x9.ECNamedCurveTable;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.EllipticCurve;
+
+/** =====
+ * The SignatureScheme enum lists the digital signature schemes a wallet can sign with. Every transaction records the
+ * scheme of its sender (in its encoding and its hash preimage), so chains can mix schemes and each signature is checked
+ * with the algorithm it was made with. Signing and verification go through the CryptoEngine's per-thread instances.
+ *
+ * secp521r1 is the original scheme (BouncyCastle's "ECDSA", i.e. SHA-1 over the signed id); secp256k1 and Ed25519 sign
+ * and verify several times faster, and their keys and signatures are smaller.
+ *
+ * @author jf2978
+ */
+public enum SignatureScheme {
+
+    SECP521R1((byte) 0, "ECDSA", "ECDSA", "secp521r1"),
+    SECP256K1((byte) 1, "EC", "SHA256withECDSA", "secp256k1"), // "EC" stays on BouncyCastle: JDK 16+ lacks secp256k1
+    ED25519((byte) 2, "Ed25519", "Ed25519", null);
+
+    // Static Variables
+    public static final SignatureScheme DEFAULT = valueOf(System.getProperty("signature.scheme", "SECP521R1"));
+    private static final SecureRandom random = new SecureRandom();
+    private static final ASN1ObjectIdentifier ED25519_OID = new ASN1ObjectIdentifier("1.3.101.112"); // RFC 8410
+
+    // Instance variables
+    public final byte id; // recorded in each transaction
+    final String keyAlgorithm; // key pair generator / key factory algorithm (see CryptoEngine)
+    private final String algorithm; // signature algorithm
+    private final String curve; // named curve (ECDSA schemes)
+    private final X9ECParameters parameters; // domain parameters of the named curve
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    SignatureScheme(byte n, String keys, String signature, String named){
+        id = n;
+        keyAlgorithm = keys;
+        algorithm = signature;
+        curve = named;
+        parameters = named == null ? null : ECNamedCurveTable.getByName(named);
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Returns the scheme recorded under an id
+     *
+     * @param id Scheme id
+     * @return Signature scheme
+     */
+    public static SignatureScheme fromId(byte id){
+        for(SignatureScheme scheme : values()){
+            if(scheme.id == id){
+                return scheme;
+            }
+        }
+        throw new IllegalArgumentException("Unknown signature scheme " + id);
+    }
+
+    /** =====
+     * Returns the scheme a public key belongs to. An EC key must be on the scheme's curve itself (same field, curve
+     * coefficients and group order), not merely one of the same size: P-256 keys are not secp256k1 keys.
+     *
+     * @param key Public key
+     * @return Signature scheme of the key
+     */
+    public static SignatureScheme of(PublicKey key){
+        if(key instanceof ECPublicKey){
+            ECParameterSpec params = ((ECPublicKey) key).getParams();
+            for(SignatureScheme scheme : values()){
+                if(scheme.parameters != null && scheme.isCurveOf(params)){
+                    return scheme;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported elliptic curve of order " + params.getOrder().toString(16));
+        } else if("Ed25519".equals(key.getAlgorithm()) || "EdDSA".equals(key.getAlgorithm())){
+            return ED25519;
+        }
+        throw new IllegalArgumentException("Unsupported public key: " + key.getAlgorithm());
+    }
+
+    /** =====
+     * Returns the scheme of an X.509 encoded public key (from its algorithm and curve identifiers)
+     *
+     * @param encoded X.509 encoding of a public key
+     * @return Signature scheme of the key
+     */
+    public static SignatureScheme of(byte[] encoded){
+        AlgorithmIdentifier algorithm = SubjectPublicKeyInfo.getInstance(encoded).getAlgorithm();
+        if(ED25519_OID.equals(algorithm.getAlgorithm())){
+            return ED25519;
+        }
+        if(SECObjectIdentifiers.secp256k1.equals(algorithm.getParameters())){
+            return SECP256K1;
+        }
+        if(SECObjectIdentifiers.secp521r1.equals(algorithm.getParameters())){
+            return SECP521R1;
+        }
+        throw new IllegalArgumentException("Unsupported public key: " + algorithm.getAlgorithm());
+    }
+
+    /** =====
+     * Generates a key pair for this scheme
+     *
+     * @return New key pair
+     * @throws GeneralSecurityException If the selected provider does not support the scheme
+     */
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator kg = CryptoEngine.keyPairGenerator(keyAlgorithm);
+        if(curve != null){
+            kg.initialize(new ECGenParameterSpec(curve), random);
+        } else {
+            kg.initialize(255, random);
+        }
+        return kg.generateKeyPair();
+    }
+
+    /** =====
+     * Signs a string (e.g. a transaction id)
+     *
+     * @param input String to sign
+     * @param dK Private key of this scheme
+     * @return Signature (empty if the key does not fit the scheme)
+     */
+    public byte[] sign(String input, PrivateKey dK){
+        try {
+            Signature signer = CryptoEngine.signature(algorithm);
+            signer.initSign(dK);
+            signer.update(input.getBytes(StandardCharsets.UTF_8));
+            return signer.sign();
+        } catch (InvalidKeyException | SignatureException e) {
+            System.out.println(e.getMessage());
+        }
+        return new byte[0];
+    }
+
+    /** =====
+     * Verifies a signature of a string
+     *
+     * @param data Signed string
+     * @param eK Public key of the signer
+     * @param signature Signature to check
+     * @return Verification result
+     */
+    public boolean verify(String data, PublicKey eK, byte[] signature){
+        try {
+            Signature verifier = CryptoEngine.signature(algorithm);
+            verifier.initVerify(eK);
+            verifier.update(data.getBytes(StandardCharsets.UTF_8));
+            return verifier.verify(signature);
+        } catch (InvalidKeyException | SignatureException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Checks EC domain parameters against this scheme's named curve
+     *
+     * @param params Domain parameters of a key
+     * @return True if they describe this scheme's curve and group
+     */
+    private boolean isCurveOf(ECParameterSpec params){
+        EllipticCurve curve = params.getCurve();
+        return curve.getField() instanceof ECFieldFp
+                && ((ECFieldFp) curve.getField()).getP().equals(parameters.getCurve().getField().getCharacteristic())
+                && curve.getA().equals(parameters.getCurve().getA().toBigInteger())
+                && curve.getB().equals(parameters.getCurve().getB().toBigInteger())
+                && params.getOrder().equals(parameters.getN());
+    }
+}
@@ -1,12 +1,9 @@
 package com.jf2978;
 
-import com.google.gson.GsonBuilder;
-
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.security.SecureRandom;
+import java.util.*;
 
 /** =====
  * The Transaction class represents a payment between two parties within the P2P network as described
@@ -18,17 +15,21 @@ import java.util.Set;
 public class Transaction {
 
     // Static Variables
-    private static int total = 0; // number of transactions generated, to be used within our hash to differentiate duplicates (think CTR Mode of operation)
+    private static final SecureRandom nonces = new SecureRandom(); // source of the transaction nonces
 
     //Instance Variables
     String id; // TX hash for this transaction
-    public PublicKey sender;
-    public PublicKey recipient;
+    public PublicKey sender; // needed to verify the signature
+    public SignatureScheme scheme; // scheme the sender signs with (recorded, and covered by the hash)
+    public Address recipient;
     public float value; // amount to send
+    public long fee; // paid on top of the value, in fixed-point units (the inputs exceed the outputs by it)
+    public long nonce; // random, hashed in to differentiate otherwise identical transactions (kept to recompute the id)
     public byte[] signature; // digital signature to verify
 
     public Set<TransactionOutput> inputs; // previous transaction outputs of sender (to be spent for this transaction)
     public Set<TransactionOutput> outputs; // resulting transaction outputs (including change)
+    transient List<TransactionOutput> spent; // stored outputs apply() claimed (null unless applied, not yet connected)
 
     // #####
     // CONSTRUCTOR(S)
@@ -36,17 +37,34 @@ public class Transaction {
 
     /** =====
      * Transaction constructor to build this Transaction object using the given Transaction inputs, addresses
-     * and amount.
+     * and amount, paying no fee.
+     *
+     * @param from Public key of sender
+     * @param to Address of recipient
+     * @param val Amount to be sent
+     * @param in Set of unspent transaction inputs to be (entirely) spent
+     */
+    public Transaction(PublicKey from, Address to, float val, Set<TransactionOutput> in){
+        this(from, to, val, 0, in);
+    }
+
+    /** =====
+     * Transaction constructor to build this Transaction object using the given Transaction inputs, addresses,
+     * amount and fee.
      *
      * @param from Public key of sender
-     * @param to Public key of recipient
+     * @param to Address of recipient
      * @param val Amount to be sent
+     * @param f Fee paid on top of the amount, in fixed-point units (see UtxoStore.toUnits)
      * @param in Set of unspent transaction inputs to be (entirely) spent
      */
-    public Transaction(PublicKey from, PublicKey to, float val, Set<TransactionOutput> in){
+    public Transaction(PublicKey from, Address to, float val, long f, Set<TransactionOutput> in){
         sender = from;
+        scheme = SignatureScheme.of(from);
         recipient = to;
         value = val;
+        fee = f;
+        nonce = nonces.nextLong();
         inputs = in;
         outputs = new HashSet<>();
         id = hash();
@@ -58,12 +76,13 @@ public class Transaction {
      *
      * @param hash Hardcoded TX hash
      * @param from Public key of sender
-     * @param to Public key of recipient
+     * @param to Address of recipient
      * @param val Amount to be sent
      */
-    protected Transaction(String hash, PublicKey from, PublicKey to, float val){
+    protected Transaction(String hash, PublicKey from, Address to, float val){
         id = hash;
         sender = from;
+        scheme = SignatureScheme.of(from);
         recipient = to;
         value = val;
         outputs = new HashSet<>();
@@ -72,31 +91,75 @@ public class Transaction {
 
 
 
+    /** =====
+     * Transaction constructor that rebuilds a stored transaction as is, without rehashing (see BlockCodec)
+     *
+     * @param hash TX hash
+     * @param from Public key of sender
+     * @param signer Signature scheme of the sender
+     * @param to Address of recipient
+     * @param val Amount sent
+     * @param f Fee paid, in fixed-point units
+     * @param n Nonce hashed into the id
+     * @param sig Digital signature (null if unsigned)
+     * @param in Spent transaction outputs (null for coinbase transactions)
+     * @param out Resulting transaction outputs
+     */
+    Transaction(String hash, PublicKey from, SignatureScheme signer, Address to, float val, long f, long n, byte[] sig,
+                Set<TransactionOutput> in, Set<TransactionOutput> out){
+        id = hash;
+        sender = from;
+        scheme = signer;
+        recipient = to;
+        value = val;
+        fee = f;
+        nonce = n;
+        signature = sig;
+        inputs = in;
+        outputs = out;
+    }
+
     // #####
     // PUBLIC METHODS
     // #####
 
     /** {@inheritDoc} */
     public String toString(){
-        return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+        return Utility.JSON.newBuilder().setPrettyPrinting().create().toJson(this);
     }
 
     /** =====
-     * Generates digital signature of this transaction's id (hash)
+     * Generates digital signature of this transaction's id (hash) with the sender's signature scheme
      *
      * @param dK Private key of the sender
      */
     public void sign(PrivateKey dK){
-        signature = Utility.ECDSASignature(id, dK);
+        signature = scheme.sign(id, dK);
     }
 
     /** =====
-     * Verifies this transaction's digital signature
+     * Verifies this transaction's digital signature with the recorded signature scheme (answered from the chain's
+     * SignatureCache when this exact signature was verified before), after checking that the id is the hash of the
+     * transaction's fields, so that the signature covers them
      *
      * @return Verification result
      */
     public boolean verify(){
-        return Utility.verifyECDSASignature(id, sender, signature);
+        return verify(true);
+    }
+
+    /** =====
+     * Verifies this transaction's digital signature with the recorded signature scheme (see verify())
+     *
+     * @param cached Whether the chain's SignatureCache may answer (false to always run the check)
+     * @return Verification result
+     */
+    boolean verify(boolean cached){
+        if(!hash().equals(id)){
+            return false; // (the fields were changed after signing, or the id was never their hash)
+        }
+        SignatureCache cache = cached ? Main.SimpleBlockChain.signatures : null;
+        return cache == null ? scheme.verify(id, sender, signature) : cache.verify(this);
     }
 
     /** =====
@@ -108,83 +171,176 @@ public class Transaction {
      */
     public boolean process(){
 
-        // Check Unspent transactions map
-        Map<PublicKey, Set<TransactionOutput>> UTXOs = Main.SimpleBlockChain.UTXOs;
-
         // Verify the signature of this transaction
         if(!verify()){
             System.out.println("Failed to verify transaction signature...");
             return false;
         }
+        return apply();
+    }
 
-        // Check that inputs correspond with what's in the blockchain
-        if(!UTXOs.get(sender).containsAll(inputs)){
-            System.out.println("Transaction inputs are invalid...");
-            return false;
+    /** =====
+     * Applies this (already verified) transaction to the UTXO map: checks the transaction inputs are valid,
+     * generates the transaction outputs and updates the blockchain accordingly. Safe to call concurrently: inputs are
+     * claimed with atomic spends, so of two transactions racing for the same output exactly one succeeds. The change
+     * is made under the chain's UTXO read lock, and the transaction counts as unconnected until its block is added.
+     *
+     * @return Processing result (transaction invalid if false)
+     */
+    boolean apply(){
+        Main.SimpleBlockChain.utxoLock.readLock().lock();
+        try {
+            if(!applyUnlocked()){
+                return false;
+            }
+            Main.SimpleBlockChain.unconnected.add(this);
+            return true;
+        } finally {
+            Main.SimpleBlockChain.utxoLock.readLock().unlock();
         }
+    }
 
-        // check if inputs sum to a value large enough to process transaction amount
-        // TODO: float fee = Utility.calculateFee(value);
-        float sum = getInputsValue();
-        if(sum < value) {
-            System.out.printf("Available input (%f) too low for amount (%f)\n", sum, value);
-            return false;
+    /** =====
+     * Gives back the UTXO changes of this (applied) transaction, e.g. when the block holding it is not taken by the
+     * chain: its outputs are spent again and the stored outputs it spent (not the copies it carries as inputs) are
+     * restored. All or nothing: if one of its outputs was already spent by a later transaction, the outputs spent so
+     * far are put back and the transaction stays applied.
+     *
+     * @return True if the transaction was reverted
+     */
+    boolean revert(){
+        Main.SimpleBlockChain.utxoLock.readLock().lock();
+        try {
+            if(spent == null){
+                return false; // (not applied, or already connected to the chain)
+            }
+            UtxoStore UTXOs = Main.SimpleBlockChain.UTXOs;
+            List<TransactionOutput> removed = new ArrayList<>(outputs.size());
+            for(TransactionOutput output : outputs){
+                if(!UTXOs.spend(output)){
+                    UTXOs.addAll(removed);
+                    System.out.println("Transaction output was spent before it could be reverted: " + output.id);
+                    return false;
+                }
+                removed.add(output);
+            }
+            outputs.clear();
+            UTXOs.addAll(spent);
+            spent = null;
+            Main.SimpleBlockChain.unconnected.remove(this);
+            return true;
+        } finally {
+            Main.SimpleBlockChain.utxoLock.readLock().unlock();
         }
+    }
 
-        // Generate TransactionOutput(s)
-        float change = sum - value;
-        outputs.add(new TransactionOutput(recipient, value, id));
+    /** =====
+     * Marks this transaction as part of the chain: it is no longer unconnected, and can no longer be reverted
+     */
+    void connect(){
+        Main.SimpleBlockChain.unconnected.remove(this);
+        spent = null;
+    }
 
-        // Potentially do something with transaction fee here
-        if(change > 0){
-            outputs.add(new TransactionOutput(sender, change, id));
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Applies this transaction to the UTXO map (see apply; the caller holds the UTXO read lock)
+     *
+     * @return Processing result (transaction invalid if false)
+     */
+    private boolean applyUnlocked(){
+
+        // Check Unspent transactions store
+        UtxoStore UTXOs = Main.SimpleBlockChain.UTXOs;
+
+        // Check that inputs correspond with what's in the blockchain (unspent + owned by the sender)
+        Address from = Address.of(sender);
+        List<TransactionOutput> unspent = new ArrayList<>(inputs.size());
+        for(TransactionOutput input : inputs){
+            TransactionOutput stored = UTXOs.get(input.id);
+            if(stored == null || !stored.recipient.equals(from)){
+                System.out.println("Transaction inputs are invalid...");
+                return false;
+            }
+            unspent.add(stored);
+        }
+
+        // check if inputs sum to a value large enough to process transaction amount and fee (in fixed-point units,
+        // so inputs that exactly match them leave no change)
+        long sum = getInputsValue(unspent);
+        long amount = UtxoStore.toUnits(value);
+        if(fee < 0 || sum < amount + fee) {
+            System.out.printf("Available input (%f) too low for amount (%f) and fee (%f)\n",
+                    UtxoStore.fromUnits(sum), value, UtxoStore.fromUnits(fee));
+            return false;
         }
 
-        // Remove spent Transaction Outputs from UTXOs map
-        UTXOs.get(sender).removeAll(inputs);
+        // Claim (spend) the inputs; if another transaction spent one first, give back the ones already claimed
+        for(int i = 0; i < unspent.size(); i++){
+            if(!UTXOs.spend(unspent.get(i))){
+                UTXOs.addAll(unspent.subList(0, i));
+                System.out.println("Transaction inputs were spent concurrently...");
+                return false;
+            }
+        }
 
-        // Update blockchain with this set (and initializes entry if DNE for appropriate key)
-        for(TransactionOutput output : outputs){
-            UTXOs.putIfAbsent(output.recipient, new HashSet<>());
-            UTXOs.get(output.recipient).add(output);
+        // Generate TransactionOutput(s): the fee is not paid back as change (blocks carry no reward transaction to
+        // collect it, so it leaves circulation)
+        long change = sum - amount - fee;
+        outputs.add(new TransactionOutput(recipient, value, id, 0));
+        if(change > 0){
+            outputs.add(new TransactionOutput(from, UtxoStore.fromUnits(change), id, 1));
         }
 
+        // Update blockchain with the new outputs, remembering the stored outputs spent (to revert them exactly)
+        UTXOs.addAll(outputs);
+        spent = unspent;
+
         return true;
     }
 
-    // #####
-    // HELPER METHODS
-    // #####
-
     /** =====
-     * Represents this transaction as a String, used to compress the object information needed for hashing and signing
+     * Represents this transaction in binary (see BlockCodec), used to compress the object information needed for
+     * hashing and signing
      *
-     * @return String representation of this transaction
+     * @return Binary representation of this transaction
      */
-    private String simplify(){
-        return Utility.getStringFromKey(sender) + Utility.getStringFromKey(recipient) + Float.toString(value) + total;
+    private byte[] simplify(){
+        List<String> spent = new ArrayList<>();
+        if(inputs != null){
+            for(TransactionOutput input : inputs){
+                spent.add(input.id);
+            }
+        }
+        Collections.sort(spent);
+        return BlockCodec.transactionPreimage(scheme, Address.of(sender), recipient, value, fee, spent, nonce);
     }
 
     /** =====
      * Generates cryptographic (one-way) hash for the current transaction using the Secure Hash Algorithm (512)
-     * Note, this aims to provide data integrity and origin authenticity before signing as well.
+     * Note, this aims to provide data integrity and origin authenticity before signing as well. The ids of the spent
+     * outputs (which no other transaction can spend) and a random nonce keep ids unique across restarts, unlike a
+     * counter kept by the process. The nonce is kept (and encoded) with the transaction, so anyone can recompute the id.
      *
      * @return Hex string output of the hash function
      */
     private String hash(){
-        total++;
         return Utility.SHA512(this.simplify());
     }
 
     /** =====
      * Returns the sum of transaction input values
      *
-     * @return Total spendable amount
+     * @param unspent Stored unspent outputs matching the inputs
+     * @return Total spendable amount, in fixed-point units
      */
-    private float getInputsValue() {
-        float total = 0;
-        for(TransactionOutput i : inputs) {
-            total += i.value;
+    static long getInputsValue(List<TransactionOutput> unspent) {
+        long total = 0;
+        for(TransactionOutput i : unspent) {
+            total += UtxoStore.toUnits(i.value);
         }
         return total;
     }
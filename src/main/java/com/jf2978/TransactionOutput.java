@@ -1,12 +1,9 @@
 package com.jf2978;
 
-import com.google.gson.GsonBuilder;
-
-import java.security.PublicKey;
-
 /** =====
  * The TransactionOutput class represents any previously-processed transactions to be used as either inputs or outputs
- * of a new transaction.
+ * of a new transaction. Outputs are identified (equals/hashCode) by their id, which hashes every field including the
+ * output's position within its parent transaction.
  *
  * @author jf2978
  */
@@ -14,9 +11,10 @@ public class TransactionOutput{
 
     // Instance Variables
     public String id; // TX hash
-    public String parentId; // TX hash that produced this output
+    public String parentId; // TX hash that produced this output (null if read back from an off-heap store/snapshot)
     public float value; // specified output amount for this
-    public PublicKey recipient; // recipient of the amount specified
+    public Address recipient; // recipient of the amount specified
+    public int index; // position among the parent transaction's outputs (0 = payment, 1 = change)
 
     // #####
     // CONSTRUCTOR(S)
@@ -26,20 +24,60 @@ public class TransactionOutput{
      * Transaction constructor to build this Transaction object using the given Transaction inputs, addresses
      * and amount.
      *
-     * @param to Public key of recipient
+     * @param to Address of recipient
+     * @param val Amount to be sent
+     * @param parent Transaction Id that produced this output
+     */
+    public TransactionOutput(Address to, float val, String parent){
+        this(to, val, parent, 0);
+    }
+
+    /** =====
+     * Transaction output constructor for the n-th output of a transaction (e.g. its change output)
+     *
+     * @param to Address of recipient
      * @param val Amount to be sent
      * @param parent Transaction Id that produced this output
+     * @param n Position among the parent transaction's outputs
      */
-    public TransactionOutput(PublicKey to, float val, String parent){
+    public TransactionOutput(Address to, float val, String parent, int n){
         recipient = to;
         value = val;
         parentId = parent;
+        index = n;
         id = hash();
     }
 
+    /** =====
+     * Rebuilds a stored transaction output whose id is already known (no rehashing)
+     *
+     * @param hash Output id
+     * @param to Address of recipient
+     * @param val Output amount
+     * @param parent Transaction Id that produced this output
+     * @param n Position among the parent transaction's outputs
+     */
+    TransactionOutput(String hash, Address to, float val, String parent, int n){
+        id = hash;
+        recipient = to;
+        value = val;
+        parentId = parent;
+        index = n;
+    }
+
     /** {@inheritDoc} */
     public String toString(){
-        return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+        return Utility.JSON.newBuilder().setPrettyPrinting().create().toJson(this);
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object o){
+        return o instanceof TransactionOutput && id.equals(((TransactionOutput) o).id);
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode(){
+        return id.hashCode();
     }
 
     // #####
@@ -57,12 +95,12 @@ public class TransactionOutput{
     }
 
     /** =====
-     * Represents this transaction output as a String, used to compress the object information needed for
-     * hashing and signing
+     * Represents this transaction output in binary (see BlockCodec), used to compress the object information
+     * needed for hashing and signing
      *
-     * @return String representation of this transaction output
+     * @return Binary representation of this transaction output
      */
-    private String simplify(){
-        return Utility.getStringFromKey(recipient) + Float.toString(value) + parentId;
+    private byte[] simplify(){
+        return BlockCodec.outputPreimage(recipient, value, parentId, index);
     }
 }
\ No newline at end of file
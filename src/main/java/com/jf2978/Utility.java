@@ -1,9 +1,16 @@
 package com.jf2978;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
@@ -17,49 +24,126 @@ import java.util.List;
  */
 public class Utility {
 
+    // Static Variables
+    public static final int DIGEST_LENGTH = 64; // SHA-512 output size in bytes
+    public static final Gson JSON = new GsonBuilder() // compact JSON that round-trips keys (Base64) and addresses (hex)
+            .registerTypeHierarchyAdapter(PublicKey.class, new TypeAdapter<PublicKey>() {
+                @Override
+                public void write(JsonWriter out, PublicKey key) throws IOException {
+                    out.value(getStringFromKey(key));
+                }
+
+                @Override
+                public PublicKey read(JsonReader in) throws IOException {
+                    return getKeyFromString(in.nextString());
+                }
+            }.nullSafe())
+            .registerTypeAdapter(Address.class, new TypeAdapter<Address>() {
+                @Override
+                public void write(JsonWriter out, Address address) throws IOException {
+                    out.value(address.toString());
+                }
+
+                @Override
+                public Address read(JsonReader in) throws IOException {
+                    return Address.fromHex(in.nextString());
+                }
+            }.nullSafe())
+            .create();
+
     /** =====
-     * Applies SHA-512 hash function to String input (BouncyCastle API)
+     * Applies SHA-512 hash function to String input (through the CryptoEngine's pooled digests)
      *
      * @param input String to hash
      * @return Hex string output from
      */
     public static String SHA512(String input) {
-        // Providers manage particular algorithms to implementation
-        Security.addProvider(new BouncyCastleProvider()); // BouncyCastle provides the suite of ciphers/algorithms
-        StringBuffer sb = new StringBuffer(); // StringBuffer used for future thread-safe use
-        try {
-            // Create digest (i.e. "signed" input via SHA-512 hash function)
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-512");
-            byte[] hash = messageDigest.digest(input.getBytes(StandardCharsets.UTF_8));
+        return CryptoEngine.toHex(CryptoEngine.digest("SHA-512").digest(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** =====
+     * Applies SHA-512 hash function to binary input (through the CryptoEngine's pooled digests)
+     *
+     * @param input Bytes to hash
+     * @return Hex string output
+     */
+    public static String SHA512(byte[] input) {
+        return CryptoEngine.toHex(CryptoEngine.digest("SHA-512").digest(input));
+    }
+
+    /** =====
+     * Returns a new SHA-512 MessageDigest, for callers that hash repeatedly into their own buffers
+     *
+     * @return SHA-512 digest instance
+     */
+    public static MessageDigest SHA512Digest() {
+        return CryptoEngine.newDigest("SHA-512");
+    }
+
+    /** =====
+     * Encodes bytes as an (upper case) hex string
+     *
+     * @param bytes Bytes to encode
+     * @return Hex string
+     */
+    public static String toHex(byte[] bytes) {
+        return CryptoEngine.toHex(bytes);
+    }
+
+    /** =====
+     * Decodes a hex hash string into its raw 64-byte digest. Shorter strings are treated as numbers and left-padded
+     * with zeroes (so the genesis "0" reference becomes an all-zero digest); null becomes an all-zero digest too.
+     *
+     * @param hex Hex string of at most 128 characters
+     * @return Raw digest bytes
+     */
+    public static byte[] digestBytes(String hex) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        if (hex == null) {
+            return out;
+        }
+        if (hex.length() > DIGEST_LENGTH * 2) {
+            throw new IllegalArgumentException("Hex digest too long: " + hex.length() + " characters");
+        }
+        int pos = DIGEST_LENGTH * 2 - hex.length(); // position of the first character once left-padded
+        for (int i = 0; i < hex.length(); i++, pos++) {
+            int nibble = Character.digit(hex.charAt(i), 16);
+            if (nibble < 0) {
+                throw new IllegalArgumentException("Invalid hex digest: " + hex);
+            }
+            out[pos / 2] |= (pos % 2 == 0) ? nibble << 4 : nibble;
+        }
+        return out;
+    }
 
-            // Byte -> Hex conversion
-            for (byte b : hash) {
-                sb.append(String.format("%02X", b));
+    /** =====
+     * Checks whether a raw digest starts with (at least) the given number of zero bits - the proof-of-work target
+     *
+     * @param digest Raw digest bytes
+     * @param bits Number of leading zero bits required
+     * @return True if the digest meets the target
+     */
+    public static boolean hasLeadingZeroBits(byte[] digest, int bits) {
+        int full = bits >>> 3;
+        for (int i = 0; i < full; i++) {
+            if (digest[i] != 0) {
+                return false;
             }
-        } catch (NoSuchAlgorithmException e) {
-            System.out.println(e.getMessage());
         }
-        return sb.toString();
+        int rest = bits & 7;
+        return rest == 0 || (digest[full] & (0xFF << (8 - rest)) & 0xFF) == 0;
     }
 
     /** =====
      * Applies Elliptic-Curve Digital Signature Algorithm (DSA) → returns byte[]
+     * (the original secp521r1 scheme; transactions sign with their sender's SignatureScheme)
      *
      * @param input String to sign
      * @param dK Private key to sign the input with
      * @return Signature as a byte array
      */
     public static byte[] ECDSASignature(String input, PrivateKey dK) {
-        byte[] output = new byte[0];
-        try {
-            Signature dsa = Signature.getInstance("ECDSA", "BC");
-            dsa.initSign(dK);
-            dsa.update(input.getBytes(StandardCharsets.UTF_8));
-            output = dsa.sign();
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | SignatureException e) {
-            System.out.println(e.getMessage());
-        }
-        return output;
+        return SignatureScheme.SECP521R1.sign(input, dK);
     }
 
     /** =====
@@ -71,15 +155,7 @@ public class Utility {
      * @return Verification result
      */
     public static boolean verifyECDSASignature(String data, PublicKey eK, byte[] signature) {
-        try {
-            Signature dsa = Signature.getInstance("ECDSA", "BC");
-            dsa.initVerify(eK);
-            dsa.update(data.getBytes(StandardCharsets.UTF_8));
-            return dsa.verify(signature);
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException | SignatureException e) {
-            System.out.println(e.getMessage());
-        }
-        return false;
+        return SignatureScheme.SECP521R1.verify(data, eK, signature);
     }
 
     /** =====
@@ -92,6 +168,31 @@ public class Utility {
         return Base64.getEncoder().encodeToString(key.getEncoded());
     }
 
+    /** =====
+     * Converts an encoded (X.509) public key of any SignatureScheme back to a key
+     *
+     * @param encoded Encoded key bytes
+     * @return Public key
+     */
+    public static PublicKey getKeyFromBytes(byte[] encoded) {
+        try {
+            return CryptoEngine.keyFactory(SignatureScheme.of(encoded).keyAlgorithm)
+                    .generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** =====
+     * Converts string (see getStringFromKey) back to a public key
+     *
+     * @param key Base64 encoded key
+     * @return Public key
+     */
+    public static PublicKey getKeyFromString(String key) {
+        return getKeyFromBytes(Base64.getDecoder().decode(key));
+    }
+
     /** =====
      * Generate merkle root (hash value) from given list of transactions
      *
@@ -99,16 +200,26 @@ public class Utility {
      * @return Merkle tree root
      */
     public static String getMerkleRoot(List<Transaction> transactions){
+        return getMerkleRoot(transactions, true);
+    }
+
+    /** =====
+     * Generate merkle root (hash value) from given list of transactions
+     *
+     * @param transactions List of transactions
+     * @param parallel True to hash large tree levels across cores (small trees are always built sequentially)
+     * @return Merkle tree root
+     */
+    public static String getMerkleRoot(List<Transaction> transactions, boolean parallel){
 
         // Populate list of transaction hashes to build the first level of merkle tree
-        List<String> TXHashes = new ArrayList<>();
+        List<byte[]> TXHashes = new ArrayList<>(transactions.size());
         for(Transaction t : transactions){
-            TXHashes.add(t.id);
+            TXHashes.add(digestBytes(t.id));
         }
 
         // Create new Merkle Tree + return root hash
-        MerkleTree merkleTree = new MerkleTree(TXHashes);
-        return merkleTree.getRoot().hash;
+        return new FlatMerkleTree(TXHashes, parallel).rootHex();
     }
 
     //
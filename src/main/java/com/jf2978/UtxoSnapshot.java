@@ -0,0 +1,292 @@
+package com.jf2978;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/** =====
+ * The UtxoSnapshot class checkpoints the UTXO set to disk, along with the hash and height of the chain tip it
+ * reflects, so a node can start from the latest snapshot and replay only the blocks after it (instead of every
+ * transaction since genesis). A snapshot is also enough to bootstrap a fresh node's UTXO set.
+ *
+ * Snapshots are streamed one output at a time (never held in memory as a whole) into utxo-[height].snap:
+ *
+ *   magic (4) | version (1) | tip hash (64) | height (4) |
+ *   { 1 | output id (64) | value (4) | address ref (4) [ | address (32) ] }* |
+ *   0 | output count (4) | CRC32 of everything before it (8)
+ *
+ * Each distinct recipient address is written once, the first time it appears (its ref is then the next address
+ * number). As in OffHeapUtxoStore, an output's parent id and index are left out (its id commits to them), so restored
+ * outputs have a null parentId and index 0.
+ * Files are written under a temporary name, synced and atomically renamed, so a crash never leaves a partial
+ * snapshot behind; a snapshot failing its checksum is skipped in favour of an older one.
+ *
+ * @author jf2978
+ */
+public class UtxoSnapshot {
+
+    // Static Variables
+    private static final int MAGIC = 0x5554584F; // "UTXO"
+    private static final byte VERSION = 1;
+    static final int KEEP = 2; // snapshots kept on disk
+
+    // Instance variables
+    public final String tip; // hash of the last block reflected in the snapshot
+    public final int height; // height of that block
+    public final int outputs; // number of unspent outputs
+    public final Path file;
+
+    // #####
+    // CONSTRUCTOR(S)
+    // #####
+
+    private UtxoSnapshot(String hash, int h, int count, Path path){
+        tip = hash;
+        height = h;
+        outputs = count;
+        file = path;
+    }
+
+    // #####
+    // PUBLIC METHODS
+    // #####
+
+    /** =====
+     * Writes a snapshot of the given UTXO set (which must not change while it is written) and prunes old snapshots
+     *
+     * @param dir Snapshot directory
+     * @param utxos UTXO set to snapshot
+     * @param tip Hash of the chain tip the set reflects
+     * @param height Height of the chain tip
+     * @return Written snapshot
+     * @throws IOException If the snapshot cannot be written
+     */
+    public static UtxoSnapshot write(Path dir, UtxoStore utxos, String tip, int height) throws IOException {
+        return write(dir, utxos, Collections.emptySet(), tip, height);
+    }
+
+    /** =====
+     * Writes a snapshot of the given UTXO set as it was before some of the transactions applied to it (which the tip
+     * does not include), and prunes old snapshots: their outputs are left out, and the stored outputs they spent (as
+     * recorded by Transaction.apply, not the copies they carry as inputs) are written back. Neither the set nor those
+     * transactions may change while it is written.
+     *
+     * @param dir Snapshot directory
+     * @param utxos UTXO set to snapshot
+     * @param unconnected Transactions applied to the set (see Transaction.apply) that are not part of the chain up to
+     *                    the tip
+     * @param tip Hash of the chain tip the snapshot reflects
+     * @param height Height of the chain tip
+     * @return Written snapshot
+     * @throws IOException If the snapshot cannot be written
+     */
+    public static UtxoSnapshot write(Path dir, UtxoStore utxos, Collection<Transaction> unconnected, String tip,
+                                     int height) throws IOException {
+        Set<String> created = new HashSet<>(); // outputs of the unconnected transactions (left out)
+        Map<String, TransactionOutput> spent = new LinkedHashMap<>(); // the stored outputs they spent (written back)
+        for(Transaction transaction : unconnected){
+            for(TransactionOutput output : transaction.outputs){
+                created.add(output.id);
+            }
+            for(TransactionOutput stored : transaction.spent){
+                spent.put(stored.id, stored);
+            }
+        }
+        spent.keySet().removeAll(created); // (spent from one another: neither created nor spent as of the tip)
+
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("utxo-%010d.snap", height));
+        Path temp = dir.resolve(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        int[] count = new int[1];
+
+        try (FileOutputStream raw = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(raw, crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.write(Utility.digestBytes(tip));
+            out.writeInt(height);
+
+            Map<Address, Integer> addresses = new HashMap<>();
+            IOException[] failure = new IOException[1];
+            Consumer<TransactionOutput> writer = output -> {
+                if(failure[0] != null || created.contains(output.id)){
+                    return;
+                }
+                try {
+                    out.writeByte(1);
+                    out.write(Utility.digestBytes(output.id));
+                    out.writeFloat(output.value);
+                    Integer ref = addresses.get(output.recipient);
+                    if(ref == null){
+                        out.writeInt(addresses.size());
+                        out.write(output.recipient.toBytes());
+                        addresses.put(output.recipient, addresses.size());
+                    } else {
+                        out.writeInt(ref);
+                    }
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            };
+            utxos.forEach(writer);
+            spent.values().forEach(writer);
+            if(failure[0] != null){
+                throw failure[0];
+            }
+            out.writeByte(0);
+            out.writeInt(count[0]);
+            out.flush();
+            new DataOutputStream(raw).writeLong(crc.getValue()); // trailer, outside the checksum
+            raw.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        prune(dir);
+        return new UtxoSnapshot(tip, height, count[0], file);
+    }
+
+    /** =====
+     * Loads the latest valid snapshot in a directory into the given (cleared) UTXO set
+     *
+     * @param dir Snapshot directory
+     * @param into UTXO set to fill
+     * @return Loaded snapshot, or null if there is no valid snapshot (the set is then left empty)
+     * @throws IOException If the directory cannot be listed
+     */
+    public static UtxoSnapshot load(Path dir, UtxoStore into) throws IOException {
+        return load(dir, into, (tip, height) -> true);
+    }
+
+    /** =====
+     * Loads the latest valid snapshot in a directory whose tip is accepted into the given (cleared) UTXO set, falling
+     * back to older snapshots when a newer one is corrupt or not accepted
+     *
+     * @param dir Snapshot directory
+     * @param into UTXO set to fill
+     * @param accept Test of a snapshot's tip hash and height (e.g. that the tip is the block stored at that height)
+     * @return Loaded snapshot, or null if no valid snapshot is accepted (the set is then left empty)
+     * @throws IOException If the directory cannot be listed
+     */
+    public static UtxoSnapshot load(Path dir, UtxoStore into, BiPredicate<String, Integer> accept) throws IOException {
+        List<Path> files = snapshots(dir);
+        for(int i = files.size() - 1; i >= 0; i--){
+            UtxoSnapshot snapshot = read(files.get(i), into, accept);
+            if(snapshot != null){
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /** =====
+     * Loads one snapshot file into the given UTXO set (cleared first)
+     *
+     * @param file Snapshot file
+     * @param into UTXO set to fill
+     * @return Loaded snapshot, or null (and an empty set) if the file is corrupt
+     */
+    public static UtxoSnapshot read(Path file, UtxoStore into){
+        return read(file, into, (tip, height) -> true);
+    }
+
+    /** =====
+     * Loads one snapshot file into the given UTXO set (cleared first), if its tip is accepted
+     *
+     * @param file Snapshot file
+     * @param into UTXO set to fill
+     * @param accept Test of the snapshot's tip hash and height, run before the outputs are read
+     * @return Loaded snapshot, or null (and an empty set) if the file is corrupt or its tip not accepted
+     */
+    private static UtxoSnapshot read(Path file, UtxoStore into, BiPredicate<String, Integer> accept){
+        into.clear();
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc))) {
+            if(in.readInt() != MAGIC){
+                throw new IOException("not a UTXO snapshot");
+            }
+            byte version = in.readByte();
+            if(version != VERSION){
+                throw new IOException("unsupported snapshot version " + version);
+            }
+            byte[] digest = new byte[Utility.DIGEST_LENGTH];
+            in.readFully(digest);
+            int height = in.readInt();
+            if(!accept.test(Utility.toHex(digest), height)){
+                throw new IOException("tip does not match the chain at height " + height);
+            }
+
+            List<Address> addresses = new ArrayList<>();
+            int count = 0;
+            while(in.readByte() == 1){
+                byte[] id = new byte[Utility.DIGEST_LENGTH];
+                in.readFully(id);
+                float value = in.readFloat();
+                int ref = in.readInt();
+                if(ref == addresses.size()){
+                    byte[] address = new byte[Address.LENGTH];
+                    in.readFully(address);
+                    addresses.add(new Address(address));
+                }
+                into.add(new TransactionOutput(Utility.toHex(id), addresses.get(ref), value, null, 0));
+                count++;
+            }
+            if(in.readInt() != count){
+                throw new IOException("output count mismatch");
+            }
+            long expected = crc.getValue();
+            if(new DataInputStream(raw).readLong() != expected){
+                throw new IOException("checksum mismatch");
+            }
+            return new UtxoSnapshot(Utility.toHex(digest), height, count, file);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Skipping UTXO snapshot " + file.getFileName() + ": " + e.getMessage());
+            into.clear();
+            return null;
+        }
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Lists the snapshot files of a directory, oldest (lowest height) first
+     *
+     * @param dir Snapshot directory
+     * @return Snapshot files
+     * @throws IOException If the directory cannot be listed
+     */
+    private static List<Path> snapshots(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if(!Files.isDirectory(dir)){
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "utxo-*.snap")) {
+            for(Path file : stream){
+                files.add(file);
+            }
+        }
+        Collections.sort(files); // zero-padded heights sort by name
+        return files;
+    }
+
+    /** =====
+     * Deletes all but the newest KEEP snapshots
+     *
+     * @param dir Snapshot directory
+     * @throws IOException If a snapshot cannot be deleted
+     */
+    private static void prune(Path dir) throws IOException {
+        List<Path> files = snapshots(dir);
+        for(int i = 0; i < files.size() - KEEP; i++){
+            Files.delete(files.get(i));
+        }
+    }
+}
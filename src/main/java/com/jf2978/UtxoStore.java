@@ -0,0 +1,164 @@
+package com.jf2978;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.function.Consumer;
+
+/** =====
+ * The UtxoStore interface is the chain's unspent transaction output state. Outputs are keyed by output id so an input
+ * is found (and spent) in O(1) no matter which TransactionOutput object the transaction carries, and a secondary
+ * index from recipient address to its outputs, ordered by value, serves wallet queries (coin selection). Each
+ * address's balance is maintained incrementally, in fixed-point units of 1e-8, as outputs are added and spent, so
+ * reading it is O(1) and summing it never drifts the way float sums do. Implementations must be safe for concurrent
+ * use.
+ *
+ * @author jf2978
+ */
+public interface UtxoStore {
+
+    // Static Variables
+    long UNITS = 100_000_000L; // fixed-point units per coin
+    Comparator<TransactionOutput> BY_VALUE = (a, b) -> { // largest value first (ties broken by id)
+        int byValue = Float.compare(b.value, a.value);
+        return byValue != 0 ? byValue : a.id.compareTo(b.id);
+    };
+
+    /** =====
+     * Adds an unspent output to the store
+     *
+     * @param output Newly created transaction output
+     */
+    void add(TransactionOutput output);
+
+    /** =====
+     * Adds every given unspent output to the store
+     *
+     * @param created Newly created transaction outputs
+     */
+    default void addAll(Collection<TransactionOutput> created){
+        for(TransactionOutput output : created){
+            add(output);
+        }
+    }
+
+    /** =====
+     * Looks an unspent output up by id. The id already commits to the output's parent transaction and index, so a
+     * store may leave those out of what it hands back (parentId null, index 0).
+     *
+     * @param id Output id
+     * @return Unspent output, or null if unknown or already spent
+     */
+    TransactionOutput get(String id);
+
+    /** =====
+     * Checks whether an output is still unspent
+     *
+     * @param output Output to look for (matched by id)
+     * @return True if unspent
+     */
+    boolean contains(TransactionOutput output);
+
+    /** =====
+     * Spends (removes) an output
+     *
+     * @param output Output to spend (matched by id)
+     * @return True if the output was unspent
+     */
+    boolean spend(TransactionOutput output);
+
+    /** =====
+     * Returns the unspent outputs owned by an address, largest value first (see BY_VALUE)
+     *
+     * @param owner Address of the owner
+     * @return Read-only sorted set of the owner's unspent outputs (empty if none)
+     */
+    NavigableSet<TransactionOutput> outputsOf(Address owner);
+
+    /** =====
+     * Returns the balance of an address: the sum of its unspent outputs
+     *
+     * @param owner Address of the owner
+     * @return Balance in fixed-point units (see toUnits)
+     */
+    long balanceOf(Address owner);
+
+    /** =====
+     * Returns every non-zero address balance
+     *
+     * @return Snapshot of owner -> balance in fixed-point units
+     */
+    Map<Address, Long> balances();
+
+    /** =====
+     * Checks the incrementally maintained balances against a full scan of the unspent outputs, printing each
+     * address whose balance differs. The store must not be modified while checking.
+     *
+     * @return True if every balance matches the scan
+     */
+    default boolean checkBalances(){
+        Map<Address, Long> scanned = new HashMap<>();
+        forEach(output -> scanned.merge(output.recipient, toUnits(output.value), Long::sum));
+        scanned.values().removeIf(units -> units == 0);
+
+        Map<Address, Long> maintained = balances();
+        boolean consistent = true;
+        for(Address owner : scanned.keySet()){
+            if(!scanned.get(owner).equals(maintained.get(owner))){
+                System.out.printf("Balance mismatch for %s: maintained %s, scanned %d\n",
+                        owner, maintained.get(owner), scanned.get(owner));
+                consistent = false;
+            }
+        }
+        for(Address owner : maintained.keySet()){
+            if(!scanned.containsKey(owner)){
+                System.out.printf("Balance mismatch for %s: maintained %d, scanned 0\n",
+                        owner, maintained.get(owner));
+                consistent = false;
+            }
+        }
+        return consistent;
+    }
+
+    /** =====
+     * Converts an amount to fixed-point units
+     *
+     * @param value Amount
+     * @return Fixed-point units
+     */
+    static long toUnits(float value){
+        return Math.round((double) value * UNITS);
+    }
+
+    /** =====
+     * Converts fixed-point units back to an amount
+     *
+     * @param units Fixed-point units
+     * @return Amount
+     */
+    static float fromUnits(long units){
+        return (float) ((double) units / UNITS);
+    }
+
+    /** =====
+     * Passes every unspent output to the given action (in no particular order); the store must not be modified
+     * while iterating
+     *
+     * @param action Action run on each output
+     */
+    void forEach(Consumer<TransactionOutput> action);
+
+    /** =====
+     * Returns the number of unspent outputs
+     *
+     * @return Store size
+     */
+    int size();
+
+    /** =====
+     * Removes every output from the store
+     */
+    void clear();
+}
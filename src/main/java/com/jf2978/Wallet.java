@@ -1,11 +1,6 @@
 package com.jf2978;
 
-import com.google.gson.GsonBuilder;
-
 import java.security.*;
-import java.security.spec.ECGenParameterSpec;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 /** =====
@@ -20,15 +15,28 @@ public class Wallet {
     // Instance variables
     public PublicKey eK; // *Anybody can pay* to your wallet via your public (encrypt) key - share your public key
     public PrivateKey dK; // *Nobody can use* your wallet via your private (decrypt) key - sign with your private key
+    public SignatureScheme scheme; // algorithm (and curve) of the key pair
+    public Address address; // hash of eK: what others pay to, and what the UTXO store indexes this wallet's outputs by
+    public CoinSelector selector = CoinSelector.LARGEST_FIRST; // how inputs are picked for a payment
 
     // #####
     // CONSTRUCTOR(S)
     // #####
 
     /** =====
-     * Constructs a new Wallet by generating key pair
+     * Constructs a new Wallet by generating key pair with the default signature scheme
      */
     public Wallet(){
+        this(SignatureScheme.DEFAULT);
+    }
+
+    /** =====
+     * Constructs a new Wallet by generating key pair with the given signature scheme
+     *
+     * @param signer Signature scheme of the wallet
+     */
+    public Wallet(SignatureScheme signer){
+        scheme = signer;
         keyGen();
     }
 
@@ -38,49 +46,53 @@ public class Wallet {
 
     /** {@inheritDoc} */
     public String toString(){
-        return new GsonBuilder().setPrettyPrinting().create().toJson(this);
+        return Utility.JSON.newBuilder().setPrettyPrinting().create().toJson(this);
     }
 
     /** =====
-     * Checks the balance of the current wallet by iterating through associated unspent transaction outputs
+     * Checks the balance of the current wallet (maintained by the UTXO store as outputs are added and spent)
      *
      * @return Current balance
      */
     public float balance(){
-        // Check Unspent transactions for this public key
-        Set<TransactionOutput> UTXOs = Main.SimpleBlockChain.UTXOs.get(eK);
-        if(UTXOs == null){
-            return 0f;
-        }
+        return UtxoStore.fromUnits(Main.SimpleBlockChain.UTXOs.balanceOf(address));
+    }
 
-        // For each Transaction Output, add its value to balance
-        float balance = 0f;
-        for(TransactionOutput output : UTXOs){
-            balance += output.value;
-        }
-        return balance;
+    /** =====
+     * Creates a transaction for the specified amount from this wallet address to another's, paying no fee
+     *
+     * @param to Address of recipient
+     * @param value Amount to send
+     * @return Signed transaction from this wallet address
+     */
+    public Transaction send(Address to, float value){
+        return send(to, value, 0);
     }
 
     /** =====
-     * Creates a transaction for the specified amount from this wallet address to another's
+     * Creates a transaction for the specified amount from this wallet address to another's, paying the given fee on
+     * top of it (one at a time per wallet; sends from different wallets run concurrently). Blocks carry no reward
+     * transaction to collect fees, so a fee leaves circulation: it only buys a better place in the mempool.
      *
-     * @param to Public key of recipient
+     * @param to Address of recipient
      * @param value Amount to send
+     * @param fee Fee to pay, in fixed-point units (e.g. UtxoStore.toUnits(Utility.calculateFee(value)))
      * @return Signed transaction from this wallet address
      */
-    public Transaction send(PublicKey to, float value){
+    public synchronized Transaction send(Address to, float value, long fee){
+        long total = UtxoStore.toUnits(value) + fee;
 
         // Check if balance is large enough
-        if(balance() < value){
+        if(Main.SimpleBlockChain.UTXOs.balanceOf(address) < total){
             System.out.println("Insufficient funds");
             return null;
         }
 
         // Gather enough UTXOs to be used as "inputs" for this TX
-        Set<TransactionOutput> inputs = getInputs(value);
+        Set<TransactionOutput> inputs = getInputs(total);
 
         // Generate, sign and return new Transaction object
-        Transaction transaction = new Transaction(eK, to, value, inputs);
+        Transaction transaction = new Transaction(eK, to, value, fee, inputs);
         transaction.sign(dK);
 
         return transaction;
@@ -91,47 +103,31 @@ public class Wallet {
     // #####
 
     /** =====
-     * Generates a pair of public and private keys using the Elliptic-Curve Digital Signature Algorithm provided
-     * by the BouncyCastle API
+     * Generates a pair of public and private keys using this wallet's signature scheme (see SignatureScheme)
      */
     private void keyGen(){
         try{
-            // Set up Key Generator
-            KeyPairGenerator kg = KeyPairGenerator.getInstance("ECDSA", "BC"); // Generates key pair based on algorithm given
-            SecureRandom sr = SecureRandom.getInstance("SHA1PRNG"); // Cryptographically strong RNG based on SHA1 algorithm
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("secp521r1");
-
             // Generate keys
-            kg.initialize(ecSpec, sr);
-            KeyPair keyPair = kg.generateKeyPair();
+            KeyPair keyPair = scheme.generateKeyPair();
 
             // Assign to wallet Instance variables
             eK = keyPair.getPublic();
             dK = keyPair.getPrivate();
+            address = Address.of(eK);
         }
-        catch(NoSuchProviderException | NoSuchAlgorithmException | InvalidAlgorithmParameterException e){
+        catch(GeneralSecurityException e){
             System.out.println(e.getMessage());
         }
     }
 
     /** =====
-     * Obtains a set of transaction outputs to be used for a specific amount
+     * Obtains a set of transaction outputs to be used for a specific amount (picked by this wallet's selector)
      *
-     * @param goal Amount looking to spend
+     * @param goal Amount looking to spend, in fixed-point units (see UtxoStore.toUnits)
      * @return Set of spendable transaction outputs
      */
-    protected Set<TransactionOutput> getInputs(float goal){
-        float current = 0;
-        Set<TransactionOutput> result = new HashSet<>();
-        Iterator<TransactionOutput> spendable = Main.SimpleBlockChain.UTXOs.get(this.eK).iterator();
-
-        // Iterate through UTXOs for this public key until we have enough
-        while(current <= goal && spendable.hasNext()) {
-            TransactionOutput next = spendable.next();
-            result.add(next);
-            current += next.value;
-        }
-        return result;
+    protected Set<TransactionOutput> getInputs(long goal){
+        return selector.select(Main.SimpleBlockChain.UTXOs.outputsOf(this.address), goal);
     }
 
     /** =====
@@ -140,6 +136,6 @@ public class Wallet {
      * @return Set of all spendable transaction outputs
      */
     protected Set<TransactionOutput> getAllInputs(){
-        return Main.SimpleBlockChain.UTXOs.get(this.eK);
+        return Main.SimpleBlockChain.UTXOs.outputsOf(this.address);
     }
 }
\ No newline at end of file
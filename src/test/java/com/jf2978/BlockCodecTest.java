@@ -0,0 +1,269 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The BlockCodecTest class checks the binary codec: blocks, transactions and outputs decode to what was encoded
+ * (sender keys of every signature scheme still verify their signatures, literal and enclosing-transaction ids and
+ * address references resolve) and re-encode to the same bytes, decoded transactions only verify while their fields
+ * still hash to their id, pruned blocks round-trip as headers only (and BlockCodec.prune matches encoding a pruned
+ * block), and other versions, truncated encodings, out of bounds lengths and counts and corrupt bytes are rejected
+ * with an IllegalArgumentException.
+ *
+ * @author jf2978
+ */
+public class BlockCodecTest {
+
+    private Wallet[] wallets;
+    private Block block;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        wallets = new Wallet[SignatureScheme.values().length];
+        for(SignatureScheme scheme : SignatureScheme.values()){
+            wallets[scheme.ordinal()] = new Wallet(scheme);
+        }
+
+        List<Transaction> transactions = new ArrayList<>();
+        Transaction coinbase = new Transaction("0", wallets[0].eK, wallets[1].address, 100f); // (literal id)
+        coinbase.sign(wallets[0].dK);
+        transactions.add(coinbase);
+        for(int i = 0; i < wallets.length; i++){
+            transactions.add(payment(wallets[i], wallets[(i + 1) % wallets.length], i));
+        }
+        Transaction unsigned = new Transaction(wallets[2].eK, wallets[0].address, 1f, new HashSet<>());
+        transactions.add(unsigned);
+
+        List<byte[]> leaves = new ArrayList<>();
+        for(Transaction transaction : transactions){
+            leaves.add(Utility.digestBytes(transaction.id));
+        }
+        block = new Block(Utility.SHA512("previous"), new FlatMerkleTree(leaves).rootHex(), 1_600_000_000_000L,
+                -42, Utility.SHA512("block"), transactions);
+    }
+
+    @Test
+    public void blockRoundTrips(){
+        byte[] encoded = BlockCodec.encode(block);
+        assertEquals(BlockCodec.VERSION, encoded[0]);
+        Block decoded = BlockCodec.decodeBlock(ByteBuffer.wrap(encoded));
+
+        assertHeaderEquals(block, decoded);
+        assertFalse(decoded.pruned);
+        assertEquals(block.transactions.size(), decoded.transactions.size());
+        for(int i = 0; i < block.transactions.size(); i++){
+            assertTransactionEquals(block.transactions.get(i), decoded.transactions.get(i));
+        }
+        assertArrayEquals(encoded, BlockCodec.encode(decoded));
+    }
+
+    @Test
+    public void genesisBlockRoundTrips(){
+        Block genesis = new Block("0", block.merkleRoot, block.timestamp, Long.MAX_VALUE, block.signature,
+                block.transactions.subList(0, 1));
+        Block decoded = BlockCodec.decodeBlock(ByteBuffer.wrap(BlockCodec.encode(genesis)));
+        assertHeaderEquals(genesis, decoded);
+        assertEquals("0", decoded.transactions.get(0).id);
+    }
+
+    @Test
+    public void prunedBlockRoundTrips(){
+        byte[] full = BlockCodec.encode(block);
+        ByteBuffer in = ByteBuffer.wrap(full);
+        byte[] header = BlockCodec.prune(in);
+        assertEquals(0, in.position()); // (not advanced)
+
+        Block pruned = BlockCodec.decodeBlock(ByteBuffer.wrap(full));
+        pruned.prune();
+        assertArrayEquals(BlockCodec.encode(pruned), header);
+        assertTrue(header.length < full.length);
+
+        Block decoded = BlockCodec.decodeBlock(ByteBuffer.wrap(header));
+        assertTrue(decoded.pruned);
+        assertTrue(decoded.transactions.isEmpty());
+        assertHeaderEquals(block, decoded);
+        assertArrayEquals(header, BlockCodec.prune(ByteBuffer.wrap(header)));
+    }
+
+    @Test
+    public void consecutiveEncodingsShareBuffer(){
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        TransactionOutput output = block.transactions.get(1).outputs.iterator().next();
+        BlockCodec.encode(block, buffer);
+        BlockCodec.encode(block.transactions.get(1), buffer);
+        BlockCodec.encode(output, buffer);
+        buffer.flip();
+
+        assertHeaderEquals(block, BlockCodec.decodeBlock(buffer));
+        assertTransactionEquals(block.transactions.get(1), BlockCodec.decodeTransaction(buffer));
+        assertOutputEquals(output, BlockCodec.decodeOutput(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherVersions(){
+        byte[] encoded = BlockCodec.encode(block);
+        encoded[0] = BlockCodec.VERSION - 1;
+        BlockCodec.decodeBlock(ByteBuffer.wrap(encoded));
+    }
+
+    @Test
+    public void rejectsTruncatedEncodings(){
+        byte[] encoded = BlockCodec.encode(block);
+        for(int length = 0; length < encoded.length; length++){
+            assertRejected(Arrays.copyOf(encoded, length));
+        }
+    }
+
+    @Test
+    public void rejectsOutOfBoundsLengthsAndCounts(){
+        // literal previous id of length 2^31 - 1
+        byte[] literal = {BlockCodec.VERSION, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a'};
+        assertRejected(literal);
+        assertRejected(new byte[]{BlockCodec.VERSION, 1, (byte) 0x81, (byte) 0x80, 0x04}); // MAX_LENGTH + 1
+        byte[] header = BlockCodec.prune(ByteBuffer.wrap(BlockCodec.encode(block)));
+        byte[] counted = Arrays.copyOf(header, header.length + 4); // transaction count: 2^28, with 0 bytes left
+        counted[header.length - 1] = (byte) 0x81;
+        counted[header.length] = (byte) 0x80;
+        counted[header.length + 1] = (byte) 0x80;
+        counted[header.length + 2] = (byte) 0x80;
+        counted[header.length + 3] = 0x01;
+        assertRejected(counted);
+        byte[] varint = Arrays.copyOf(header, header.length + 10); // over-long varint
+        Arrays.fill(varint, header.length - 1, varint.length, (byte) 0xFF);
+        assertRejected(varint);
+    }
+
+    @Test
+    public void decodedTransactionRecomputesItsId(){
+        byte[] encoded = BlockCodec.encode(block.transactions.get(1));
+        assertTrue(decode(encoded).verify(false));
+        assertTrue(decode(encoded).verify(true)); // (now cached)
+
+        Transaction value = decode(encoded);
+        value.value += 1f;
+        Transaction fee = decode(encoded);
+        fee.fee = 0;
+        Transaction nonce = decode(encoded);
+        nonce.nonce++;
+        Transaction inputs = decode(encoded);
+        inputs.inputs.remove(inputs.inputs.iterator().next());
+        Transaction recipient = decode(encoded);
+        recipient.recipient = wallets[0].address;
+        for(Transaction tampered : Arrays.asList(value, fee, nonce, inputs, recipient)){
+            assertFalse(tampered.verify(false));
+            assertFalse(tampered.verify(true)); // (the cached signature check does not vouch for changed fields)
+        }
+    }
+
+    @Test
+    public void corruptEncodingsDecodeOrAreRejected(){
+        byte[] encoded = BlockCodec.encode(block);
+        Random random = new Random(15);
+        for(int i = 0; i < 2_000; i++){
+            byte[] corrupt = encoded.clone();
+            for(int flips = 1 + random.nextInt(3); flips > 0; flips--){
+                corrupt[1 + random.nextInt(corrupt.length - 1)] = (byte) random.nextInt();
+            }
+            try {
+                BlockCodec.decodeBlock(ByteBuffer.wrap(corrupt));
+            } catch (IllegalArgumentException e) {
+                // rejected: the only acceptable failure
+            }
+        }
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Builds a signed payment spending two outputs of the sender, with a fee, a payment and a change output
+     *
+     * @param from Paying wallet
+     * @param to Paid wallet
+     * @param n Payment number (distinguishes the funding outputs)
+     * @return Signed transaction
+     */
+    private static Transaction payment(Wallet from, Wallet to, int n){
+        Set<TransactionOutput> inputs = new HashSet<>();
+        inputs.add(new TransactionOutput(from.address, 10f, Utility.SHA512("funding" + n), 0));
+        inputs.add(new TransactionOutput(from.address, 2.5f, Utility.SHA512("funding" + n), 1));
+        Transaction transaction = new Transaction(from.eK, to.address, 7.25f, UtxoStore.toUnits(0.5f), inputs);
+        transaction.outputs.add(new TransactionOutput(to.address, 7.25f, transaction.id, 0));
+        transaction.outputs.add(new TransactionOutput(from.address, 4.75f, transaction.id, 1));
+        transaction.sign(from.dK);
+        return transaction;
+    }
+
+    private static Transaction decode(byte[] encoded){
+        return BlockCodec.decodeTransaction(ByteBuffer.wrap(encoded));
+    }
+
+    private static void assertRejected(byte[] encoded){
+        try {
+            BlockCodec.decodeBlock(ByteBuffer.wrap(encoded));
+            fail("decoded " + encoded.length + " corrupt bytes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertHeaderEquals(Block expected, Block actual){
+        assertEquals(expected.previousHash, actual.previousHash);
+        assertEquals(canonical(expected.merkleRoot), canonical(actual.merkleRoot));
+        assertEquals(canonical(expected.signature), canonical(actual.signature));
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.getNonce(), actual.getNonce());
+    }
+
+    private static void assertTransactionEquals(Transaction expected, Transaction actual){
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.scheme, actual.scheme);
+        assertArrayEquals(expected.sender.getEncoded(), actual.sender.getEncoded());
+        assertEquals(expected.recipient, actual.recipient);
+        assertEquals(expected.value, actual.value, 0f);
+        assertEquals(expected.fee, actual.fee);
+        assertEquals(expected.nonce, actual.nonce);
+        assertArrayEquals(expected.signature, actual.signature);
+        if(expected.signature != null){
+            assertTrue(actual.scheme.verify(actual.id, actual.sender, actual.signature)); // decoded key still verifies
+        }
+        assertOutputsEqual(expected.inputs, actual.inputs);
+        assertOutputsEqual(expected.outputs, actual.outputs);
+    }
+
+    private static void assertOutputsEqual(Set<TransactionOutput> expected, Set<TransactionOutput> actual){
+        if(expected == null || expected.isEmpty()){
+            assertTrue(actual == null || actual.isEmpty());
+            return;
+        }
+        assertEquals(expected, actual);
+        Map<String, TransactionOutput> byId = new HashMap<>();
+        for(TransactionOutput output : actual){
+            byId.put(output.id, output);
+        }
+        for(TransactionOutput output : expected){
+            assertOutputEquals(output, byId.get(output.id));
+        }
+    }
+
+    private static void assertOutputEquals(TransactionOutput expected, TransactionOutput actual){
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.parentId, actual.parentId);
+        assertEquals(expected.recipient, actual.recipient);
+        assertEquals(expected.value, actual.value, 0f);
+        assertEquals(expected.index, actual.index);
+    }
+
+    private static String canonical(String hash){
+        return Utility.toHex(Utility.digestBytes(hash));
+    }
+}
@@ -0,0 +1,102 @@
+package com.jf2978;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The BlockConnectorTest class checks that a block's transactions are connected in parallel with the result of
+ * applying them in block order, when one spends an output another creates in the same block and its inputs were
+ * read back from an off-heap store (so they carry no parent id): the spender waits for an earlier creator, a later
+ * creator waits for the spender (which then fails), and unrelated transactions do not wait for each other.
+ *
+ * @author jf2978
+ */
+public class BlockConnectorTest {
+
+    private static BlockConnector connector;
+
+    private UtxoStore saved;
+    private Wallet alice;
+    private Wallet bob;
+    private Wallet carol;
+    private Transaction pay; // alice -> bob
+    private Transaction spend; // bob -> carol, spending the output of pay
+
+    @BeforeClass
+    public static void startConnector(){
+        CryptoEngine.init();
+        connector = new BlockConnector(4);
+    }
+
+    @AfterClass
+    public static void stopConnector(){
+        connector.shutdown();
+    }
+
+    @Before
+    public void setUp(){
+        saved = Main.SimpleBlockChain.UTXOs;
+        Main.SimpleBlockChain.UTXOs = new OffHeapUtxoStore(16);
+        alice = new Wallet(SignatureScheme.ED25519);
+        bob = new Wallet(SignatureScheme.ED25519);
+        carol = new Wallet(SignatureScheme.ED25519);
+        Main.SimpleBlockChain.UTXOs.add(new TransactionOutput(alice.address, 100f, Utility.SHA512("funding")));
+
+        pay = alice.send(bob.address, 30f);
+        pay.sign(alice.dK);
+        assertNull(pay.inputs.iterator().next().parentId); // (read back from the off-heap store)
+        String created = new TransactionOutput(bob.address, 30f, pay.id, 0).id;
+        spend = new Transaction(bob.eK, carol.address, 10f,
+                Collections.singleton(new TransactionOutput(created, bob.address, 30f, null, 0)));
+        spend.sign(bob.dK);
+    }
+
+    @After
+    public void tearDown(){
+        Main.SimpleBlockChain.UTXOs = saved;
+    }
+
+    @Test
+    public void spenderWaitsForEarlierCreator(){
+        List<Transaction> batch = Arrays.asList(pay, spend);
+        assertEquals(Arrays.asList(Collections.emptyList(), Collections.singletonList(0)),
+                BlockConnector.dependencies(batch));
+
+        boolean[] applied = connector.connect(batch);
+        assertTrue(applied[0] && applied[1]);
+        assertEquals(70f, alice.balance(), 0f);
+        assertEquals(20f, bob.balance(), 0f);
+        assertEquals(10f, carol.balance(), 0f);
+    }
+
+    @Test
+    public void laterCreatorWaitsForSpender(){
+        List<Transaction> batch = Arrays.asList(spend, pay);
+        assertEquals(Arrays.asList(Collections.emptyList(), Collections.singletonList(0)),
+                BlockConnector.dependencies(batch));
+
+        boolean[] applied = connector.connect(batch);
+        assertFalse(applied[0]); // (fails, as it would sequentially)
+        assertTrue(applied[1]);
+        assertEquals(30f, bob.balance(), 0f);
+        assertEquals(0f, carol.balance(), 0f);
+    }
+
+    @Test
+    public void unrelatedTransactionsDoNotWait(){
+        Main.SimpleBlockChain.UTXOs.add(new TransactionOutput(carol.address, 5f, Utility.SHA512("other funding")));
+        Transaction other = carol.send(new Wallet(SignatureScheme.ED25519).address, 4f);
+        other.sign(carol.dK);
+        assertEquals(Arrays.asList(Collections.emptyList(), Collections.emptyList()),
+                BlockConnector.dependencies(Arrays.asList(pay, other)));
+    }
+}
@@ -0,0 +1,225 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The BlockStoreTest class checks the append-only block log: records read back by height and hash across segment files,
+ * the index and tip are rebuilt on reopen, a removed tip is replaced by the next block appended (and is gone on
+ * reopen), only blocks extending the tip are appended, a record failing its CRC or cut short by a crash ends the log on
+ * reopen (with every later segment dropped), and compacted segments survive a reopen.
+ *
+ * @author jf2978
+ */
+public class BlockStoreTest {
+
+    private static final int PAYLOAD = 100;
+    private static final int RECORD = BlockStore.HEADER + PAYLOAD;
+    private static final int PER_SEGMENT = 4;
+    private static final int SEGMENT = RECORD * PER_SEGMENT;
+    private static final int BLOCKS = 10; // three segments: 4 + 4 + 2 records
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        dir = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void readsBackAcrossSegments() throws IOException {
+        try (BlockStore store = fill(BLOCKS)) {
+            assertEquals(BLOCKS, store.size());
+            assertEquals(hash(BLOCKS - 1), store.tip());
+            for(int h = 0; h < BLOCKS; h++){
+                assertArrayEquals(payload(h), bytes(store.read(h)));
+                assertArrayEquals(payload(h), bytes(store.read(hash(h))));
+                assertEquals(h, store.height(hash(h)));
+            }
+            assertNull(store.read("ab"));
+            assertEquals(-1, store.height("ab"));
+        }
+        assertTrue(Files.exists(dir.resolve("blk00002.dat")));
+    }
+
+    @Test
+    public void reopenRebuildsIndexAndTip() throws IOException {
+        fill(BLOCKS).close();
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(BLOCKS, store.size());
+            assertEquals(hash(BLOCKS - 1), store.tip());
+            for(int h = 0; h < BLOCKS; h++){
+                assertArrayEquals(payload(h), bytes(store.read(hash(h))));
+            }
+            assertEquals(BLOCKS, store.append(hash(BLOCKS), hash(BLOCKS - 1), payload(BLOCKS)));
+        }
+    }
+
+    @Test
+    public void removedTipIsReplacedByNextBlock() throws IOException {
+        String replacement = Utility.SHA512("replacement");
+        try (BlockStore store = fill(PER_SEGMENT + 1)) { // (the tip opens the second segment)
+            assertEquals(hash(PER_SEGMENT), store.removeTip());
+            assertEquals(PER_SEGMENT, store.size());
+            assertEquals(hash(PER_SEGMENT - 1), store.tip());
+            assertEquals(-1, store.height(hash(PER_SEGMENT)));
+            assertEquals(PER_SEGMENT, store.append(replacement, hash(PER_SEGMENT - 1), payload(0)));
+        }
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(PER_SEGMENT + 1, store.size());
+            assertEquals(replacement, store.tip());
+            assertArrayEquals(payload(0), bytes(store.read(PER_SEGMENT)));
+            store.removeTip();
+        }
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(PER_SEGMENT, store.size()); // (a removed tip is not part of the log on reopen)
+            assertEquals(hash(PER_SEGMENT - 1), store.tip());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlockNotExtendingTip() throws IOException {
+        try (BlockStore store = fill(3)) {
+            store.append(hash(3), hash(1), payload(3));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlockLargerThanSegment() throws IOException {
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            store.append(hash(0), "0", new byte[SEGMENT]);
+        }
+    }
+
+    @Test
+    public void corruptRecordEndsLog() throws IOException {
+        fill(BLOCKS).close();
+        Path segment = dir.resolve("blk00001.dat");
+        int at = RECORD + BlockStore.HEADER + PAYLOAD / 2; // middle of block 5's payload
+        write(segment, at, new byte[]{(byte) ~read(segment, at)});
+
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(PER_SEGMENT + 1, store.size()); // blocks 0-4
+            assertEquals(hash(PER_SEGMENT), store.tip());
+            assertFalse(Files.exists(dir.resolve("blk00002.dat")));
+            assertEquals(-1, store.height(hash(BLOCKS - 1)));
+            assertEquals(PER_SEGMENT + 1, store.append(hash(9), hash(PER_SEGMENT), payload(9)));
+        }
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(PER_SEGMENT + 2, store.size());
+            assertArrayEquals(payload(9), bytes(store.read(PER_SEGMENT + 1)));
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        fill(BLOCKS).close();
+        // A crash mid-append: the last record's header made it to disk, the end of its payload did not
+        Path segment = dir.resolve("blk00002.dat");
+        write(segment, RECORD + BlockStore.HEADER + PAYLOAD / 2, new byte[PAYLOAD / 2]);
+
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(BLOCKS - 1, store.size());
+            assertEquals(hash(BLOCKS - 2), store.tip());
+        }
+        assertEquals(0, read(segment, RECORD)); // the torn record is zeroed, magic included
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(BLOCKS - 1, store.size());
+            assertEquals(BLOCKS - 1, store.append(hash(BLOCKS - 1), hash(BLOCKS - 2), payload(BLOCKS - 1)));
+            assertArrayEquals(payload(BLOCKS - 1), bytes(store.read(BLOCKS - 1)));
+        }
+    }
+
+    @Test
+    public void compactedSegmentsSurviveReopen() throws IOException {
+        long reclaimed;
+        try (BlockStore store = fill(BLOCKS)) {
+            reclaimed = store.prune(2 * PER_SEGMENT, BlockStoreTest::truncate);
+            assertEquals(2L * PER_SEGMENT * (PAYLOAD - PAYLOAD / 4), reclaimed);
+            assertEquals(0, store.prune(BLOCKS, BlockStoreTest::truncate)); // the last segment is still open
+            for(int h = 0; h < BLOCKS; h++){
+                byte[] expected = h < 2 * PER_SEGMENT ? Arrays.copyOf(payload(h), PAYLOAD / 4) : payload(h);
+                assertArrayEquals(expected, bytes(store.read(hash(h))));
+            }
+        }
+        assertEquals(PER_SEGMENT * (BlockStore.HEADER + PAYLOAD / 4), Files.size(dir.resolve("blk00000.dat")));
+        try (BlockStore store = new BlockStore(dir, SEGMENT)) {
+            assertEquals(BLOCKS, store.size());
+            assertEquals(hash(BLOCKS - 1), store.tip());
+            assertArrayEquals(Arrays.copyOf(payload(0), PAYLOAD / 4), bytes(store.read(0)));
+            assertArrayEquals(payload(BLOCKS - 1), bytes(store.read(BLOCKS - 1)));
+            assertEquals(BLOCKS, store.append(hash(BLOCKS), hash(BLOCKS - 1), payload(BLOCKS)));
+        }
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Opens a store with small segments and appends a chain of blocks to it
+     *
+     * @param blocks Number of blocks
+     * @return Open store
+     */
+    private BlockStore fill(int blocks) throws IOException {
+        BlockStore store = new BlockStore(dir, SEGMENT);
+        for(int h = 0; h < blocks; h++){
+            assertEquals(h, store.append(hash(h), h == 0 ? "0" : hash(h - 1), payload(h)));
+        }
+        return store;
+    }
+
+    private static String hash(int height){
+        return Utility.SHA512("block" + height);
+    }
+
+    private static byte[] payload(int height){
+        byte[] payload = new byte[PAYLOAD];
+        Arrays.fill(payload, (byte) (height + 1));
+        payload[0] = (byte) height;
+        return payload;
+    }
+
+    private static byte[] truncate(ByteBuffer payload){
+        byte[] kept = new byte[PAYLOAD / 4];
+        payload.get(kept);
+        return kept;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte read(Path file, int at) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, at);
+            return one.get(0);
+        }
+    }
+
+    private static void write(Path file, int at, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), at);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The CoinSelectorTest class checks the coin selection strategies on an address's indexed outputs: LARGEST_FIRST
+ * covers the goal with the fewest inputs, BRANCH_AND_BOUND finds an exact match in fixed-point units (or falls back to
+ * LARGEST_FIRST when there is none), and CONSOLIDATE sweeps the smallest outputs of a fragmented address.
+ *
+ * @author jf2978
+ */
+public class CoinSelectorTest {
+
+    private Address owner;
+    private UtxoStore store;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        byte[] digest = new byte[Address.LENGTH];
+        new Random(1).nextBytes(digest);
+        owner = new Address(digest);
+        store = new HeapUtxoStore();
+    }
+
+    @Test
+    public void largestFirstTakesFewestInputs(){
+        add(30f, 25f, 20.1f, 10f);
+        Set<TransactionOutput> inputs = CoinSelector.LARGEST_FIRST.select(store.outputsOf(owner),
+                UtxoStore.toUnits(50f));
+
+        assertEquals(values(30f, 25f), values(inputs));
+    }
+
+    @Test
+    public void branchAndBoundFindsExactMatch(){
+        add(30f, 25f, 20.1f, 10f);
+        long goal = UtxoStore.toUnits(30f) + UtxoStore.toUnits(20.1f); // (no float amount converts to exactly this)
+        Set<TransactionOutput> inputs = CoinSelector.BRANCH_AND_BOUND.select(store.outputsOf(owner), goal);
+
+        assertEquals(values(30f, 20.1f), values(inputs));
+        assertEquals(goal, units(inputs));
+    }
+
+    @Test
+    public void branchAndBoundFallsBackWithoutExactMatch(){
+        add(30f, 25f, 20.1f, 10f);
+        NavigableSet<TransactionOutput> available = store.outputsOf(owner);
+        long goal = UtxoStore.toUnits(33f);
+
+        assertEquals(CoinSelector.LARGEST_FIRST.select(available, goal),
+                CoinSelector.BRANCH_AND_BOUND.select(available, goal));
+        assertEquals(new HashSet<>(available),
+                CoinSelector.BRANCH_AND_BOUND.select(available, UtxoStore.toUnits(100f))); // (not enough: all of them)
+    }
+
+    @Test
+    public void consolidateSweepsSmallestOutputs(){
+        for(int i = 0; i < CoinSelector.FRAGMENTED + 10; i++){
+            add(1f + i);
+        }
+        NavigableSet<TransactionOutput> available = store.outputsOf(owner);
+        Set<TransactionOutput> inputs = CoinSelector.CONSOLIDATE.select(available, UtxoStore.toUnits(200f));
+
+        assertEquals(CoinSelector.MAX_INPUTS, inputs.size());
+        assertTrue(inputs.containsAll(CoinSelector.LARGEST_FIRST.select(available, UtxoStore.toUnits(200f))));
+        assertTrue(inputs.contains(available.last()));
+        assertTrue(units(inputs) >= UtxoStore.toUnits(200f));
+    }
+
+    @Test
+    public void consolidateLeavesFewOutputsAlone(){
+        for(int i = 0; i < CoinSelector.FRAGMENTED; i++){
+            add(1f + i);
+        }
+        NavigableSet<TransactionOutput> available = store.outputsOf(owner);
+
+        assertEquals(CoinSelector.LARGEST_FIRST.select(available, UtxoStore.toUnits(200f)),
+                CoinSelector.CONSOLIDATE.select(available, UtxoStore.toUnits(200f)));
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    private void add(float... values){
+        for(float value : values){
+            store.add(new TransactionOutput(owner, value, Utility.SHA512("parent" + store.size())));
+        }
+    }
+
+    private static List<Float> values(float... values){
+        List<Float> list = new ArrayList<>();
+        for(float value : values){
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static List<Float> values(Set<TransactionOutput> outputs){
+        List<Float> list = new ArrayList<>();
+        for(TransactionOutput output : outputs){
+            list.add(output.value);
+        }
+        return list;
+    }
+
+    private static long units(Set<TransactionOutput> outputs){
+        long units = 0;
+        for(TransactionOutput output : outputs){
+            units += UtxoStore.toUnits(output.value);
+        }
+        return units;
+    }
+}
@@ -0,0 +1,169 @@
+package com.jf2978;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The ConcurrencyStressTest class is a stress test of concurrent submission: many threads send payments between a
+ * shared set of wallets (send + process, with overlapping senders), straight against the shared UTXO store. Afterwards
+ * the total supply held in the store must be unchanged (no value created or lost) and every address balance kept by
+ * the store must match its unspent outputs. It also races the spend of an address's first output against its add.
+ *
+ * @author jf2978
+ */
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = 8;
+    private static final int TRANSFERS = 40; // per thread
+    private static final int WALLETS = 16;
+    private static final float FUNDS = 1000f;
+    private static final int ROUNDS = 100000; // first outputs raced between an add and a spend
+
+    private UtxoStore saved;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        saved = Main.SimpleBlockChain.UTXOs;
+    }
+
+    @After
+    public void tearDown(){
+        Main.SimpleBlockChain.UTXOs = saved;
+    }
+
+    @Test
+    public void heapStoreConservesSupply() throws Exception {
+        stress(new HeapUtxoStore());
+    }
+
+    @Test
+    public void offHeapStoreConservesSupply() throws Exception {
+        stress(new OffHeapUtxoStore(1 << 10));
+    }
+
+    @Test
+    public void heapStoreSpendsFirstOutputsWhileAdded() throws Exception {
+        raceFirstOutputs(new HeapUtxoStore());
+    }
+
+    @Test
+    public void offHeapStoreSpendsFirstOutputsWhileAdded() throws Exception {
+        raceFirstOutputs(new OffHeapUtxoStore(1 << 10));
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Adds the first output of many fresh addresses while another thread spends each one as soon as it is published
+     * (so spends land while the add is still indexing it), then checks that no balance or index entry is left behind
+     *
+     * @param store UTXO store under test
+     */
+    private void raceFirstOutputs(UtxoStore store) throws Exception {
+        TransactionOutput[] outputs = new TransactionOutput[ROUNDS];
+        for(int i = 0; i < ROUNDS; i++){
+            byte[] digest = new byte[Address.LENGTH];
+            ByteBuffer.wrap(digest).putInt(i);
+            Address owner = new Address(digest);
+            outputs[i] = new TransactionOutput(owner, 1 + i % 10, Utility.SHA512("first" + i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?> adder = pool.submit(() -> {
+            start.await();
+            for(TransactionOutput output : outputs){
+                store.add(output);
+            }
+            return null;
+        });
+        Future<?> spender = pool.submit(() -> {
+            start.await();
+            for(TransactionOutput output : outputs){
+                while(!store.spend(output)){
+                    // (spin until the add publishes it)
+                }
+            }
+            return null;
+        });
+        start.countDown();
+        adder.get();
+        spender.get();
+        pool.shutdown();
+
+        assertEquals(0, store.size());
+        for(TransactionOutput output : outputs){
+            assertEquals("balance left for " + output.recipient, 0, store.balanceOf(output.recipient));
+            assertTrue("output left indexed for " + output.recipient, store.outputsOf(output.recipient).isEmpty());
+        }
+        assertTrue("address balances diverged from the unspent outputs", store.checkBalances());
+    }
+
+    /** =====
+     * Funds the wallets, runs THREADS threads of random transfers against the store and checks the supply invariant
+     *
+     * @param store UTXO store under test
+     */
+    private void stress(UtxoStore store) throws Exception {
+        Main.SimpleBlockChain.UTXOs = store;
+        Wallet[] wallets = new Wallet[WALLETS];
+        for(int i = 0; i < WALLETS; i++){
+            wallets[i] = new Wallet(SignatureScheme.ED25519); // (the fastest scheme: contention, not crypto, is tested)
+            store.add(new TransactionOutput(wallets[i].address, FUNDS, Utility.SHA512("genesis" + i)));
+        }
+
+        AtomicInteger accepted = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++){
+            final long seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                start.await();
+                for(int i = 0; i < TRANSFERS; i++){
+                    Wallet sender = wallets[random.nextInt(WALLETS)];
+                    Wallet recipient = wallets[random.nextInt(WALLETS)];
+                    // (half of them large enough that Utility.calculateFee would charge one: sends pay none)
+                    Transaction transaction = sender.send(recipient.address, 1 + random.nextInt(100));
+                    if(transaction != null && transaction.process()){
+                        accepted.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures){
+            future.get(); // rethrows anything a worker threw
+        }
+        pool.shutdown();
+
+        long supply = 0;
+        for(Wallet wallet : wallets){
+            for(TransactionOutput output : store.outputsOf(wallet.address)){
+                supply += UtxoStore.toUnits(output.value);
+            }
+        }
+        long[] scanned = new long[1];
+        store.forEach(output -> scanned[0] += UtxoStore.toUnits(output.value));
+
+        assertTrue("no transfer was accepted", accepted.get() > 0);
+        assertEquals("total supply (scan)", UtxoStore.toUnits(WALLETS * FUNDS), scanned[0]);
+        assertEquals("total supply (wallets)", UtxoStore.toUnits(WALLETS * FUNDS), supply);
+        assertTrue("address balances diverged from the unspent outputs", store.checkBalances());
+    }
+}
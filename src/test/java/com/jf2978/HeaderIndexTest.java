@@ -0,0 +1,224 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The HeaderIndexTest class checks the off-heap header index over a chain spanning more than one page: fields read
+ * back by height, hash lookups survive table growth, cumulative work adds up, unlinked headers are refused, validation
+ * (hashing the records in place, across page boundaries) catches a bad hash or missing proof-of-work, blocks match
+ * their indexed header, and readers see consistent headers while another thread appends.
+ *
+ * @author jf2978
+ */
+public class HeaderIndexTest {
+
+    private static final int PAGE = 1 << 16; // headers per page (see HeaderIndex.PAGE_BITS)
+    private static final int HEADERS = PAGE + 100;
+    private static final byte[] ORIGIN = new byte[Utility.DIGEST_LENGTH]; // genesis previous hash ("0")
+
+    private MessageDigest md;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        md = CryptoEngine.newDigest("SHA-512");
+    }
+
+    @Test
+    public void readsBackFieldsAcrossPages(){
+        HeaderIndex index = new HeaderIndex(16); // (the hash table grows many times)
+        List<byte[]> hashes = chain(index, HEADERS, 0);
+
+        assertEquals(HEADERS, index.size());
+        for(int height = 0; height < HEADERS; height++){
+            assertArrayEquals(hashes.get(height), index.hash(height));
+            assertArrayEquals(root(height), index.merkleRoot(height));
+            assertEquals(timestamp(height), index.timestamp(height));
+            assertEquals(-height, index.nonce(height));
+            assertEquals(height, index.height(hashes.get(height)));
+            assertEquals(height + 1, index.cumulativeWork(height));
+        }
+        assertEquals(PAGE, index.height(Utility.toHex(hashes.get(PAGE))));
+        assertEquals(-1, index.height(Utility.SHA512("unknown")));
+        assertTrue(index.bytesPerHeader() >= HeaderIndex.RECORD);
+    }
+
+    @Test
+    public void headerIsHashPreimage(){
+        HeaderIndex index = new HeaderIndex();
+        List<byte[]> hashes = chain(index, PAGE + 2, 0);
+        for(int height : new int[]{0, 1, PAGE - 1, PAGE, PAGE + 1}){
+            byte[] header = index.header(height);
+            assertEquals(BlockHeader.SIZE, header.length);
+            assertArrayEquals(md.digest(header), hashes.get(height));
+            byte[] previous = height == 0 ? ORIGIN : hashes.get(height - 1);
+            assertEquals(ByteBuffer.wrap(previous), ByteBuffer.wrap(header, 0, Utility.DIGEST_LENGTH));
+        }
+    }
+
+    @Test
+    public void validatesAcrossPages(){
+        HeaderIndex index = new HeaderIndex();
+        chain(index, HEADERS, 0);
+        assertEquals(-1, index.validate(0, HEADERS, 0));
+        assertEquals(-1, index.validate(PAGE - 3, PAGE + 3, 0)); // (previous hash on the previous page)
+        assertEquals(-1, index.validate(PAGE, PAGE + 1, 0));
+        assertEquals(-1, index.validate(5, 5, 0));
+    }
+
+    @Test
+    public void validationChecksProofOfWork(){
+        int difficulty = 8;
+        HeaderIndex index = new HeaderIndex();
+        List<byte[]> hashes = chain(index, 20, difficulty);
+        assertEquals(-1, index.validate(0, 20, difficulty));
+        assertEquals(20L << difficulty, index.cumulativeWork(19));
+        for(byte[] hash : hashes){
+            assertTrue(Utility.hasLeadingZeroBits(hash, difficulty));
+        }
+        assertEquals(0, index.validate(0, 20, Utility.DIGEST_LENGTH * 8)); // (no hash has 512 leading zeros)
+    }
+
+    @Test
+    public void validationCatchesBadHash(){
+        HeaderIndex index = new HeaderIndex();
+        List<byte[]> hashes = chain(index, 10, 0);
+        byte[] forged = md.digest("forged".getBytes());
+        assertEquals(10, index.append(hashes.get(9), root(10), timestamp(10), 0, forged, 0)); // links, wrong hash
+        chain(index, 5, 0);
+        assertEquals(10, index.validate(0, index.size(), 0));
+        assertEquals(-1, index.validate(11, index.size(), 0));
+    }
+
+    @Test
+    public void refusesUnlinkedHeader(){
+        HeaderIndex index = new HeaderIndex();
+        List<byte[]> hashes = chain(index, 3, 0);
+        byte[] hash = hash(hashes.get(0), root(3), timestamp(3), 0);
+        assertEquals(-1, index.append(hashes.get(0), root(3), timestamp(3), 0, hash, 0));
+        assertEquals(3, index.size());
+        assertEquals(-1, index.height(hash));
+    }
+
+    @Test
+    public void blocksMatchTheirHeader(){
+        HeaderIndex index = new HeaderIndex();
+        List<byte[]> hashes = chain(index, 3, 0);
+        Block first = block(ORIGIN, 0, hashes.get(0));
+        Block second = block(hashes.get(0), 1, hashes.get(1));
+        assertTrue(index.matches(0, first));
+        assertTrue(index.matches(1, second));
+        assertFalse(index.matches(1, first));
+
+        second.timestamp++;
+        assertFalse(index.matches(1, second));
+        second.timestamp--;
+        second.merkleRoot = Utility.toHex(root(2));
+        assertFalse(index.matches(1, second));
+        second.merkleRoot = Utility.toHex(root(1));
+        second.previousHash = Utility.toHex(hashes.get(1));
+        assertFalse(index.matches(1, second));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsUnindexedHeight(){
+        HeaderIndex index = new HeaderIndex();
+        chain(index, 3, 0);
+        index.hash(3);
+    }
+
+    @Test
+    public void readersSeeConsistentHeadersDuringAppends() throws Exception {
+        HeaderIndex index = new HeaderIndex(16);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            MessageDigest digest = CryptoEngine.newDigest("SHA-512");
+            while(!done.get() && failure.get() == null){
+                int size = index.size();
+                if(size == 0){
+                    continue;
+                }
+                int height = size - 1;
+                byte[] hash = index.hash(height);
+                if(!MessageDigest.isEqual(digest.digest(index.header(height)), hash) || index.height(hash) != height){
+                    failure.set("header " + height + " read inconsistently");
+                }
+            }
+        });
+        reader.start();
+        chain(index, PAGE + 10, 0);
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Mines headers onto the index (or, at difficulty 0, just hashes them)
+     *
+     * @param index Header index to extend
+     * @param count Number of headers
+     * @param difficulty Number of leading zero bits each hash must start with
+     * @return Hashes of every indexed header, by height
+     */
+    private List<byte[]> chain(HeaderIndex index, int count, int difficulty){
+        List<byte[]> hashes = new ArrayList<>();
+        for(int height = 0; height < index.size(); height++){
+            hashes.add(index.hash(height));
+        }
+        for(int i = 0; i < count; i++){
+            int height = hashes.size();
+            byte[] previous = height == 0 ? ORIGIN : hashes.get(height - 1);
+            long nonce = -height;
+            byte[] hash = hash(previous, root(height), timestamp(height), nonce);
+            while(!Utility.hasLeadingZeroBits(hash, difficulty)){
+                hash = hash(previous, root(height), timestamp(height), --nonce);
+            }
+            assertEquals(height, index.append(previous, root(height), timestamp(height), nonce, hash, difficulty));
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    /** =====
+     * Hashes a header's fields laid out as in BlockHeader
+     *
+     * @param previous Previous block hash
+     * @param root Merkle root
+     * @param timestamp Timestamp (epoch millis)
+     * @param nonce Nonce
+     * @return Block hash
+     */
+    private byte[] hash(byte[] previous, byte[] root, long timestamp, long nonce){
+        ByteBuffer header = ByteBuffer.allocate(BlockHeader.SIZE);
+        header.put(previous).put(root).putLong(timestamp).putLong(nonce);
+        return md.digest(header.array());
+    }
+
+    private Block block(byte[] previous, int height, byte[] hash){
+        return new Block(Utility.toHex(previous), Utility.toHex(root(height)), timestamp(height), -height,
+                Utility.toHex(hash), new ArrayList<>());
+    }
+
+    private byte[] root(int height){
+        return md.digest(("root" + height).getBytes());
+    }
+
+    private static long timestamp(int height){
+        return 1_600_000_000_000L + height;
+    }
+}
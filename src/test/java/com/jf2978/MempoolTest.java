@@ -0,0 +1,98 @@
+package com.jf2978;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The MempoolTest class checks fee handling: pending transactions are ranked by the fee they pay per kB (not by the
+ * amount they send), a transaction whose inputs cannot cover its amount and fee is refused, and once applied the fee
+ * is not paid back as change.
+ *
+ * @author jf2978
+ */
+public class MempoolTest {
+
+    private UtxoStore saved;
+    private Mempool mempool;
+    private Wallet sender;
+    private Wallet recipient;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        saved = Main.SimpleBlockChain.UTXOs;
+        Main.SimpleBlockChain.UTXOs = new HeapUtxoStore();
+        mempool = new Mempool();
+        sender = new Wallet(SignatureScheme.ED25519);
+        recipient = new Wallet(SignatureScheme.ED25519);
+    }
+
+    @After
+    public void tearDown(){
+        Main.SimpleBlockChain.UTXOs = saved;
+    }
+
+    @Test
+    public void ranksByFeeRate(){
+        Transaction free = payment(1, 90f, 0); // (the largest amount pays nothing)
+        Transaction cheap = payment(2, 5f, UtxoStore.toUnits(0.01f));
+        Transaction generous = payment(3, 5f, UtxoStore.toUnits(0.5f));
+        for(Transaction transaction : new Transaction[]{free, cheap, generous}){
+            assertTrue(mempool.add(transaction));
+        }
+        List<Transaction> template = mempool.buildTemplate(3);
+        assertEquals(generous.id, template.get(0).id);
+        assertEquals(cheap.id, template.get(1).id);
+        assertEquals(free.id, template.get(2).id);
+    }
+
+    @Test
+    public void refusesFeeTheInputsDoNotCover(){
+        assertFalse(mempool.add(payment(1, 99.95f, UtxoStore.toUnits(0.1f))));
+        assertFalse(mempool.add(payment(2, 1f, -1)));
+        assertEquals(0, mempool.size());
+    }
+
+    @Test
+    public void walletPaysFeeOutOfChange(){
+        fund(1);
+        assertEquals(0, sender.send(recipient.address, 60f).fee); // (no fee unless asked for)
+        Transaction transaction = sender.send(recipient.address, 60f, UtxoStore.toUnits(Utility.calculateFee(60f)));
+        assertEquals(UtxoStore.toUnits(Utility.calculateFee(60f)), transaction.fee);
+        assertTrue(transaction.process());
+        assertEquals(60f, recipient.balance(), 0f);
+        assertEquals(100f - 60f - UtxoStore.fromUnits(transaction.fee), sender.balance(), 1e-5f); // (float outputs)
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Funds the sender with one 100 coin output and signs a payment spending it
+     *
+     * @param n Funding number (distinguishes the funding outputs)
+     * @param value Amount paid
+     * @param fee Fee paid, in fixed-point units
+     * @return Signed transaction
+     */
+    private Transaction payment(int n, float value, long fee){
+        TransactionOutput coin = fund(n);
+        Transaction transaction = new Transaction(sender.eK, recipient.address, value, fee,
+                Collections.singleton(coin));
+        transaction.sign(sender.dK);
+        return transaction;
+    }
+
+    private TransactionOutput fund(int n){
+        TransactionOutput coin = new TransactionOutput(sender.address, 100f, Utility.SHA512("funding" + n));
+        Main.SimpleBlockChain.UTXOs.add(coin);
+        return coin;
+    }
+}
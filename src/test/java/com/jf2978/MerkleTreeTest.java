@@ -0,0 +1,166 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The MerkleTreeTest class checks Merkle roots and inclusion proofs over odd and even tree sizes (up to 100k leaves):
+ * every proof verifies against the root in at most ceil(log2 n) hashes, tampered proofs, leaves and roots do not, and
+ * FlatMerkleTree (bulk, parallel and incremental) computes the same root as MerkleTree, also when a block's transaction
+ * list was appended to directly.
+ *
+ * @author jf2978
+ */
+public class MerkleTreeTest {
+
+    private static final int[] SIZES = {1, 2, 3, 4, 5, 6, 7, 8, 9, 15, 16, 17, 33, 64, 1023, 1024, 1025, 100_000,
+            100_001};
+    private static final int EXHAUSTIVE = 64; // trees up to this size have every leaf proven (larger ones a sample)
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+    }
+
+    @Test
+    public void proofsVerifyForOddAndEvenSizes(){
+        for(int size : SIZES){
+            List<String> leaves = leaves(size);
+            MerkleTree tree = new MerkleTree(leaves);
+            String root = tree.getRoot().hash;
+            int depth = 32 - Integer.numberOfLeadingZeros(size - 1); // ceil(log2 size)
+
+            for(int i : sample(size)){
+                MerkleTree.Proof proof = tree.getProof(leaves.get(i));
+                assertNotNull("size " + size + " leaf " + i, proof);
+                assertTrue("size " + size + " leaf " + i, MerkleTree.verify(leaves.get(i), proof, root));
+                assertTrue(proof.size() <= depth);
+            }
+        }
+    }
+
+    @Test
+    public void singleLeafIsItsOwnRoot(){
+        List<String> leaves = leaves(1);
+        MerkleTree tree = new MerkleTree(leaves);
+        assertEquals(Utility.toHex(Utility.digestBytes(leaves.get(0))), tree.getRoot().hash);
+        assertEquals(0, tree.getProof(leaves.get(0)).size());
+    }
+
+    @Test
+    public void tamperedProofsFail(){
+        for(int size : new int[]{2, 7, 1024, 1025}){
+            List<String> leaves = leaves(size);
+            MerkleTree tree = new MerkleTree(leaves);
+            String root = tree.getRoot().hash;
+            String leaf = leaves.get(size / 2);
+            MerkleTree.Proof proof = tree.getProof(leaf);
+
+            assertFalse(MerkleTree.verify(Utility.SHA512("not a leaf"), proof, root));
+            assertFalse(MerkleTree.verify(leaf, proof, Utility.SHA512("not the root")));
+            assertFalse(MerkleTree.verify(leaves.get(size / 2 - 1), proof, root));
+
+            String sibling = proof.siblings.get(0);
+            proof.siblings.set(0, Utility.SHA512(sibling));
+            assertFalse(MerkleTree.verify(leaf, proof, root));
+            proof.siblings.set(0, sibling);
+            proof.left.set(0, !proof.left.get(0));
+            assertFalse(MerkleTree.verify(leaf, proof, root));
+            proof.left.set(0, !proof.left.get(0));
+            proof.left.remove(0);
+            assertFalse(MerkleTree.verify(leaf, proof, root));
+        }
+        assertNull(new MerkleTree(leaves(5)).getProof(Utility.SHA512("not a leaf")));
+        assertFalse(MerkleTree.verify(null, new MerkleTree.Proof(), "0"));
+    }
+
+    @Test
+    public void flatTreeHasSameRoot(){
+        for(int size : SIZES){
+            List<String> leaves = leaves(size);
+            List<byte[]> digests = new ArrayList<>(size);
+            for(String leaf : leaves){
+                digests.add(Utility.digestBytes(leaf));
+            }
+            String root = new MerkleTree(leaves).getRoot().hash;
+
+            assertEquals("size " + size, root, new FlatMerkleTree(digests).rootHex());
+            assertEquals("size " + size, root, new FlatMerkleTree(digests, true).rootHex());
+            FlatMerkleTree incremental = new FlatMerkleTree();
+            digests.forEach(incremental::append);
+            assertEquals("size " + size, root, incremental.rootHex());
+        }
+    }
+
+    @Test
+    public void flatTreeUpdatesLeafInPlace(){
+        for(int size : new int[]{1, 6, 7, 1025}){
+            List<String> leaves = leaves(size);
+            List<byte[]> digests = new ArrayList<>(size);
+            for(String leaf : leaves){
+                digests.add(Utility.digestBytes(leaf));
+            }
+            FlatMerkleTree tree = new FlatMerkleTree(digests);
+            int index = size - 1; // (the odd node out, when size is odd)
+            leaves.set(index, Utility.SHA512("replacement"));
+            tree.set(index, Utility.digestBytes(leaves.get(index)));
+
+            assertEquals(new MerkleTree(leaves).getRoot().hash, tree.rootHex());
+            assertArrayEquals(Utility.digestBytes(leaves.get(index)), tree.getLeaf(index));
+        }
+    }
+
+    @Test
+    public void blockTreeCatchesUpWithDirectAppends(){
+        Wallet wallet = new Wallet();
+        Block block = new Block("0");
+        block.transactions.add(new Transaction(Utility.SHA512("direct0"), wallet.eK, wallet.address, 1f));
+        block.transactions.add(new Transaction(Utility.SHA512("direct1"), wallet.eK, wallet.address, 1f));
+        assertTrue(block.addTransaction(new Transaction(Utility.SHA512("added"), wallet.eK, wallet.address, 1f)));
+        block.transactions.add(new Transaction(Utility.SHA512("direct2"), wallet.eK, wallet.address, 1f));
+        assertTrue(block.addTransactions(Collections.singletonList(
+                new Transaction(Utility.SHA512("batch"), wallet.eK, wallet.address, 1f)), null));
+
+        block.mine(0);
+        assertEquals(5, block.transactions.size());
+        assertEquals(Utility.getMerkleRoot(block.transactions, false), block.merkleRoot);
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    private static List<String> leaves(int size){
+        List<String> leaves = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            leaves.add(Utility.SHA512("tx" + i));
+        }
+        return leaves;
+    }
+
+    /** =====
+     * Picks the leaves to prove: all of a small tree, otherwise both ends, the middle and a few random ones
+     *
+     * @param size Number of leaves
+     * @return Leaf indices
+     */
+    private static Collection<Integer> sample(int size){
+        Set<Integer> indices = new TreeSet<>();
+        if(size <= EXHAUSTIVE){
+            for(int i = 0; i < size; i++){
+                indices.add(i);
+            }
+            return indices;
+        }
+        Collections.addAll(indices, 0, 1, size / 2, size - 2, size - 1);
+        Random random = new Random(size);
+        for(int i = 0; i < 5; i++){
+            indices.add(random.nextInt(size));
+        }
+        return indices;
+    }
+}
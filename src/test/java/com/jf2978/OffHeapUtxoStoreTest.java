@@ -0,0 +1,220 @@
+package com.jf2978;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The OffHeapUtxoStoreTest class checks the off-heap open-addressing tables: records round-trip through their binary
+ * layout (which leaves out the parent id and index), lookups keep probing past tombstones, the tables grow and
+ * rehash past their expected size, the per-address lists, balances and sorted index agree with HeapUtxoStore
+ * under a random mix of adds and spends, both stores keep the first copy of a duplicate output id, and clearing the
+ * store while it is added to and queried leaves no dangling address entries.
+ *
+ * @author jf2978
+ */
+public class OffHeapUtxoStoreTest {
+
+    private static final int OUTPUTS = 20_000;
+    private static final int OWNERS = 8;
+
+    private Address[] owners;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        Random random = new Random(1);
+        owners = new Address[OWNERS];
+        for(int i = 0; i < OWNERS; i++){
+            byte[] digest = new byte[Address.LENGTH];
+            random.nextBytes(digest);
+            owners[i] = new Address(digest);
+        }
+    }
+
+    @Test
+    public void recordRoundTrips(){
+        OffHeapUtxoStore store = new OffHeapUtxoStore(16);
+        TransactionOutput output = new TransactionOutput(owners[0], 12.5f, Utility.SHA512("parent"), 1);
+        TransactionOutput genesis = new TransactionOutput(owners[1], 100f, "0");
+        store.add(output);
+        store.add(genesis);
+
+        for(TransactionOutput expected : Arrays.asList(output, genesis)){
+            TransactionOutput stored = store.get(expected.id);
+            assertNotNull(stored);
+            assertEquals(expected.id, stored.id);
+            assertNull(stored.parentId);
+            assertEquals(0, stored.index);
+            assertEquals(expected.value, stored.value, 0f);
+            assertEquals(expected.recipient, stored.recipient);
+        }
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void spendLeavesTombstonesThatLookupsProbePast(){
+        OffHeapUtxoStore store = new OffHeapUtxoStore(OUTPUTS);
+        List<TransactionOutput> outputs = outputs(OUTPUTS);
+        outputs.forEach(store::add);
+
+        for(int i = 0; i < OUTPUTS; i += 2){
+            assertTrue(store.spend(outputs.get(i)));
+            assertFalse(store.spend(outputs.get(i))); // already spent
+        }
+        for(int i = 0; i < OUTPUTS; i++){
+            assertEquals(i % 2 == 1, store.contains(outputs.get(i)));
+            assertEquals(i % 2 == 1, store.get(outputs.get(i).id) != null);
+        }
+        assertEquals(OUTPUTS / 2, store.size());
+
+        for(int i = 0; i < OUTPUTS; i += 2){
+            store.add(outputs.get(i)); // reuses tombstoned slots
+        }
+        for(TransactionOutput output : outputs){
+            assertTrue(store.contains(output));
+        }
+        assertEquals(OUTPUTS, store.size());
+    }
+
+    @Test
+    public void tablesGrowPastExpectedSize(){
+        OffHeapUtxoStore store = new OffHeapUtxoStore(16);
+        long before = store.memoryBytes();
+        List<TransactionOutput> outputs = outputs(OUTPUTS);
+        outputs.forEach(store::add);
+
+        assertEquals(OUTPUTS, store.size());
+        assertTrue(store.memoryBytes() > before);
+        assertTrue(store.memoryBytes() >= (long) OUTPUTS * OffHeapUtxoStore.RECORD);
+        for(TransactionOutput output : outputs){
+            assertEquals(output, store.get(output.id));
+        }
+        Set<TransactionOutput> scanned = new HashSet<>();
+        store.forEach(scanned::add);
+        assertEquals(new HashSet<>(outputs), scanned);
+    }
+
+    @Test
+    public void matchesHeapStore(){
+        OffHeapUtxoStore offHeap = new OffHeapUtxoStore(64);
+        HeapUtxoStore heap = new HeapUtxoStore();
+        List<TransactionOutput> live = new ArrayList<>();
+        Random random = new Random(2);
+
+        for(int i = 0; i < OUTPUTS; i++){
+            if(i == OUTPUTS / 2){
+                for(Address owner : owners){
+                    offHeap.outputsOf(owner); // index half way: later adds and spends must maintain it
+                }
+            }
+            if(!live.isEmpty() && random.nextInt(3) == 0){
+                TransactionOutput spent = live.remove(random.nextInt(live.size()));
+                assertEquals(heap.spend(spent), offHeap.spend(spent));
+            } else {
+                TransactionOutput created = new TransactionOutput(owners[random.nextInt(OWNERS)],
+                        1 + random.nextInt(1000) / 8f, Utility.SHA512("tx" + i));
+                live.add(created);
+                heap.add(created);
+                offHeap.add(created);
+            }
+        }
+
+        assertEquals(heap.size(), offHeap.size());
+        assertEquals(heap.balances(), offHeap.balances());
+        for(Address owner : owners){
+            assertEquals(heap.balanceOf(owner), offHeap.balanceOf(owner));
+            assertArrayEquals(heap.outputsOf(owner).toArray(), offHeap.outputsOf(owner).toArray());
+        }
+    }
+
+    @Test
+    public void duplicateIdKeepsFirstCopy(){
+        for(UtxoStore store : new UtxoStore[]{new HeapUtxoStore(), new OffHeapUtxoStore(16)}){
+            TransactionOutput first = new TransactionOutput(owners[0], 5f, Utility.SHA512("parent"));
+            TransactionOutput duplicate = new TransactionOutput(first.id, owners[0], 7f, first.parentId, 0);
+            store.add(first);
+            store.add(duplicate);
+
+            assertEquals(UtxoStore.toUnits(5f), store.balanceOf(owners[0]));
+            assertEquals(1, store.outputsOf(owners[0]).size());
+            assertEquals(5f, store.outputsOf(owners[0]).first().value, 0);
+            assertTrue(store.spend(duplicate));
+            assertEquals(0, store.balanceOf(owners[0]));
+            assertTrue(store.outputsOf(owners[0]).isEmpty());
+        }
+    }
+
+    @Test
+    public void clearEmptiesEveryStripe(){
+        OffHeapUtxoStore store = new OffHeapUtxoStore(16);
+        List<TransactionOutput> outputs = outputs(1000);
+        outputs.forEach(store::add);
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertTrue(store.balances().isEmpty());
+        assertTrue(store.outputsOf(owners[0]).isEmpty());
+        assertNull(store.get(outputs.get(0).id));
+        store.add(outputs.get(0));
+        assertEquals(outputs.get(0), store.get(outputs.get(0).id));
+    }
+
+    @Test
+    public void clearDuringAddsAndQueries() throws Exception {
+        OffHeapUtxoStore store = new OffHeapUtxoStore(16);
+        List<TransactionOutput> outputs = outputs(OUTPUTS);
+        ExecutorService pool = Executors.newFixedThreadPool(OWNERS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for(int w = 0; w < OWNERS; w++){
+                int first = w;
+                workers.add(pool.submit(() -> {
+                    for(int i = first; i < outputs.size(); i += OWNERS){
+                        store.add(outputs.get(i));
+                        store.outputsOf(outputs.get(i).recipient);
+                    }
+                }));
+            }
+            for(int i = 0; i < 50; i++){
+                store.clear();
+                Thread.yield();
+            }
+            for(Future<?> worker : workers){
+                worker.get(); // rethrows a worker's failure
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(store.checkBalances());
+        for(Address owner : owners){
+            assertEquals(store.balanceOf(owner), store.outputsOf(owner).stream()
+                    .mapToLong(output -> UtxoStore.toUnits(output.value)).sum());
+        }
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Creates outputs with distinct parents, spread over the owners
+     *
+     * @param count Number of outputs
+     * @return Outputs
+     */
+    private List<TransactionOutput> outputs(int count){
+        List<TransactionOutput> outputs = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            outputs.add(new TransactionOutput(owners[i % OWNERS], 1 + i % 100, Utility.SHA512("parent" + i)));
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,67 @@
+package com.jf2978;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The ParallelMinerTest class checks parallel mining: a mined block's signature is its header hash and meets the
+ * target (with every worker reporting its hashes), and a round that ends without a solution - here because the caller
+ * is interrupted - throws instead of handing back an unsolved block.
+ *
+ * @author jf2978
+ */
+public class ParallelMinerTest {
+
+    private static final int WORKERS = 4;
+    private static final int DIFFICULTY = 8;
+
+    private static ParallelMiner miner;
+
+    private Block block;
+
+    @BeforeClass
+    public static void startMiner(){
+        CryptoEngine.init();
+        miner = new ParallelMiner(WORKERS);
+    }
+
+    @AfterClass
+    public static void stopMiner(){
+        miner.shutdown();
+    }
+
+    @Before
+    public void setUp(){
+        block = new Block(Utility.SHA512("previous"));
+    }
+
+    @Test
+    public void minedBlockMeetsTarget(){
+        List<ParallelMiner.Result> results = miner.mine(block, DIFFICULTY);
+        byte[] hash = block.header().hash();
+        assertEquals(Utility.toHex(hash), block.signature);
+        assertTrue(Utility.hasLeadingZeroBits(hash, DIFFICULTY));
+        assertEquals(WORKERS, results.size());
+    }
+
+    @Test
+    public void interruptedRoundLeavesBlockUnsolved(){
+        String unsolved = block.signature;
+        Thread.currentThread().interrupt();
+        try {
+            miner.mine(block, Utility.DIGEST_LENGTH * 8); // (no hash has 512 leading zeros)
+            fail("an unsolved block was returned");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        } finally {
+            assertTrue(Thread.interrupted()); // (interrupt status restored; cleared for the next test)
+        }
+        assertEquals(unsolved, block.signature);
+    }
+}
@@ -0,0 +1,257 @@
+package com.jf2978;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The SimpleBlockChainTest class checks that a block the chain does not take leaves no trace: a block that does not
+ * extend the tip, a block whose mining round ended without a solution, and a block the block store cannot take, are
+ * discarded before they are indexed and the UTXO changes of their transactions are reverted: the stored outputs they
+ * spent are restored (not the copies they carry), and a transaction whose outputs were spent since stays applied. It
+ * also checks that a full revalidation verifies signatures afresh rather than from the signature cache, and that
+ * reopening a pruned block store restores the UTXO set from the older kept snapshot when the newer one is corrupt, and
+ * fails when no snapshot covers the pruned blocks.
+ *
+ * @author jf2978
+ */
+public class SimpleBlockChainTest {
+
+    private static final int SEGMENT = 2 << 10; // (small segments, so that old ones get compacted)
+    private static final int INTERVAL = 5; // blocks between UTXO snapshots
+    private static final int BLOCKS = 23; // snapshots at heights 4, 9, 14 and 19 (the last two kept)
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UtxoStore savedUtxos;
+    private ParallelMiner savedMiner;
+    private int savedDifficulty;
+    private int savedInterval;
+    private int savedDepth;
+
+    private Wallet alice;
+    private Wallet bob;
+    private Block genesis;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        savedUtxos = Main.SimpleBlockChain.UTXOs;
+        savedMiner = Main.SimpleBlockChain.miner;
+        savedDifficulty = Main.SimpleBlockChain.difficulty;
+        savedInterval = Main.SimpleBlockChain.snapshotInterval;
+        savedDepth = Main.SimpleBlockChain.pruneDepth;
+        Main.SimpleBlockChain.UTXOs = new HeapUtxoStore();
+        Main.SimpleBlockChain.miner = null; // (mined on the calling thread)
+
+        alice = new Wallet(SignatureScheme.ED25519);
+        bob = new Wallet(SignatureScheme.ED25519);
+        Wallet coinbase = new Wallet(SignatureScheme.ED25519);
+        Transaction release = new Transaction("0", coinbase.eK, alice.address, 100f);
+        release.sign(coinbase.dK);
+        Main.SimpleBlockChain.UTXOs.addAll(release.outputs);
+        genesis = new Block("0");
+        genesis.addTransaction(release);
+        Main.SimpleBlockChain.add(genesis);
+
+        Block first = new Block(genesis.signature);
+        assertTrue(first.addTransaction(payment(alice, bob, 10f)));
+        Main.SimpleBlockChain.add(first);
+        assertEquals(2, Main.SimpleBlockChain.blockchain.size());
+    }
+
+    @After
+    public void tearDown(){
+        Main.SimpleBlockChain.close();
+        Main.SimpleBlockChain.UTXOs = savedUtxos;
+        Main.SimpleBlockChain.miner = savedMiner;
+        Main.SimpleBlockChain.difficulty = savedDifficulty;
+        Main.SimpleBlockChain.snapshotInterval = savedInterval;
+        Main.SimpleBlockChain.pruneDepth = savedDepth;
+    }
+
+    @Test
+    public void blockNotExtendingTipIsReverted(){
+        int outputs = Main.SimpleBlockChain.UTXOs.size();
+        Block stale = new Block(genesis.signature); // (a sibling of the tip)
+        assertTrue(stale.addTransaction(payment(bob, alice, 5f)));
+        assertEquals(95f, alice.balance(), 0f);
+        String unmined = stale.signature;
+
+        Main.SimpleBlockChain.add(stale);
+        assertChainUnchanged(outputs);
+        assertEquals(unmined, stale.signature); // (refused before it was mined)
+    }
+
+    @Test
+    public void unsolvedBlockIsReverted(){
+        int outputs = Main.SimpleBlockChain.UTXOs.size();
+        Main.SimpleBlockChain.miner = new ParallelMiner(2);
+        Main.SimpleBlockChain.difficulty = Utility.DIGEST_LENGTH * 8; // (no hash has 512 leading zeros)
+        Block next = new Block(Main.SimpleBlockChain.blockchain.get(1).signature);
+        assertTrue(next.addTransaction(payment(bob, alice, 5f)));
+
+        Thread.currentThread().interrupt(); // (ends the mining round without a solution)
+        try {
+            Main.SimpleBlockChain.add(next);
+        } finally {
+            assertTrue(Thread.interrupted());
+            Main.SimpleBlockChain.miner.shutdown();
+        }
+        assertChainUnchanged(outputs);
+    }
+
+    @Test
+    public void unpersistableBlockIsReverted() throws IOException {
+        int outputs = Main.SimpleBlockChain.UTXOs.size();
+        Main.SimpleBlockChain.store = new BlockStore(folder.getRoot().toPath(), BlockStore.HEADER + 1); // (too small)
+        Block next = new Block(Main.SimpleBlockChain.blockchain.get(1).signature);
+        assertTrue(next.addTransaction(payment(bob, alice, 5f)));
+
+        assertFalse(Main.SimpleBlockChain.add(next));
+        assertChainUnchanged(outputs);
+        assertEquals(0, Main.SimpleBlockChain.store.size());
+    }
+
+    @Test
+    public void revertRestoresStoredInputs(){
+        int outputs = Main.SimpleBlockChain.UTXOs.size();
+        TransactionOutput stored = Main.SimpleBlockChain.UTXOs.outputsOf(bob.address).first();
+        Set<TransactionOutput> inflated = new HashSet<>();
+        inflated.add(new TransactionOutput(stored.id, bob.address, 1000f, stored.parentId, stored.index));
+        Transaction payment = new Transaction(bob.eK, alice.address, 5f, inflated); // (carries an inflated copy)
+        payment.sign(bob.dK);
+        Block stale = new Block(genesis.signature);
+        assertTrue(stale.addTransaction(payment));
+
+        Main.SimpleBlockChain.add(stale);
+        assertChainUnchanged(outputs);
+        assertEquals(stored, Main.SimpleBlockChain.UTXOs.get(stored.id));
+    }
+
+    @Test
+    public void revertKeepsTransactionWhoseOutputsWereSpent(){
+        Block stale = new Block(genesis.signature);
+        Transaction payment = payment(bob, alice, 5f);
+        assertTrue(stale.addTransaction(payment));
+        TransactionOutput spent = payment.inputs.iterator().next();
+        Transaction downstream = payment(bob, alice, 1f); // (spends the change of the stale block's payment)
+        assertTrue(downstream.process());
+        Map<Address, Long> balances = Main.SimpleBlockChain.UTXOs.balances();
+
+        Main.SimpleBlockChain.add(stale);
+        assertEquals(2, Main.SimpleBlockChain.blockchain.size());
+        assertEquals(balances, Main.SimpleBlockChain.UTXOs.balances()); // (nothing restored, nothing created)
+        assertNull(Main.SimpleBlockChain.UTXOs.get(spent.id));
+        assertTrue(Main.SimpleBlockChain.UTXOs.checkBalances());
+        assertTrue(Main.SimpleBlockChain.unconnected.contains(payment));
+    }
+
+    @Test
+    public void revalidationBypassesSignatureCache(){
+        SignatureCache cache = Main.SimpleBlockChain.signatures;
+        Transaction confirmed = Main.SimpleBlockChain.blockchain.get(1).transactions.get(0);
+        assertTrue(confirmed.verify()); // (cached by now)
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        assertTrue(Main.SimpleBlockChain.revalidate());
+        assertEquals(hits, cache.getHits());
+        assertEquals(misses, cache.getMisses());
+    }
+
+    @Test
+    public void reopenFallsBackToOlderSnapshot() throws IOException {
+        Path dir = persistedChain();
+        Map<Address, Long> balances = Main.SimpleBlockChain.UTXOs.balances();
+        Main.SimpleBlockChain.close();
+        corrupt(dir.resolve("utxo-0000000019.snap"));
+
+        Main.SimpleBlockChain.open(dir);
+        assertNotNull(Main.SimpleBlockChain.store);
+        assertEquals(BLOCKS, Main.SimpleBlockChain.blockchain.size());
+        assertEquals(balances, Main.SimpleBlockChain.UTXOs.balances());
+    }
+
+    @Test
+    public void reopenFailsWithoutSnapshotOfPrunedBlocks() throws IOException {
+        Path dir = persistedChain();
+        Main.SimpleBlockChain.close();
+        corrupt(dir.resolve("utxo-0000000014.snap"));
+        corrupt(dir.resolve("utxo-0000000019.snap"));
+
+        Main.SimpleBlockChain.open(dir); // (replaying from genesis would need the pruned blocks)
+        assertNull(Main.SimpleBlockChain.store);
+        assertTrue(Main.SimpleBlockChain.blockchain.isEmpty());
+        assertEquals(0, Main.SimpleBlockChain.UTXOs.size());
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Rebuilds the chain on a block store with a UTXO snapshot every INTERVAL blocks, pruning all but the last two
+     * blocks (in memory; on disk, the blocks covered by both kept snapshots, in compacted segments)
+     *
+     * @return Block store directory
+     */
+    private Path persistedChain() throws IOException {
+        Main.SimpleBlockChain.close();
+        Main.SimpleBlockChain.snapshotInterval = INTERVAL;
+        Main.SimpleBlockChain.pruneDepth = 2;
+        Path dir = folder.getRoot().toPath();
+        Main.SimpleBlockChain.store = new BlockStore(dir, SEGMENT);
+
+        Wallet coinbase = new Wallet(SignatureScheme.ED25519);
+        Transaction release = new Transaction("0", coinbase.eK, alice.address, 100f);
+        release.sign(coinbase.dK);
+        Main.SimpleBlockChain.UTXOs.addAll(release.outputs);
+        Block block = new Block("0");
+        block.addTransaction(release);
+        Main.SimpleBlockChain.add(block);
+        for(int height = 1; height < BLOCKS; height++){
+            block = new Block(block.signature);
+            assertTrue(block.addTransaction(height % 2 == 0 ? payment(bob, alice, 1f) : payment(alice, bob, 2f)));
+            Main.SimpleBlockChain.add(block);
+        }
+        assertEquals(BLOCKS, Main.SimpleBlockChain.store.size());
+        assertTrue(Main.SimpleBlockChain.blockchain.get(0).pruned);
+        assertTrue(BlockCodec.decodeBlock(Main.SimpleBlockChain.store.read(0)).pruned); // (compacted on disk)
+        return dir;
+    }
+
+    private static void corrupt(Path snapshot) throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 1] ^= 1; // CRC32 trailer
+        Files.write(snapshot, bytes);
+    }
+
+    private void assertChainUnchanged(int outputs){
+        assertEquals(2, Main.SimpleBlockChain.blockchain.size());
+        assertEquals(2, Main.SimpleBlockChain.headers.size());
+        assertEquals(outputs, Main.SimpleBlockChain.UTXOs.size());
+        assertEquals(90f, alice.balance(), 0f);
+        assertEquals(10f, bob.balance(), 0f);
+        assertTrue(Main.SimpleBlockChain.UTXOs.checkBalances());
+    }
+
+    private static Transaction payment(Wallet from, Wallet to, float value){
+        Transaction transaction = from.send(to.address, value);
+        assertNotNull(transaction);
+        transaction.sign(from.dK);
+        return transaction;
+    }
+}
@@ -0,0 +1,317 @@
+package com.jf2978;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/** =====
+ * The UtxoSnapshotTest class checks UTXO snapshots: a snapshot restores the same outputs, tip and height it was written
+ * from (without the changes of transactions the tip does not include, whose spent outputs are written back as stored,
+ * not as carried), a file whose count, CRC32 trailer or body does not check out (or that is cut short) is rejected
+ * with the set left empty, loading falls back to the previous snapshot (also when the newer one's tip is not on the
+ * chain), and only the newest snapshots are kept. A node bootstrapped from another node's snapshot names its own
+ * snapshots by chain height (the snapshot's height plus the blocks it stored since) and restores from them on reopening.
+ *
+ * @author jf2978
+ */
+public class UtxoSnapshotTest {
+
+    private static final int OUTPUTS = 500;
+    private static final int OWNERS = 5; // (addresses are written once, then referenced)
+    private static final String TIP = Utility.SHA512("tip");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private UtxoStore utxos;
+    private UtxoStore savedUtxos;
+    private ParallelMiner savedMiner;
+    private int savedInterval;
+
+    @Before
+    public void setUp(){
+        CryptoEngine.init();
+        savedUtxos = Main.SimpleBlockChain.UTXOs;
+        savedMiner = Main.SimpleBlockChain.miner;
+        savedInterval = Main.SimpleBlockChain.snapshotInterval;
+        dir = folder.getRoot().toPath();
+        utxos = new HeapUtxoStore();
+        Random random = new Random(3);
+        Address[] owners = new Address[OWNERS];
+        for(int i = 0; i < OWNERS; i++){
+            byte[] digest = new byte[Address.LENGTH];
+            random.nextBytes(digest);
+            owners[i] = new Address(digest);
+        }
+        utxos.add(new TransactionOutput(owners[0], 100f, "0")); // genesis output
+        for(int i = 1; i < OUTPUTS; i++){
+            utxos.add(new TransactionOutput(owners[random.nextInt(OWNERS)], random.nextInt(10_000) / 100f,
+                    Utility.SHA512("tx" + i), i % 2));
+        }
+    }
+
+    @After
+    public void tearDown(){
+        Main.SimpleBlockChain.close();
+        Main.SimpleBlockChain.UTXOs = savedUtxos;
+        Main.SimpleBlockChain.miner = savedMiner;
+        Main.SimpleBlockChain.snapshotInterval = savedInterval;
+    }
+
+    @Test
+    public void restoresWrittenSet() throws IOException {
+        UtxoSnapshot written = UtxoSnapshot.write(dir, utxos, TIP, 41);
+        assertEquals(OUTPUTS, written.outputs);
+
+        UtxoStore restored = new HeapUtxoStore();
+        UtxoSnapshot read = UtxoSnapshot.read(written.file, restored);
+        assertNotNull(read);
+        assertEquals(TIP, read.tip);
+        assertEquals(41, read.height);
+        assertEquals(OUTPUTS, read.outputs);
+        assertEquals(OUTPUTS, restored.size());
+        assertEquals(utxos.balances(), restored.balances());
+        utxos.forEach(expected -> {
+            TransactionOutput output = restored.get(expected.id);
+            assertNotNull(output);
+            assertNull(output.parentId); // (not written: the id commits to it)
+            assertEquals(expected.value, output.value, 0f);
+            assertEquals(expected.recipient, output.recipient);
+        });
+    }
+
+    @Test
+    public void leavesOutUnconnectedTransactions() throws IOException {
+        Map<String, TransactionOutput> tip = new HashMap<>();
+        utxos.forEach(output -> tip.put(output.id, output));
+        TransactionOutput coin = tip.values().iterator().next();
+        Wallet sender = new Wallet(SignatureScheme.ED25519);
+        Address recipient = new Address(new byte[Address.LENGTH]);
+
+        // Two chained transactions applied after the tip: the first spends a tip output (carrying an inflated copy of
+        // it, which must not be written back), the second spends its change
+        TransactionOutput inflated = new TransactionOutput(coin.id, coin.recipient, coin.value + 1000f, coin.parentId,
+                coin.index);
+        Transaction first = new Transaction(sender.eK, recipient, 0f, Collections.singleton(inflated));
+        TransactionOutput change = new TransactionOutput(coin.recipient, coin.value, first.id, 0);
+        first.outputs.add(change);
+        first.spent = Collections.singletonList(coin);
+        Transaction second = new Transaction(sender.eK, recipient, 0f, Collections.singleton(change));
+        second.outputs.add(new TransactionOutput(recipient, coin.value, second.id, 0));
+        second.spent = Collections.singletonList(change);
+        utxos.spend(coin);
+        utxos.addAll(second.outputs);
+
+        UtxoSnapshot written = UtxoSnapshot.write(dir, utxos, Arrays.asList(first, second), TIP, 7);
+        assertEquals(OUTPUTS, written.outputs);
+        UtxoStore restored = new HeapUtxoStore();
+        assertNotNull(UtxoSnapshot.read(written.file, restored));
+        assertEquals(tip.size(), restored.size());
+        for(String id : tip.keySet()){
+            assertEquals(tip.get(id).value, restored.get(id).value, 0f);
+        }
+    }
+
+    @Test
+    public void restoresEmptySet() throws IOException {
+        UtxoSnapshot written = UtxoSnapshot.write(dir, new HeapUtxoStore(), TIP, 0);
+        UtxoStore restored = new HeapUtxoStore();
+        UtxoSnapshot read = UtxoSnapshot.read(written.file, restored);
+        assertNotNull(read);
+        assertEquals(0, read.outputs);
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void rejectsBadTrailer() throws IOException {
+        Path file = UtxoSnapshot.write(dir, utxos, TIP, 1).file;
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1; // CRC32 trailer
+        assertRejected(file, bytes);
+    }
+
+    @Test
+    public void rejectsBadCount() throws IOException {
+        Path file = UtxoSnapshot.write(dir, utxos, TIP, 1).file;
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 9] ^= 1; // low byte of the output count
+        assertRejected(file, bytes);
+    }
+
+    @Test
+    public void rejectsCorruptBody() throws IOException {
+        Path file = UtxoSnapshot.write(dir, utxos, TIP, 1).file;
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        assertRejected(file, bytes);
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        Path file = UtxoSnapshot.write(dir, utxos, TIP, 1).file;
+        byte[] bytes = Files.readAllBytes(file);
+        assertRejected(file, Arrays.copyOf(bytes, bytes.length - 8)); // trailer missing
+        assertRejected(file, Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Test
+    public void loadFallsBackToPreviousSnapshot() throws IOException {
+        UtxoSnapshot.write(dir, utxos, TIP, 10);
+        UtxoStore changed = new HeapUtxoStore();
+        changed.add(new TransactionOutput(new Address(new byte[Address.LENGTH]), 1f, "0"));
+        Path latest = UtxoSnapshot.write(dir, changed, Utility.SHA512("later"), 20).file;
+
+        UtxoStore restored = new HeapUtxoStore();
+        assertEquals(20, UtxoSnapshot.load(dir, restored).height);
+        assertEquals(1, restored.size());
+
+        byte[] bytes = Files.readAllBytes(latest);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(latest, bytes);
+        UtxoSnapshot loaded = UtxoSnapshot.load(dir, restored);
+        assertEquals(10, loaded.height);
+        assertEquals(TIP, loaded.tip);
+        assertEquals(OUTPUTS, restored.size());
+    }
+
+    @Test
+    public void loadSkipsSnapshotsOffTheChain() throws IOException {
+        UtxoSnapshot.write(dir, utxos, TIP, 10);
+        String fork = Utility.SHA512("fork");
+        UtxoSnapshot.write(dir, new HeapUtxoStore(), fork, 20);
+
+        UtxoStore restored = new HeapUtxoStore();
+        UtxoSnapshot loaded = UtxoSnapshot.load(dir, restored, (tip, height) -> !tip.equals(fork));
+        assertEquals(10, loaded.height);
+        assertEquals(OUTPUTS, restored.size());
+        assertNull(UtxoSnapshot.load(dir, restored, (tip, height) -> false));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void keepsNewestSnapshots() throws IOException {
+        for(int height = 1; height <= 4; height++){
+            UtxoSnapshot.write(dir, utxos, TIP, height);
+        }
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        }
+        Collections.sort(names);
+        assertEquals(Arrays.asList("utxo-0000000003.snap", "utxo-0000000004.snap"), names);
+        assertNull(UtxoSnapshot.load(folder.newFolder().toPath(), new HeapUtxoStore()));
+    }
+
+    @Test
+    public void bootstrappedNodeSnapshotsAtChainHeights() throws IOException {
+        Main.SimpleBlockChain.close();
+        Main.SimpleBlockChain.UTXOs = new HeapUtxoStore();
+        Main.SimpleBlockChain.miner = null; // (mined on the calling thread)
+        Main.SimpleBlockChain.snapshotInterval = 3;
+        Wallet alice = new Wallet(SignatureScheme.ED25519);
+        Wallet bob = new Wallet(SignatureScheme.ED25519);
+
+        // Source node: genesis + 5 blocks, snapshots at heights 2 and 5
+        Path source = folder.newFolder().toPath();
+        Main.SimpleBlockChain.open(source);
+        Wallet coinbase = new Wallet(SignatureScheme.ED25519);
+        Transaction release = new Transaction("0", coinbase.eK, alice.address, 100f);
+        release.sign(coinbase.dK);
+        Main.SimpleBlockChain.UTXOs.addAll(release.outputs);
+        Block tip = new Block("0");
+        tip.addTransaction(release);
+        Main.SimpleBlockChain.add(tip);
+        tip = extend(tip, 5, alice, bob);
+        Map<Address, Long> balances = Main.SimpleBlockChain.UTXOs.balances();
+        Main.SimpleBlockChain.close();
+
+        // Bootstrapped node: stores blocks from 0 on, at chain heights 6 on
+        Path node = folder.newFolder().toPath();
+        Path bootstrap = source.resolve(String.format("utxo-%010d.snap", 5));
+        Files.copy(bootstrap, node.resolve(bootstrap.getFileName()));
+        Main.SimpleBlockChain.open(node);
+        assertEquals(6, Main.SimpleBlockChain.baseHeight);
+        assertEquals(balances, Main.SimpleBlockChain.UTXOs.balances());
+        tip = extend(tip, 1, alice, bob); // (reopened from the bootstrap snapshot, whose tip is not stored)
+        assertReopens(node, 6, 1);
+
+        tip = extend(tip, 3, alice, bob); // (chain heights 7 to 9: a snapshot at 8)
+        assertTrue(Files.exists(node.resolve(String.format("utxo-%010d.snap", 8))));
+        assertReopens(node, 6, 4);
+        assertEquals(Collections.singletonList(8), new ArrayList<>(Main.SimpleBlockChain.snapshotHeights));
+
+        extend(tip, 2, alice, bob); // (chain heights 10 and 11: a snapshot at 11)
+        assertTrue(Files.exists(node.resolve(String.format("utxo-%010d.snap", 11))));
+        assertReopens(node, 6, 6);
+        assertEquals(Collections.singletonList(11), new ArrayList<>(Main.SimpleBlockChain.snapshotHeights));
+    }
+
+    // #####
+    // HELPER METHODS
+    // #####
+
+    /** =====
+     * Adds blocks to the chain, each with one payment of 1 from one wallet to the other (alternately)
+     *
+     * @param tip Current tip of the chain
+     * @param count Number of blocks to add
+     * @param alice Paying wallet of the first block
+     * @param bob Paid wallet of the first block
+     * @return New tip
+     */
+    private static Block extend(Block tip, int count, Wallet alice, Wallet bob){
+        for(int i = 0; i < count; i++){
+            Wallet from = i % 2 == 0 ? alice : bob;
+            Transaction payment = from.send((from == alice ? bob : alice).address, 1f);
+            payment.sign(from.dK);
+            Block block = new Block(tip.signature);
+            assertTrue(block.addTransaction(payment));
+            assertTrue(Main.SimpleBlockChain.add(block));
+            tip = block;
+        }
+        return tip;
+    }
+
+    /** =====
+     * Closes and reopens a block store, checking the chain it restores
+     *
+     * @param dir Block store directory
+     * @param base Expected chain height of the first stored block
+     * @param blocks Expected number of stored blocks
+     */
+    private static void assertReopens(Path dir, int base, int blocks){
+        Map<Address, Long> balances = Main.SimpleBlockChain.UTXOs.balances();
+        Main.SimpleBlockChain.close();
+        Main.SimpleBlockChain.open(dir);
+        assertNotNull(Main.SimpleBlockChain.store);
+        assertEquals(base, Main.SimpleBlockChain.baseHeight);
+        assertEquals(blocks, Main.SimpleBlockChain.blockchain.size());
+        assertEquals(balances, Main.SimpleBlockChain.UTXOs.balances());
+        assertTrue(Main.SimpleBlockChain.isValid());
+    }
+
+    /** =====
+     * Rewrites a snapshot file and checks it no longer loads, leaving the set it was read into empty
+     *
+     * @param file Snapshot file
+     * @param bytes New file content
+     */
+    private void assertRejected(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes);
+        UtxoStore restored = new HeapUtxoStore();
+        restored.add(new TransactionOutput(new Address(new byte[Address.LENGTH]), 1f, "0")); // (must be cleared)
+        assertNull(UtxoSnapshot.read(file, restored));
+        assertEquals(0, restored.size());
+    }
+}